@@ -0,0 +1,137 @@
+package io.github.apfelcreme.Pipes.Benchmark;
+
+import io.github.apfelcreme.Pipes.Manager.ItemMoveScheduler;
+import io.github.apfelcreme.Pipes.Pipe.Pipe;
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import org.bukkit.Material;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AllocationBenchmark {
+
+    private PipesEnvironment environment;
+    private Pipe pipe;
+    private SimpleLocation inputLocation;
+    private Inventory inputInventory;
+    private ItemStack item;
+    private ItemStack namedItem;
+
+    /**
+     * Runs the benchmarks with the GC profiler which reports the bytes allocated per operation
+     * (gc.alloc.rate.norm) next to the time
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(AllocationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = new PipesEnvironment();
+        environment.buildPipe(64, 8);
+        pipe = environment.getPipe();
+        inputLocation = environment.getInputLocation();
+        inputInventory = PipesEnvironment.getInventory(environment.getInput());
+        item = new ItemStack(Material.COBBLESTONE, 64);
+        namedItem = new ItemStack(Material.DIAMOND_SWORD);
+        ItemMeta meta = namedItem.getItemMeta();
+        meta.setDisplayName("Named");
+        namedItem.setItemMeta(meta);
+        pipe.getRoutes(item);
+        pipe.getRoutes(namedItem);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        environment.close();
+    }
+
+    /**
+     * a cached route lookup of an item without meta, should not allocate
+     */
+    @Benchmark
+    public Pipe.Route[] materialRoutes() {
+        return pipe.getRoutes(item);
+    }
+
+    /**
+     * a cached route lookup of an item with meta, should not allocate either
+     */
+    @Benchmark
+    public Pipe.Route[] metaRoutes() {
+        return pipe.getRoutes(namedItem);
+    }
+
+    /**
+     * a complete transfer, the allocations of the refill are not measured
+     */
+    @Benchmark
+    public ItemMoveScheduler.TransferResult transfer(Refill refill) {
+        return ItemMoveScheduler.getInstance().execute(inputLocation);
+    }
+
+    /**
+     * Refills the input before every transfer. It is its own state so that the cheap route
+     * lookups don't pay for a setup per invocation.
+     */
+    @State(Scope.Thread)
+    public static class Refill {
+
+        @Setup(Level.Invocation)
+        public void refill(AllocationBenchmark benchmark) {
+            benchmark.environment.getServer().tick();
+            for (int i = 0; i < benchmark.environment.getTargets().size(); i++) {
+                PipesEnvironment.getInventory(benchmark.environment.getTargets().get(i)).clear();
+            }
+            benchmark.inputInventory.clear();
+            benchmark.inputInventory.addItem(benchmark.item.clone(), benchmark.namedItem.clone());
+        }
+    }
+}
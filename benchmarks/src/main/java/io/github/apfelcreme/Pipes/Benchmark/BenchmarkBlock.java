@@ -0,0 +1,70 @@
+package io.github.apfelcreme.Pipes.Benchmark;
+
+import be.seeseemelk.mockbukkit.block.BlockMock;
+import be.seeseemelk.mockbukkit.block.state.BlockStateMock;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.block.BlockState;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class BenchmarkBlock extends BlockMock {
+
+    /**
+     * the state that Paper would return for getState(false), MockBukkit only knows snapshots
+     */
+    private BlockStateMock liveState;
+
+    public BenchmarkBlock(Location location) {
+        super(Material.AIR, location);
+        liveState = (BlockStateMock) super.getState();
+    }
+
+    @Override
+    public void setType(Material type) {
+        super.setType(type);
+        liveState = (BlockStateMock) super.getState();
+    }
+
+    @Override
+    public void setState(BlockStateMock state) {
+        super.setState(state);
+        liveState = state;
+    }
+
+    @Override
+    public BlockState getState() {
+        return liveState.getSnapshot();
+    }
+
+    @Override
+    public BlockState getState(boolean useSnapshot) {
+        return useSnapshot ? liveState.getSnapshot() : liveState;
+    }
+
+    @Override
+    public boolean isBlockPowered() {
+        return false;
+    }
+
+    @Override
+    public boolean isBlockIndirectlyPowered() {
+        return false;
+    }
+}
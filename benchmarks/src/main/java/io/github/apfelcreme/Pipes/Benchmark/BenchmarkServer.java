@@ -0,0 +1,49 @@
+package io.github.apfelcreme.Pipes.Benchmark;
+
+import be.seeseemelk.mockbukkit.ServerMock;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class BenchmarkServer extends ServerMock {
+
+    private int currentTick = 0;
+
+    /**
+     * advances the tick that the plugin sees, the scheduler isn't run
+     */
+    public void tick() {
+        currentTick++;
+    }
+
+    @Override
+    public int getCurrentTick() {
+        return currentTick;
+    }
+
+    @Override
+    public boolean isPrimaryThread() {
+        // JMH may run the setup and the benchmarks in different threads
+        return true;
+    }
+
+    @Override
+    public boolean isOnMainThread() {
+        return true;
+    }
+}
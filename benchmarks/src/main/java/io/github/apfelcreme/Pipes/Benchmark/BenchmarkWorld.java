@@ -0,0 +1,57 @@
+package io.github.apfelcreme.Pipes.Benchmark;
+
+import be.seeseemelk.mockbukkit.Coordinate;
+import be.seeseemelk.mockbukkit.WorldMock;
+import be.seeseemelk.mockbukkit.block.BlockMock;
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import org.bukkit.Location;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class BenchmarkWorld extends WorldMock {
+
+    private final Map<Long, BenchmarkBlock> blocks = new HashMap<>();
+
+    public BenchmarkWorld(String name) {
+        setName(name);
+    }
+
+    @Override
+    public BlockMock getBlockAt(int x, int y, int z) {
+        return blocks.computeIfAbsent(SimpleLocation.getBlockKey(x, y, z), k -> new BenchmarkBlock(new Location(this, x, y, z)));
+    }
+
+    @Override
+    public BlockMock getBlockAt(Location location) {
+        return getBlockAt(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+    @Override
+    public BlockMock getBlockAt(Coordinate coordinate) {
+        return getBlockAt(coordinate.x, coordinate.y, coordinate.z);
+    }
+
+    @Override
+    public boolean isChunkLoaded(int x, int z) {
+        return true;
+    }
+}
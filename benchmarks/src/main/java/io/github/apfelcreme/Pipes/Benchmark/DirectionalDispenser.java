@@ -0,0 +1,51 @@
+package io.github.apfelcreme.Pipes.Benchmark;
+
+import be.seeseemelk.mockbukkit.block.state.DispenserMock;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.material.Dispenser;
+import org.bukkit.material.MaterialData;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class DirectionalDispenser extends DispenserMock {
+
+    private final BlockFace facing;
+
+    public DirectionalDispenser(Block block, BlockFace facing) {
+        super(block);
+        this.facing = facing;
+    }
+
+    private DirectionalDispenser(DirectionalDispenser state) {
+        super(state);
+        this.facing = state.facing;
+    }
+
+    @Override
+    public MaterialData getData() {
+        return new Dispenser(facing);
+    }
+
+    @Override
+    public BlockState getSnapshot() {
+        return new DirectionalDispenser(this);
+    }
+}
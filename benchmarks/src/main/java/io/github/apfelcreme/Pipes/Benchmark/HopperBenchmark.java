@@ -0,0 +1,111 @@
+package io.github.apfelcreme.Pipes.Benchmark;
+
+import io.github.apfelcreme.Pipes.Listener.InventoryChangeListener;
+import io.github.apfelcreme.Pipes.Manager.ItemMoveScheduler;
+import io.github.apfelcreme.Pipes.Pipes;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.event.inventory.InventoryMoveItemEvent;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HopperBenchmark {
+
+    /**
+     * whether a pipe with full targets has a blocked transfer, the moves then can't skip the lookups
+     */
+    @Param({"false", "true"})
+    public boolean blocked;
+
+    private PipesEnvironment environment;
+    private InventoryChangeListener listener;
+    private InventoryMoveItemEvent hopperToChest;
+    private InventoryMoveItemEvent hopperToHopper;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        environment = new PipesEnvironment();
+        listener = new InventoryChangeListener(Pipes.getInstance());
+        if (blocked) {
+            environment.buildPipe(16, 4);
+            for (Block target : environment.getTargets()) {
+                Inventory inventory = PipesEnvironment.getInventory(target);
+                for (int slot = 0; slot < inventory.getSize(); slot++) {
+                    inventory.setItem(slot, new ItemStack(Material.STONE, 64));
+                }
+            }
+            PipesEnvironment.getInventory(environment.getInput()).addItem(new ItemStack(Material.DIRT, 64));
+            ItemMoveScheduler.getInstance().add(environment.getInputLocation());
+            environment.getServer().getScheduler().performTicks(5);
+        }
+
+        // A hopper chain next to the pipe that has nothing to do with it, like the item sorters of a farm
+        Block hopper = environment.getWorld().getBlockAt(0, 64, 16);
+        hopper.setType(Material.HOPPER);
+        Block nextHopper = environment.getWorld().getBlockAt(1, 64, 16);
+        nextHopper.setType(Material.HOPPER);
+        Block chest = environment.getWorld().getBlockAt(1, 63, 16);
+        chest.setType(Material.CHEST);
+
+        ItemStack item = new ItemStack(Material.COBBLESTONE);
+        hopperToHopper = new InventoryMoveItemEvent(PipesEnvironment.getInventory(hopper), item,
+                PipesEnvironment.getInventory(nextHopper), true);
+        hopperToChest = new InventoryMoveItemEvent(PipesEnvironment.getInventory(nextHopper), item,
+                PipesEnvironment.getInventory(chest), true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        environment.close();
+    }
+
+    /**
+     * the listener's work for two items that a hopper chain moves, this happens for every item a hopper moves
+     */
+    @Benchmark
+    public void itemMoved() {
+        listener.onInventoryItemMove(hopperToHopper);
+        listener.onInventoryItemMoved(hopperToHopper);
+        listener.onInventoryItemMove(hopperToChest);
+        listener.onInventoryItemMoved(hopperToChest);
+    }
+}
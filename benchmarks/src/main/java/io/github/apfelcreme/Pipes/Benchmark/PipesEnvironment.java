@@ -0,0 +1,163 @@
+package io.github.apfelcreme.Pipes.Benchmark;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import io.github.apfelcreme.Pipes.Exception.ChunkNotLoadedException;
+import io.github.apfelcreme.Pipes.Exception.PipeTooLongException;
+import io.github.apfelcreme.Pipes.Exception.TooManyOutputsException;
+import io.github.apfelcreme.Pipes.Manager.PipeManager;
+import io.github.apfelcreme.Pipes.Pipe.Pipe;
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import io.github.apfelcreme.Pipes.Pipes;
+import io.github.apfelcreme.Pipes.PipesConfig;
+import io.github.apfelcreme.Pipes.PipesItem;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.Container;
+import org.bukkit.inventory.Inventory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class PipesEnvironment {
+
+    public static final Material PIPE_MATERIAL = Material.WHITE_STAINED_GLASS;
+
+    private static final int Y = 64;
+
+    private final BenchmarkServer server;
+    private final Pipes plugin;
+    private final BenchmarkWorld world;
+
+    /**
+     * the input of the pipe that got built
+     */
+    private Block input;
+
+    /**
+     * the outputs of the pipe that got built, in the order along the pipe
+     */
+    private final List<Block> outputs = new ArrayList<>();
+
+    /**
+     * the chests that the outputs are facing
+     */
+    private final List<Block> targets = new ArrayList<>();
+
+    /**
+     * Starts a mocked server with the plugin enabled and an empty world. The pipes are
+     * not limited in length, outputs or transfers so that only the work itself is measured.
+     */
+    public PipesEnvironment() {
+        server = MockBukkit.mock(new BenchmarkServer());
+        plugin = MockBukkit.load(Pipes.class);
+        world = new BenchmarkWorld("benchmark");
+        server.addWorld(world);
+
+        plugin.getConfig().set("maxPipeLength", 0);
+        plugin.getConfig().set("maxPipeOutputs", 0);
+        plugin.getConfig().set("transferCount", 0);
+        plugin.saveConfig();
+        PipesConfig.load();
+    }
+
+    /**
+     * Builds a straight pipe along the x axis with its input at the start. The outputs sit
+     * at the end of branches that leave the pipe in even distances and face a chest each.
+     *
+     * @param length   the amount of blocks of the main pipe
+     * @param branches the amount of branches with an output
+     * @return the input block
+     */
+    public Block buildPipe(int length, int branches) {
+        input = placePart(0, Y, 0, Material.DISPENSER, BlockFace.EAST, PipesItem.PIPE_INPUT);
+        for (int x = 1; x <= length; x++) {
+            world.getBlockAt(x, Y, 0).setType(PIPE_MATERIAL);
+        }
+        for (int i = 0; i < branches; i++) {
+            int x = 1 + i * length / branches;
+            world.getBlockAt(x, Y, 1).setType(PIPE_MATERIAL);
+            world.getBlockAt(x, Y, 2).setType(PIPE_MATERIAL);
+            outputs.add(placePart(x, Y, 3, Material.DROPPER, BlockFace.SOUTH, PipesItem.PIPE_OUTPUT));
+            Block target = world.getBlockAt(x, Y, 4);
+            target.setType(Material.CHEST);
+            targets.add(target);
+        }
+        return input;
+    }
+
+    private Block placePart(int x, int y, int z, Material material, BlockFace facing, PipesItem item) {
+        BenchmarkBlock block = (BenchmarkBlock) world.getBlockAt(x, y, z);
+        block.setType(material);
+        block.setState(material == Material.DISPENSER
+                ? new DirectionalDispenser(block, facing)
+                : new DirectionalDropper(block, facing));
+        PipeManager.getInstance().createPipePart(item, block);
+        return block;
+    }
+
+    /**
+     * Discovers the pipe at the input and puts it into the caches like a transfer would
+     *
+     * @return the pipe
+     */
+    public Pipe getPipe() throws ChunkNotLoadedException, TooManyOutputsException, PipeTooLongException {
+        return PipeManager.getInstance().getPipeByInput(getInputLocation());
+    }
+
+    public SimpleLocation getInputLocation() {
+        return new SimpleLocation(input.getLocation());
+    }
+
+    public Block getInput() {
+        return input;
+    }
+
+    public List<Block> getOutputs() {
+        return outputs;
+    }
+
+    public List<Block> getTargets() {
+        return targets;
+    }
+
+    public BenchmarkServer getServer() {
+        return server;
+    }
+
+    public BenchmarkWorld getWorld() {
+        return world;
+    }
+
+    /**
+     * returns the inventory that a block has in the world
+     *
+     * @param block the block
+     * @return the inventory
+     */
+    public static Inventory getInventory(Block block) {
+        return ((Container) block.getState(false)).getInventory();
+    }
+
+    public void close() {
+        MockBukkit.unmock();
+    }
+}
@@ -0,0 +1,156 @@
+package io.github.apfelcreme.Pipes.Benchmark;
+
+import io.github.apfelcreme.Pipes.Pipe.AbstractPipePart;
+import io.github.apfelcreme.Pipes.Pipe.Pipe;
+import io.github.apfelcreme.Pipes.Pipe.PipeInput;
+import io.github.apfelcreme.Pipes.Pipe.PipeOutput;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+
+    private static final Material[] FILTER_MATERIALS = {
+            Material.COBBLESTONE, Material.DIRT, Material.OAK_LOG, Material.IRON_INGOT,
+            Material.REDSTONE, Material.WHEAT, Material.BONE, Material.STRING
+    };
+
+    @Param({"1", "8", "32"})
+    public int branches;
+
+    /**
+     * which filter options the outputs use: only the material, the material and the damage
+     * or the complete item data
+     */
+    @Param({"MATERIAL", "DAMAGE", "DATA"})
+    public String filter;
+
+    /**
+     * whether the routed item has meta, those items can't use the per material route cache
+     */
+    @Param({"false", "true"})
+    public boolean meta;
+
+    private PipesEnvironment environment;
+    private Pipe pipe;
+    private PipeInput input;
+    private PipeOutput lastOutput;
+    private ItemStack filterItem;
+    private ItemStack item;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = new PipesEnvironment();
+        environment.buildPipe(64, branches);
+        for (int i = 0; i < branches; i++) {
+            Block block = environment.getOutputs().get(i);
+            PipesEnvironment.getInventory(block).addItem(createItem(FILTER_MATERIALS[i % FILTER_MATERIALS.length]));
+        }
+        pipe = environment.getPipe();
+        input = pipe.getInput(environment.getInputLocation());
+        for (PipeOutput output : pipe.getOutputs().values()) {
+            if ("DAMAGE".equals(filter)) {
+                output.setOption(PipeOutput.Options.DAMAGE_FILTER, AbstractPipePart.Value.TRUE, true);
+            } else if ("DATA".equals(filter)) {
+                output.setOption(PipeOutput.Options.DATA_FILTER, AbstractPipePart.Value.TRUE, true);
+            }
+            output.invalidateFilter();
+            lastOutput = output;
+        }
+        pipe.invalidateRoutes();
+        // The item matches the filter of the last output so that all outputs get checked
+        filterItem = createItem(FILTER_MATERIALS[(branches - 1) % FILTER_MATERIALS.length]);
+        item = filterItem.clone();
+        item.setAmount(16);
+    }
+
+    private ItemStack createItem(Material material) {
+        ItemStack itemStack = new ItemStack(material);
+        if (meta) {
+            ItemMeta itemMeta = itemStack.getItemMeta();
+            itemMeta.setDisplayName("Sorted " + material.name());
+            itemMeta.setLore(Collections.singletonList("benchmark"));
+            itemStack.setItemMeta(itemMeta);
+        }
+        return itemStack;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        environment.close();
+    }
+
+    /**
+     * routes of an item that were looked up before
+     */
+    @Benchmark
+    public Pipe.Route[] cachedRoutes() {
+        return pipe.getRoutes(item);
+    }
+
+    /**
+     * routes of an item after the pipe changed, every output filter gets checked
+     */
+    @Benchmark
+    public Pipe.Route[] uncachedRoutes() {
+        pipe.invalidateRoutes();
+        return pipe.getRoutes(item);
+    }
+
+    /**
+     * the filter and target checks of all outputs without the route cache
+     */
+    @Benchmark
+    public void accepts(Blackhole blackhole) {
+        for (PipeOutput output : pipe.getOutputs().values()) {
+            blackhole.consume(output.accepts(input, item));
+        }
+    }
+
+    @Benchmark
+    public boolean matchesFilter() {
+        return lastOutput.matchesFilter(filterItem, item);
+    }
+}
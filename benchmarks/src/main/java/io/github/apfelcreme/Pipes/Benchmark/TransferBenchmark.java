@@ -0,0 +1,124 @@
+package io.github.apfelcreme.Pipes.Benchmark;
+
+import io.github.apfelcreme.Pipes.Manager.ItemMoveScheduler;
+import io.github.apfelcreme.Pipes.Pipe.AbstractPipePart;
+import io.github.apfelcreme.Pipes.Pipe.Pipe;
+import io.github.apfelcreme.Pipes.Pipe.PipeInput;
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransferBenchmark {
+
+    private static final Material[] ITEMS = {
+            Material.COBBLESTONE, Material.DIRT, Material.OAK_LOG, Material.IRON_INGOT,
+            Material.REDSTONE, Material.WHEAT, Material.BONE, Material.STRING, Material.SAND
+    };
+
+    @Param({"1", "8", "32"})
+    public int branches;
+
+    /**
+     * whether the input spreads its items over all outputs
+     */
+    @Param({"false", "true"})
+    public boolean spread;
+
+    /**
+     * whether the first half of the targets are full so that the items overflow into the others
+     */
+    @Param({"false", "true"})
+    public boolean overflow;
+
+    private PipesEnvironment environment;
+    private SimpleLocation inputLocation;
+    private Inventory inputInventory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = new PipesEnvironment();
+        environment.buildPipe(64, branches);
+        Pipe pipe = environment.getPipe();
+        inputLocation = environment.getInputLocation();
+        PipeInput input = pipe.getInput(inputLocation);
+        input.setOption(PipeInput.Options.SPREAD, spread ? AbstractPipePart.Value.TRUE : AbstractPipePart.Value.FALSE, true);
+        input.setOption(PipeInput.Options.OVERFLOW, overflow ? AbstractPipePart.Value.TRUE : AbstractPipePart.Value.FALSE, true);
+        inputInventory = PipesEnvironment.getInventory(environment.getInput());
+    }
+
+    /**
+     * refills the input and empties the targets, the transfer itself would otherwise
+     * only have to move items the first time
+     */
+    @Setup(Level.Invocation)
+    public void refill() {
+        environment.getServer().tick();
+        for (int i = 0; i < environment.getTargets().size(); i++) {
+            Inventory target = PipesEnvironment.getInventory(environment.getTargets().get(i));
+            target.clear();
+            if (overflow && i < environment.getTargets().size() / 2) {
+                for (int slot = 0; slot < target.getSize(); slot++) {
+                    target.setItem(slot, new ItemStack(Material.STONE, 64));
+                }
+            }
+        }
+        inputInventory.clear();
+        for (Material material : ITEMS) {
+            inputInventory.addItem(new ItemStack(material, 64));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        environment.close();
+    }
+
+    /**
+     * one transfer of a full input through the pipe into the chests
+     */
+    @Benchmark
+    public ItemMoveScheduler.TransferResult execute() {
+        return ItemMoveScheduler.getInstance().execute(inputLocation);
+    }
+}
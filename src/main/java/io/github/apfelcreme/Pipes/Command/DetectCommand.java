@@ -3,6 +3,7 @@ package io.github.apfelcreme.Pipes.Command;
 import io.github.apfelcreme.Pipes.LoopDetection.Detection;
 import io.github.apfelcreme.Pipes.Manager.DetectionManager;
 import io.github.apfelcreme.Pipes.LoopDetection.TickingLocation;
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
 import io.github.apfelcreme.Pipes.Pipes;
 import io.github.apfelcreme.Pipes.PipesConfig;
 import io.github.apfelcreme.Pipes.PipesUtil;
@@ -44,7 +45,7 @@ public class DetectCommand implements SubCommand {
             if (strings.length > 1 && PipesUtil.isNumeric(strings[1])) {
                 duration = 20L * Integer.parseInt(strings[1]);
             }
-            DetectionManager.getInstance().createDetection(commandSender);
+            DetectionManager.getInstance().createDetection(commandSender, duration);
             Pipes.sendMessage(commandSender, PipesConfig.getText("info.detect.started",
                     new DecimalFormat("0").format(duration / 20)));
             Pipes.getInstance().getServer().getScheduler().runTaskLaterAsynchronously(Pipes.getInstance(), () -> {
@@ -67,6 +68,17 @@ public class DetectCommand implements SubCommand {
                     } else {
                         Pipes.sendMessage(commandSender, PipesConfig.getText("info.detect.noElements"));
                     }
+                    for (List<SimpleLocation> loop : detection.getLoops()) {
+                        StringBuilder inputs = new StringBuilder();
+                        for (SimpleLocation location : loop) {
+                            inputs.append(PipesConfig.getText("info.detect.loopElement",
+                                    location.getWorldName(),
+                                    String.valueOf(location.getX()),
+                                    String.valueOf(location.getY()),
+                                    String.valueOf(location.getZ())));
+                        }
+                        Pipes.sendMessage(commandSender, PipesConfig.getText("info.detect.loop", String.valueOf(loop.size()), inputs.toString()));
+                    }
                 }
             }, duration);
         } else {
@@ -5,6 +5,7 @@ import io.github.apfelcreme.Pipes.Manager.PipeManager;
 import io.github.apfelcreme.Pipes.Pipe.Pipe;
 import io.github.apfelcreme.Pipes.Pipes;
 import io.github.apfelcreme.Pipes.PipesConfig;
+import io.github.apfelcreme.Pipes.PipesUtil;
 import org.bukkit.command.CommandSender;
 
 /*
@@ -40,7 +41,9 @@ public class MonitorCommand implements SubCommand {
                     String.valueOf(PipeManager.getInstance().getPipeCache().size()),
                     String.valueOf(PipeManager.getInstance().getSingleCache().size()),
                     String.valueOf(PipeManager.getInstance().getMultiCache().size()),
-                    String.valueOf(PipeManager.getInstance().getPipePartCache().size())
+                    String.valueOf(PipeManager.getInstance().getPipePartCache().size()),
+                    String.valueOf(PipeManager.getInstance().getIndexedChunks()),
+                    String.valueOf(PipesUtil.getPipesItemCache().size())
             ));
 
             if (ItemMoveScheduler.getInstance().isActive()) {
@@ -0,0 +1,118 @@
+package io.github.apfelcreme.Pipes.Command;
+
+import io.github.apfelcreme.Pipes.Manager.ItemMoveScheduler;
+import io.github.apfelcreme.Pipes.Manager.MetricsManager;
+import io.github.apfelcreme.Pipes.Manager.PipeManager;
+import io.github.apfelcreme.Pipes.Metrics.TransferMetrics;
+import io.github.apfelcreme.Pipes.Pipe.Pipe;
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import io.github.apfelcreme.Pipes.Pipes;
+import io.github.apfelcreme.Pipes.PipesConfig;
+import org.bukkit.command.CommandSender;
+
+import java.text.DecimalFormat;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class StatsCommand implements SubCommand {
+
+    /**
+     * the amount of pipes and inputs that are listed
+     */
+    private static final int LIST_SIZE = 5;
+
+    /**
+     * executes the command
+     *
+     * @param commandSender the sender
+     * @param strings       the command args
+     */
+    @Override
+    public void execute(final CommandSender commandSender, String[] strings) {
+        if (commandSender.hasPermission("Pipes.stats")) {
+            MetricsManager metrics = MetricsManager.getInstance();
+            if (strings.length > 1 && strings[1].equalsIgnoreCase("export")) {
+                Pipes.sendMessage(commandSender, PipesConfig.getText("info.stats.exported", metrics.export().getName()));
+                return;
+            }
+            if (strings.length > 1 && strings[1].equalsIgnoreCase("reset")) {
+                metrics.reset();
+                Pipes.sendMessage(commandSender, PipesConfig.getText("info.stats.reset"));
+                return;
+            }
+
+            DecimalFormat format = new DecimalFormat("0.0");
+            TransferMetrics global = metrics.getGlobal();
+            Pipes.sendMessage(commandSender, PipesConfig.getText("info.stats.global",
+                    String.valueOf(global.getExecutions()),
+                    String.valueOf(global.getItemsMoved()),
+                    String.valueOf(global.getStacksMoved()),
+                    String.valueOf(global.getFailedAttempts()),
+                    format.format(global.getAverageExecuteNanos() / 1000.0),
+                    String.valueOf(global.getBlockedTicks())));
+            Pipes.sendMessage(commandSender, PipesConfig.getText("info.stats.queue",
+                    String.valueOf(ItemMoveScheduler.getInstance().getTransfers().size()),
+                    String.valueOf(ItemMoveScheduler.getInstance().getBlockedTransfers().size()),
+                    String.valueOf(PipeManager.getInstance().getLoopedPipes()),
+                    String.valueOf(metrics.getBudgetExceeded())));
+            Pipes.sendMessage(commandSender, PipesConfig.getText("info.stats.caches",
+                    format.format(metrics.getPipeCacheHitRate() * 100),
+                    format.format(metrics.getSingleCache().getHitRate() * 100),
+                    format.format(metrics.getPipePartCache().getHitRate() * 100)));
+
+            List<Pipe> pipes = metrics.getMostExpensivePipes(LIST_SIZE);
+            if (!pipes.isEmpty()) {
+                Pipes.sendMessage(commandSender, PipesConfig.getText("info.stats.pipes"));
+                int i = 0;
+                for (Pipe pipe : pipes) {
+                    if (!pipe.getInputs().isEmpty()) {
+                        sendElement(commandSender, i, pipe.getInputs().keySet().iterator().next(), pipe.getMetrics(), format);
+                    }
+                    i++;
+                }
+            }
+
+            List<Map.Entry<SimpleLocation, TransferMetrics>> inputs = metrics.getMostExpensiveInputs(LIST_SIZE);
+            if (!inputs.isEmpty()) {
+                Pipes.sendMessage(commandSender, PipesConfig.getText("info.stats.inputs"));
+                int i = 0;
+                for (Map.Entry<SimpleLocation, TransferMetrics> entry : inputs) {
+                    sendElement(commandSender, i, entry.getKey(), entry.getValue(), format);
+                    i++;
+                }
+            }
+        } else {
+            Pipes.sendMessage(commandSender, PipesConfig.getText("error.noPermission"));
+        }
+    }
+
+    private void sendElement(CommandSender commandSender, int index, SimpleLocation location, TransferMetrics metrics, DecimalFormat format) {
+        Pipes.sendMessage(commandSender, PipesConfig.getText("info.stats.element",
+                String.valueOf(index),
+                location.getWorldName(),
+                String.valueOf(location.getX()),
+                String.valueOf(location.getY()),
+                String.valueOf(location.getZ()),
+                format.format(metrics.getExecuteNanos() / 1000000.0),
+                String.valueOf(metrics.getExecutions()),
+                String.valueOf(metrics.getItemsMoved())));
+    }
+}
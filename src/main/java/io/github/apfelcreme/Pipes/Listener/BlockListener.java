@@ -8,19 +8,20 @@ import io.github.apfelcreme.Pipes.Exception.LocationException;
 import io.github.apfelcreme.Pipes.Exception.PipeTooLongException;
 import io.github.apfelcreme.Pipes.Exception.TooManyOutputsException;
 import io.github.apfelcreme.Pipes.Manager.PipeManager;
+import io.github.apfelcreme.Pipes.Manager.TopologyStore;
 import io.github.apfelcreme.Pipes.Pipe.AbstractPipePart;
 import io.github.apfelcreme.Pipes.Pipe.ChunkLoader;
 import io.github.apfelcreme.Pipes.Pipe.Pipe;
 import io.github.apfelcreme.Pipes.Pipe.PipeInput;
 import io.github.apfelcreme.Pipes.Pipe.PipeOutput;
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
 import io.github.apfelcreme.Pipes.Pipes;
 import io.github.apfelcreme.Pipes.PipesConfig;
 import io.github.apfelcreme.Pipes.PipesItem;
 import io.github.apfelcreme.Pipes.PipesUtil;
-import org.bukkit.Material;
+import org.bukkit.Location;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
-import org.bukkit.block.BlockState;
 import org.bukkit.entity.Item;
 import org.bukkit.event.Event;
 import org.bukkit.event.EventHandler;
@@ -29,21 +30,21 @@ import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockBreakEvent;
 import org.bukkit.event.block.BlockDispenseEvent;
 import org.bukkit.event.block.BlockDropItemEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
 import org.bukkit.event.block.BlockPistonExtendEvent;
 import org.bukkit.event.block.BlockPistonRetractEvent;
 import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
 import org.bukkit.event.inventory.CraftItemEvent;
 import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.inventory.InventoryMoveItemEvent;
 import org.bukkit.event.inventory.InventoryType;
 import org.bukkit.event.inventory.PrepareItemCraftEvent;
-import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
 
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -82,20 +83,25 @@ public class BlockListener implements Listener {
 
     @EventHandler(ignoreCancelled = true)
     public void onItemMove(InventoryMoveItemEvent event) {
-        if (event.getDestination().getType() != InventoryType.HOPPER // hoppers are allowed to remove items from the output
-                && event.getSource().getType() != InventoryType.HOPPER) {
-            InventoryHolder holder = event.getSource().getHolder(false);
-            if (holder instanceof BlockState && PipesItem.PIPE_OUTPUT.check((BlockState) holder)) {
-                event.setCancelled(true);
-            }
+        // Only droppers can be outputs, all other moves exit here without looking at their holder
+        if (event.getSource().getType() != InventoryType.DROPPER
+                || event.getDestination().getType() == InventoryType.HOPPER) { // hoppers are allowed to remove items from the output
+            return;
+        }
+        Location location = event.getSource().getLocation();
+        if (location != null && PipesUtil.getPipesItem(location.getBlock()) == PipesItem.PIPE_OUTPUT) {
+            event.setCancelled(true);
         }
     }
 
     @EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
     public void onBlockBreak(BlockBreakEvent event) {
+        PipesUtil.invalidatePipesItem(event.getBlock());
         AbstractPipePart pipePart = PipeManager.getInstance().getPipePart(event.getBlock());
         if (pipePart != null) {
             if (new PipeBlockBreakEvent(event.getBlock(), event.getPlayer(), pipePart).callEvent()) {
+                TopologyStore.getInstance().invalidate(event.getBlock());
+                PipeManager.getInstance().abortDiscoveries(event.getBlock());
                 Set<Pipe> pipes = PipeManager.getInstance().getPipesSafe(event.getBlock(), true);
                 if (!pipes.isEmpty()) {
                     for (Pipe pipe : new ArrayList<>(pipes)) {
@@ -106,11 +112,23 @@ public class BlockListener implements Listener {
                 event.setCancelled(true);
             }
         } else if (MaterialTags.STAINED_GLASS.isTagged(event.getBlock())) {
-            Set<Pipe> pipes = PipeManager.getInstance().getPipesSafe(event.getBlock(), true);
-            if (!pipes.isEmpty()) {
-                for (Pipe pipe : new ArrayList<>(pipes)) {
-                    PipeManager.getInstance().removePipe(pipe);
-                }
+            removeGlassBlock(event.getBlock());
+        }
+    }
+
+    /**
+     * Remove a glass block from the pipes that it belongs to
+     *
+     * @param block the glass block
+     */
+    private void removeGlassBlock(Block block) {
+        TopologyStore.getInstance().invalidate(block);
+        PipeManager.getInstance().abortDiscoveries(block);
+        Set<Pipe> pipes = PipeManager.getInstance().getPipesSafe(block, true);
+        if (!pipes.isEmpty()) {
+            SimpleLocation location = new SimpleLocation(block.getLocation());
+            for (Pipe pipe : new ArrayList<>(pipes)) {
+                PipeManager.getInstance().removeBlock(pipe, location);
             }
         }
     }
@@ -130,6 +148,7 @@ public class BlockListener implements Listener {
 
     @EventHandler(ignoreCancelled = true)
     public void onBlockPlace(BlockPlaceEvent event) {
+        PipesUtil.invalidatePipesItem(event.getBlock());
         try {
             PipesItem pipesItem = PipesUtil.getPipesItem(event.getItemInHand());
             if (pipesItem != null) {
@@ -139,6 +158,10 @@ public class BlockListener implements Listener {
                     return;
                 }
                 AbstractPipePart pipePart = PipeManager.getInstance().createPipePart(pipesItem, event.getBlock());
+                // The type was only stored in the block now
+                PipesUtil.invalidatePipesItem(event.getBlock());
+                TopologyStore.getInstance().invalidate(event.getBlock());
+                PipeManager.getInstance().abortDiscoveries(event.getBlock());
                 if (pipePart instanceof PipeInput) {
                     Block block = event.getBlock().getRelative(((PipeInput) pipePart).getFacing());
                     if (MaterialTags.STAINED_GLASS.isTagged(block)) {
@@ -174,42 +197,9 @@ public class BlockListener implements Listener {
                     pipe.highlight();
                 }
             } else if (MaterialTags.STAINED_GLASS.isTagged(event.getBlock())) {
-                Material placedType = event.getBlock().getType();
-
-                Set<Pipe> found = new HashSet<>();
-                for (BlockFace face : PipesUtil.BLOCK_FACES) {
-                    Block block = event.getBlock().getRelative(face);
-                    boolean isPotentialPipe = block.getType() == placedType;
-
-                    if (!isPotentialPipe) {
-                        AbstractPipePart potentialPart = PipeManager.getInstance().getPipePart(event.getBlock());
-                        if (potentialPart != null) {
-                            if (potentialPart instanceof PipeInput) {
-                                isPotentialPipe = (((PipeInput) potentialPart).getFacing().getOppositeFace() == face);
-                            } else if (potentialPart instanceof PipeOutput) {
-                                isPotentialPipe = (((PipeOutput) potentialPart).getFacing().getOppositeFace() != face);
-                            } else {
-                                isPotentialPipe = true;
-                            }
-                        }
-                    }
-
-                    if (isPotentialPipe) {
-                        Set<Pipe> pipes = PipeManager.getInstance().getPipesSafe(block, true);
-                        if (!pipes.isEmpty()) {
-                            Pipe pipe = pipes.iterator().next();
-                            if (pipe.getType() == placedType) {
-                                found.add(pipe);
-                            }
-                        }
-                    }
-                }
-
-                if (found.size() == 1) {
-                    PipeManager.getInstance().addBlock(found.iterator().next(), event.getBlock());
-                } else if (found.size() > 1) {
-                    PipeManager.getInstance().mergePipes(found);
-                } else {
+                TopologyStore.getInstance().invalidate(event.getBlock());
+                PipeManager.getInstance().abortDiscoveries(event.getBlock());
+                if (PipeManager.getInstance().addGlassBlock(event.getBlock()) == null) {
                     try {
                         for (Pipe pipe : PipeManager.getInstance().getPipes(event.getBlock())) {
                             Pipes.sendMessage(event.getPlayer(), PipesConfig.getText("info.pipe.pipeBuilt",
@@ -241,36 +231,85 @@ public class BlockListener implements Listener {
     }
     
     private void handlePistonEvent(BlockFace direction, List<Block> blocks) {
+        for (Block block : blocks) {
+            PipesUtil.invalidatePipesItem(block);
+            PipesUtil.invalidatePipesItem(block.getRelative(direction));
+        }
         if (!PipesConfig.isPistonCheckEnabled()) {
             return;
         }
-        
-        Set<Block> update = new LinkedHashSet<>();
-        for (Block moved : blocks) {
-            if (MaterialTags.STAINED_GLASS.isTagged(moved)) {
-                update.add(moved);
-                for (BlockFace face : PipesUtil.BLOCK_FACES) {
-                    Block u = moved.getRelative(face);
-                    if (!update.contains(u) && MaterialTags.STAINED_GLASS.isTagged(u) || PipeManager.getInstance().getPipePart(u) != null) {
-                        update.add(u);
-                    }
-                    Block ud = u.getRelative(direction);
-                    if (!update.contains(ud) && MaterialTags.STAINED_GLASS.isTagged(ud) || PipeManager.getInstance().getPipePart(ud) != null) {
-                        update.add(ud);
+
+        // Only the moved glass blocks change, remove them now and add them at their new position once they moved
+        List<Block> moved = new ArrayList<>();
+        for (Block block : blocks) {
+            if (MaterialTags.STAINED_GLASS.isTagged(block)) {
+                removeGlassBlock(block);
+                moved.add(block.getRelative(direction));
+            }
+        }
+        if (moved.isEmpty()) {
+            return;
+        }
+        plugin.getServer().getScheduler().runTask(plugin, () -> {
+            List<Block> remaining = new ArrayList<>();
+            for (Block block : moved) {
+                TopologyStore.getInstance().invalidate(block);
+                PipeManager.getInstance().abortDiscoveries(block);
+                if (MaterialTags.STAINED_GLASS.isTagged(block) && PipeManager.getInstance().getPipesSafe(block, true).isEmpty()) {
+                    remaining.add(block);
+                }
+            }
+            addGlassBlocks(remaining);
+        });
+    }
+
+    /**
+     * Add moved glass blocks to the pipes next to them. A block that only touches other moved blocks is added
+     * once one of them was added, so the blocks are added in passes until no pass adds anything. The pipes of
+     * the blocks that don't touch any cached pipe are discovered again as they might connect uncached parts.
+     *
+     * @param blocks the glass blocks at their new position that don't belong to a cached pipe yet
+     */
+    private void addGlassBlocks(List<Block> blocks) {
+        boolean added = true;
+        while (added && !blocks.isEmpty()) {
+            added = false;
+            for (Iterator<Block> it = blocks.iterator(); it.hasNext();) {
+                Block block = it.next();
+                try {
+                    if (PipeManager.getInstance().addGlassBlock(block) != null) {
+                        it.remove();
+                        added = true;
                     }
+                } catch (LocationException e) {
+                    // The pipe is invalid now, it gets discovered again when it's needed
+                    it.remove();
                 }
             }
         }
-        for (Block u : update) {
-            Set<Pipe> pipes = PipeManager.getInstance().getPipesSafe(u, true);
-            if (!pipes.isEmpty()) {
-                for (Pipe pipe : new ArrayList<>(pipes)) {
-                    PipeManager.getInstance().removePipe(pipe);
-                }
+        for (Block block : blocks) {
+            if (PipeManager.getInstance().getPipesSafe(block, true).isEmpty()) {
+                PipeManager.getInstance().getPipesSafe(block);
             }
         }
     }
-    
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onBlockExplode(BlockExplodeEvent event) {
+        for (Block block : event.blockList()) {
+            PipesUtil.invalidatePipesItem(block);
+            PipeManager.getInstance().abortDiscoveries(block);
+        }
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        for (Block block : event.blockList()) {
+            PipesUtil.invalidatePipesItem(block);
+            PipeManager.getInstance().abortDiscoveries(block);
+        }
+    }
+
     @EventHandler(ignoreCancelled = true)
     public void onItemCraft(CraftItemEvent event) {
         if (PipesUtil.getPipesItem(event.getCurrentItem()) == PipesItem.CHUNK_LOADER) {
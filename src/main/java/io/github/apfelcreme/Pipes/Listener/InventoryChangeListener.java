@@ -2,18 +2,25 @@ package io.github.apfelcreme.Pipes.Listener;
 
 import de.themoep.inventorygui.InventoryGui;
 import io.github.apfelcreme.Pipes.Manager.PipeManager;
+import io.github.apfelcreme.Pipes.Pipe.AbstractPipePart;
 import io.github.apfelcreme.Pipes.Pipe.Pipe;
 import io.github.apfelcreme.Pipes.Pipe.PipeInput;
+import io.github.apfelcreme.Pipes.Pipe.PipeOutput;
 import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
 import io.github.apfelcreme.Pipes.Pipes;
 import io.github.apfelcreme.Pipes.Manager.ItemMoveScheduler;
 import io.github.apfelcreme.Pipes.PipesItem;
+import io.github.apfelcreme.Pipes.PipesUtil;
+import org.bukkit.Location;
 import org.bukkit.block.BlockState;
+import org.bukkit.block.Dropper;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.event.inventory.InventoryMoveItemEvent;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.DoubleChestInventory;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.InventoryHolder;
 
@@ -47,11 +54,73 @@ public class InventoryChangeListener implements Listener {
 
     @EventHandler(priority = EventPriority.LOWEST, ignoreCancelled = true)
     public void onInventoryItemMove(final InventoryMoveItemEvent event) {
-        if (!handleInventoryAction(event.getDestination(), true)) {
+        Inventory destination = event.getDestination();
+        // Only dispensers can be inputs, all other moves exit here without looking at their holder
+        if (destination.getType() != InventoryType.DISPENSER) {
+            return;
+        }
+        Location location = destination.getLocation();
+        if (location == null || location.getWorld() == null) {
+            return;
+        }
+        // Hoppers move one item per event, the input only has to be looked up by the first one in a tick
+        int worldIndex = SimpleLocation.getWorldIndex(location.getWorld().getName());
+        long blockKey = SimpleLocation.getBlockKey(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+        if (ItemMoveScheduler.getInstance().isWakingUp(worldIndex, blockKey)) {
+            return;
+        }
+        if (PipesUtil.getPipesItem(location.getBlock()) != PipesItem.PIPE_INPUT) {
+            return;
+        }
+        if (!handleInput(new SimpleLocation(worldIndex, blockKey), true)) {
             event.setCancelled(true);
         }
     }
 
+    /**
+     * unblocks transfers into the inventories that items got moved out of or into
+     *
+     * @param event the event
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryItemMoved(final InventoryMoveItemEvent event) {
+        handleItemMoved(event.getSource());
+        handleItemMoved(event.getDestination());
+    }
+
+    /**
+     * Unblock the transfers into an inventory that items got moved out of or into. This runs for every
+     * item that a hopper moves, so it exits before touching the inventory's location if no blocked
+     * transfer or capacity summary could be affected and only looks the block up by its packed key.
+     * @param inventory The inventory
+     */
+    private void handleItemMoved(Inventory inventory) {
+        boolean dropper = inventory.getType() == InventoryType.DROPPER;
+        ItemMoveScheduler scheduler = ItemMoveScheduler.getInstance();
+        if (!dropper && !scheduler.hasBlockedTransfers() && scheduler.getTargetCapacities().isEmpty()) {
+            return;
+        }
+        if (inventory instanceof DoubleChestInventory) {
+            handleItemMoved(((DoubleChestInventory) inventory).getLeftSide());
+            handleItemMoved(((DoubleChestInventory) inventory).getRightSide());
+            return;
+        }
+        Location location = inventory.getLocation();
+        if (location == null || location.getWorld() == null) {
+            return;
+        }
+        int worldIndex = SimpleLocation.getWorldIndex(location.getWorld().getName());
+        long blockKey = SimpleLocation.getBlockKey(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+        if (dropper) {
+            AbstractPipePart part = PipeManager.getInstance().getPipePartCache().get(worldIndex, blockKey);
+            if (part instanceof PipeOutput) {
+                ((PipeOutput) part).invalidateFilter();
+            }
+        }
+        scheduler.getTargetCapacities().invalidate(worldIndex, blockKey);
+        scheduler.unblock(worldIndex, blockKey);
+    }
+
     /**
      * gets fired on every inventory close
      *
@@ -63,26 +132,79 @@ public class InventoryChangeListener implements Listener {
     }
 
     /**
-     * Handle an inventory action
+     * unblocks transfers into inventories that a player might have changed
+     *
+     * @param event the event
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onInventoryClosed(InventoryCloseEvent event) {
+        InventoryHolder holder = getHolder(event.getInventory());
+        invalidateFilter(holder);
+        ItemMoveScheduler.getInstance().getTargetCapacities().invalidate(holder);
+        ItemMoveScheduler.getInstance().unblock(holder);
+    }
+
+    /**
+     * Invalidate the compiled filter of an output whose inventory might have changed
+     * @param holder The holder of the inventory
+     */
+    private void invalidateFilter(InventoryHolder holder) {
+        if (holder instanceof Dropper) {
+            invalidateFilter(new SimpleLocation(((Dropper) holder).getLocation()));
+        }
+    }
+
+    /**
+     * Invalidate the compiled filter of an output whose inventory might have changed
+     * @param location The location of the output
+     */
+    private void invalidateFilter(SimpleLocation location) {
+        AbstractPipePart part = PipeManager.getInstance().getCachedPipePart(location);
+        if (part instanceof PipeOutput) {
+            ((PipeOutput) part).invalidateFilter();
+        }
+    }
+
+    /**
+     * Get the holder of an inventory, resolves the owner of gui inventories
      * @param inventory The inventory
-     * @param scheduled Whether or not to add the scheduled task delayed by 2 ticks
-     * @return <code>Wether or not something went wrong</code>
+     * @return The holder or <code>null</code> if there is none
      */
-    private boolean handleInventoryAction(Inventory inventory, boolean scheduled) {
+    private InventoryHolder getHolder(Inventory inventory) {
         InventoryHolder holder = inventory.getHolder(false);
         if (holder instanceof InventoryGui.Holder) {
             holder = ((InventoryGui.Holder) holder).getGui().getOwner();
         }
-        
+        return holder;
+    }
+
+    /**
+     * Handle an inventory action
+     * @param inventory The inventory
+     * @param scheduled Whether or not to add the transfer in the next tick together with the other inputs that changed
+     * @return <code>Wether or not something went wrong</code>
+     */
+    private boolean handleInventoryAction(Inventory inventory, boolean scheduled) {
+        InventoryHolder holder = getHolder(inventory);
+
         if (holder == null || !(holder instanceof BlockState)) {
             return true;
         }
         BlockState dispenser = (BlockState) holder;
-        if (!PipesItem.PIPE_INPUT.check(dispenser)) {
+        // The type of the block is cached, the state's data doesn't need to be read
+        if (PipesUtil.getPipesItem(dispenser.getBlock()) != PipesItem.PIPE_INPUT) {
             return true;
         }
-        SimpleLocation dispenserLocation = new SimpleLocation(dispenser.getLocation());
+        return handleInput(new SimpleLocation(dispenser.getLocation()), scheduled);
+    }
 
+    /**
+     * Queue the transfer of an input whose inventory changed
+     * @param dispenserLocation The location of the input
+     * @param scheduled Whether or not to add the transfer in the next tick together with the other inputs that changed
+     * @return <code>Wether or not something went wrong</code>
+     */
+    private boolean handleInput(SimpleLocation dispenserLocation, boolean scheduled) {
         Set<Pipe> pipes = PipeManager.getInstance().getPipesSafe(dispenserLocation);
         if (pipes.isEmpty()) {
             return false;
@@ -90,7 +212,7 @@ public class InventoryChangeListener implements Listener {
         PipeInput pipeInput = pipes.iterator().next().getInput(dispenserLocation);
         if (pipeInput != null) {
             if (scheduled) {
-                plugin.getServer().getScheduler().runTaskLater(plugin, () -> ItemMoveScheduler.getInstance().add(dispenserLocation), 2);
+                ItemMoveScheduler.getInstance().wakeup(dispenserLocation);
             } else {
                 ItemMoveScheduler.getInstance().add(dispenserLocation);
             }
@@ -2,11 +2,14 @@ package io.github.apfelcreme.Pipes.LoopDetection;
 
 import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 /*
  * Copyright (C) 2016 Lord36 aka Apfelcreme
@@ -29,33 +32,152 @@ import java.util.Map;
 public class Detection {
 
     /**
-     * a list of locations that were found
+     * only every sampleRate-th transfer is recorded, the counts are scaled by it
      */
-    private Map<SimpleLocation, TickingLocation> tickingLocations = new HashMap<>();
+    private final int sampleRate;
 
     /**
-     * adds a location to the map of found locations
+     * the recorded transfers by the location of their input
+     */
+    private final StripedCounter locations = new StripedCounter();
+
+    /**
+     * the recorded moves from an input into the target of one of its outputs
+     */
+    private final StripedCounter edges = new StripedCounter();
+
+    /**
+     * whether or not the detection still records transfers
+     */
+    private volatile boolean running = true;
+
+    public Detection(int sampleRate) {
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    /**
+     * decides whether or not the current transfer is recorded
+     *
+     * @return <code>true</code> if the transfer should be recorded
+     */
+    public boolean sample() {
+        return running && (sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0);
+    }
+
+    /**
+     * adds a location to the found locations, has to be called on the main thread
      *
      * @param location a location of a dispenser
      */
     public void addLocation(SimpleLocation location) {
-        TickingLocation tickingLocation = tickingLocations.get(location);
-        if (tickingLocation == null) {
-            //no location found
-            tickingLocations.put(location, new TickingLocation(location, 1));
-        } else {
-            tickingLocation.increment();
+        locations.add(location.getWorldIndex(), location.getBlockKey(), 0, sampleRate);
+    }
+
+    /**
+     * adds a move from an input into the target of one of its outputs, has to be called on the main thread
+     *
+     * @param input  the location of the input
+     * @param target the location the output moved the items into
+     */
+    public void addEdge(SimpleLocation input, SimpleLocation target) {
+        if (input.getWorldIndex() == target.getWorldIndex()) {
+            edges.add(input.getWorldIndex(), input.getBlockKey(), target.getBlockKey(), sampleRate);
         }
     }
 
     /**
-     * returns the sorted result
+     * stops recording transfers, the results stay available
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * returns the sorted result, can be called from any thread
      *
      * @return the sorted result
      */
     public List<TickingLocation> getResult() {
-        List<TickingLocation> result = new ArrayList<>(tickingLocations.values());
+        List<TickingLocation> result = new ArrayList<>();
+        locations.forEach((world, blockKey, unused, count) ->
+                result.add(new TickingLocation(new SimpleLocation(world, blockKey), count)));
         Collections.sort(result);
         return result;
     }
+
+    /**
+     * returns the loops in which inputs fed each other, can be called from any thread
+     *
+     * @return the inputs of each loop, the largest loop first
+     */
+    public List<List<SimpleLocation>> getLoops() {
+        Map<SimpleLocation, List<SimpleLocation>> graph = new HashMap<>();
+        edges.forEach((world, from, to, count) -> {
+            SimpleLocation target = new SimpleLocation(world, to);
+            graph.computeIfAbsent(new SimpleLocation(world, from), l -> new ArrayList<>()).add(target);
+            graph.computeIfAbsent(target, l -> new ArrayList<>());
+        });
+
+        // Tarjan's algorithm without recursion as the graph can be as deep as there are inputs
+        List<List<SimpleLocation>> loops = new ArrayList<>();
+        Map<SimpleLocation, int[]> state = new HashMap<>(); // index and lowlink
+        Deque<SimpleLocation> stack = new ArrayDeque<>();
+        Map<SimpleLocation, Boolean> onStack = new HashMap<>();
+        int index = 0;
+        for (SimpleLocation root : graph.keySet()) {
+            if (state.containsKey(root)) {
+                continue;
+            }
+            Deque<SimpleLocation> callStack = new ArrayDeque<>();
+            Deque<Integer> nextEdge = new ArrayDeque<>();
+            callStack.push(root);
+            nextEdge.push(0);
+            state.put(root, new int[]{index, index});
+            index++;
+            stack.push(root);
+            onStack.put(root, true);
+            while (!callStack.isEmpty()) {
+                SimpleLocation node = callStack.peek();
+                int edge = nextEdge.pop();
+                List<SimpleLocation> targets = graph.get(node);
+                if (edge < targets.size()) {
+                    nextEdge.push(edge + 1);
+                    SimpleLocation target = targets.get(edge);
+                    int[] targetState = state.get(target);
+                    if (targetState == null) {
+                        state.put(target, new int[]{index, index});
+                        index++;
+                        stack.push(target);
+                        onStack.put(target, true);
+                        callStack.push(target);
+                        nextEdge.push(0);
+                    } else if (onStack.getOrDefault(target, false)) {
+                        state.get(node)[1] = Math.min(state.get(node)[1], targetState[0]);
+                    }
+                    continue;
+                }
+                callStack.pop();
+                int[] nodeState = state.get(node);
+                if (!callStack.isEmpty()) {
+                    int[] parentState = state.get(callStack.peek());
+                    parentState[1] = Math.min(parentState[1], nodeState[1]);
+                }
+                if (nodeState[1] == nodeState[0]) {
+                    List<SimpleLocation> component = new ArrayList<>();
+                    SimpleLocation member;
+                    do {
+                        member = stack.pop();
+                        onStack.put(member, false);
+                        component.add(member);
+                    } while (!member.equals(node));
+                    if (component.size() > 1 || targets.contains(node)) {
+                        Collections.reverse(component);
+                        loops.add(component);
+                    }
+                }
+            }
+        }
+        loops.sort((a, b) -> Integer.compare(b.size(), a.size()));
+        return loops;
+    }
 }
@@ -0,0 +1,150 @@
+package io.github.apfelcreme.Pipes.LoopDetection;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+class StripedCounter {
+
+    private static final int STRIPES = 16;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    StripedCounter() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Add to the count of a key. Keys consist of a world index and two packed block keys
+     * so that both single locations and transfer edges can be counted.
+     * Only one thread may add at a time, any thread may read.
+     *
+     * @param world  the world index
+     * @param first  the first block key
+     * @param second the second block key
+     * @param amount the amount to add
+     */
+    void add(int world, long first, long second, int amount) {
+        int h = hash(world, first, second);
+        // The lower bits select the stripe, the others the slot in it
+        stripes[h & (STRIPES - 1)].add(world, first, second, h >>> 4, amount);
+    }
+
+    private static int hash(int world, long first, long second) {
+        long hash = (first * 0x9E3779B97F4A7C15L) ^ (second * 0xC2B2AE3D27D4EB4FL) ^ world;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * Visit all keys that were counted. The counts are read without locking so they might
+     * miss additions that happen while visiting.
+     *
+     * @param visitor the visitor
+     */
+    void forEach(Visitor visitor) {
+        for (Stripe stripe : stripes) {
+            Table table = stripe.table;
+            for (int i = 0; i <= table.mask; i++) {
+                // The world is written last when a key is inserted, so the key is complete once it is set
+                int world = table.worlds.get(i);
+                if (world != 0) {
+                    visitor.visit(world - 1, table.firsts.get(i), table.seconds.get(i), table.counts.get(i));
+                }
+            }
+        }
+    }
+
+    interface Visitor {
+        void visit(int world, long first, long second, int count);
+    }
+
+    private static class Stripe {
+        private volatile Table table = new Table(16);
+        private int size = 0;
+
+        private void add(int world, long first, long second, int hash, int amount) {
+            Table t = table;
+            int i = hash & t.mask;
+            int w;
+            while ((w = t.worlds.get(i)) != 0) {
+                if (w == world + 1 && t.firsts.get(i) == first && t.seconds.get(i) == second) {
+                    t.counts.addAndGet(i, amount);
+                    return;
+                }
+                i = (i + 1) & t.mask;
+            }
+            if (size + 1 > (t.mask + 1) * LOAD_FACTOR) {
+                t = grow(t);
+                i = hash & t.mask;
+                while (t.worlds.get(i) != 0) {
+                    i = (i + 1) & t.mask;
+                }
+            }
+            t.firsts.set(i, first);
+            t.seconds.set(i, second);
+            t.counts.set(i, amount);
+            t.worlds.set(i, world + 1);
+            size++;
+        }
+
+        /**
+         * copies all keys into a table of twice the size and publishes it for the readers
+         */
+        private Table grow(Table old) {
+            Table grown = new Table((old.mask + 1) * 2);
+            for (int j = 0; j <= old.mask; j++) {
+                int w = old.worlds.get(j);
+                if (w != 0) {
+                    long first = old.firsts.get(j);
+                    long second = old.seconds.get(j);
+                    int i = (hash(w - 1, first, second) >>> 4) & grown.mask;
+                    while (grown.worlds.get(i) != 0) {
+                        i = (i + 1) & grown.mask;
+                    }
+                    grown.firsts.set(i, first);
+                    grown.seconds.set(i, second);
+                    grown.counts.set(i, old.counts.get(j));
+                    grown.worlds.set(i, w);
+                }
+            }
+            table = grown;
+            return grown;
+        }
+    }
+
+    private static class Table {
+        private final int mask;
+        private final AtomicIntegerArray worlds;
+        private final AtomicLongArray firsts;
+        private final AtomicLongArray seconds;
+        private final AtomicIntegerArray counts;
+
+        private Table(int capacity) {
+            mask = capacity - 1;
+            worlds = new AtomicIntegerArray(capacity);
+            firsts = new AtomicLongArray(capacity);
+            seconds = new AtomicLongArray(capacity);
+            counts = new AtomicIntegerArray(capacity);
+        }
+    }
+}
@@ -1,10 +1,13 @@
 package io.github.apfelcreme.Pipes.Manager;
 
 import io.github.apfelcreme.Pipes.LoopDetection.Detection;
+import io.github.apfelcreme.Pipes.Pipes;
+import io.github.apfelcreme.Pipes.PipesConfig;
 import org.bukkit.command.CommandSender;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /*
  * Copyright (C) 2016 Lord36 aka Apfelcreme
@@ -36,20 +39,51 @@ public class DetectionManager {
      */
     private Map<CommandSender, Detection> detections;
 
+    /**
+     * the detections that still record transfers, empty when none runs so transfers can skip them cheaply
+     */
+    private Detection[] running = new Detection[0];
+
     /**
      * constructor
      */
     private DetectionManager() {
-        detections = new HashMap<>();
+        // Results are read by async tasks
+        detections = new ConcurrentHashMap<>();
     }
 
     /**
-     * adds a new detection
+     * adds a new detection that records transfers for some time, has to be called on the main thread
      *
-     * @param sender the sender of the command
+     * @param sender   the sender of the command
+     * @param duration the ticks the detection runs for
      */
-    public void createDetection(CommandSender sender) {
-        detections.put(sender, new Detection());
+    public void createDetection(CommandSender sender, long duration) {
+        Detection detection = new Detection(PipesConfig.getDetectionSampleRate());
+        Detection previous = detections.put(sender, detection);
+        if (previous != null) {
+            stopDetection(previous);
+        }
+        running = Arrays.copyOf(running, running.length + 1);
+        running[running.length - 1] = detection;
+        Pipes.getInstance().getServer().getScheduler().runTaskLater(Pipes.getInstance(), () -> stopDetection(detection), duration);
+    }
+
+    /**
+     * stops a detection from recording transfers
+     *
+     * @param detection the detection
+     */
+    private void stopDetection(Detection detection) {
+        detection.stop();
+        Detection[] remaining = new Detection[running.length];
+        int size = 0;
+        for (Detection d : running) {
+            if (d != detection) {
+                remaining[size++] = d;
+            }
+        }
+        running = Arrays.copyOf(remaining, size);
     }
 
     /**
@@ -71,6 +105,15 @@ public class DetectionManager {
         return detections;
     }
 
+    /**
+     * returns the detections that still record transfers
+     *
+     * @return the running detections, an empty array if none runs
+     */
+    public Detection[] getRunningDetections() {
+        return running;
+    }
+
     /**
      * returns the DetectionManager instance
      *
@@ -5,6 +5,7 @@ import co.aikar.timings.Timings;
 import io.github.apfelcreme.Pipes.Event.PipeDispenseEvent;
 import io.github.apfelcreme.Pipes.Event.PipeMoveItemEvent;
 import io.github.apfelcreme.Pipes.Exception.ChunkNotLoadedException;
+import io.github.apfelcreme.Pipes.Exception.PipeDiscoveryPendingException;
 import io.github.apfelcreme.Pipes.Exception.PipeTooLongException;
 import io.github.apfelcreme.Pipes.Exception.TooManyOutputsException;
 import io.github.apfelcreme.Pipes.LoopDetection.Detection;
@@ -15,20 +16,28 @@ import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
 import io.github.apfelcreme.Pipes.Pipes;
 import io.github.apfelcreme.Pipes.PipesConfig;
 import io.github.apfelcreme.Pipes.PipesUtil;
+import io.github.apfelcreme.Pipes.Transfer.InventoryBatch;
+import io.github.apfelcreme.Pipes.Transfer.TargetCapacityCache;
+import io.github.apfelcreme.Pipes.Transfer.TokenBucket;
+import io.github.apfelcreme.Pipes.Transfer.TransferJournal;
+import io.github.apfelcreme.Pipes.Transfer.TransferQueue;
+import io.github.apfelcreme.Pipes.Util.BlockMap;
+import io.github.apfelcreme.Pipes.Util.LongArrayQueue;
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.Effect;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.Tag;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
 import org.bukkit.block.Container;
+import org.bukkit.block.DoubleChest;
 import org.bukkit.block.data.Levelled;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Item;
 import org.bukkit.event.inventory.InventoryType;
-import org.bukkit.inventory.BrewerInventory;
-import org.bukkit.inventory.FurnaceInventory;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
@@ -37,15 +46,21 @@ import org.bukkit.util.Vector;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.logging.Level;
-import java.util.stream.Collectors;
 
 /*
  * Copyright (C) 2016 Lord36 aka Apfelcreme
@@ -67,9 +82,19 @@ import java.util.stream.Collectors;
  */
 public class ItemMoveScheduler {
 
+    private final Timing TIMINGS_MOVE;
     private final Timing TIMINGS_MOVE_FILTER;
     private final Timing TIMINGS_MOVE_TRANSFER;
     private final Timing TIMINGS_MOVE_FILTER_AMOUNT;
+    private final Timing TIMINGS_MOVE_ROUTES;
+    private final Timing TIMINGS_MOVE_ACCEPT;
+    private final Timing TIMINGS_MOVE_EVENTS;
+    private final Timing TIMINGS_MOVE_PLAN;
+
+    /**
+     * the maximum amount of transfers that are planned together when parallel planning is enabled
+     */
+    private static final int PLANNING_BATCH_SIZE = 64;
 
     /**
      * the task id of the repeating task
@@ -77,9 +102,9 @@ public class ItemMoveScheduler {
     private int taskId;
 
     /**
-     * the queue that holds the items that are waiting to be transferred
+     * the queue that holds the items that are waiting to be transferred, bucketed by chunk
      */
-    private Set<SimpleLocation> scheduledItemTransfers;
+    private TransferQueue scheduledItemTransfers;
 
     /**
      * item transfers that need to be added after the moves were run
@@ -92,9 +117,137 @@ public class ItemMoveScheduler {
     private boolean isTransferring;
 
     /**
-     * the number of consecutive runs without any transfers (cancels at 4)
+     * the tick at which the next transfer cycle may start
+     */
+    private int nextCycleTick;
+
+    /**
+     * the inputs that couldn't move anything in the order that they got blocked
+     */
+    private final Map<SimpleLocation, BlockedTransfer> blockedTransfers;
+
+    /**
+     * the blocked inputs by the locations (outputs and their targets) whose change might unblock them
+     */
+    private final BlockMap<Set<SimpleLocation>> blockedByLocation;
+
+    /**
+     * the task id of the task that retries blocked transfers while the scheduler isn't running
+     */
+    private int blockedTaskId;
+
+    /**
+     * the journal that the queued transfers are written to, <code>null</code> while they are loaded
+     */
+    private TransferJournal journal;
+
+    /**
+     * the task id of the task that flushes and compacts the journal
+     */
+    private int journalTaskId;
+
+    /**
+     * the inputs whose inventory changed in this tick by their world index and block key, they are queued together in the next tick
+     */
+    private final BlockMap<Boolean> wakeups = new BlockMap<>();
+
+    /**
+     * the world indices and block keys of the woken up inputs in pairs, in the order that they were woken up
+     */
+    private final LongArrayQueue wakeupOrder = new LongArrayQueue();
+
+    /**
+     * the task id of the task that queues the wakeups, -1 if there are none
+     */
+    private int wakeupTaskId;
+
+    /**
+     * the inputs that were nearly full after their last transfer, their transfers get the next higher priority
+     */
+    private final Set<SimpleLocation> boostedInputs = new HashSet<>();
+
+    /**
+     * the free space of output targets that are known to be full for some items
+     */
+    private final TargetCapacityCache targetCapacities = new TargetCapacityCache();
+
+    /**
+     * the rate limits of the inputs by their location, they are kept when the pipes get discovered again
+     */
+    private final BlockMap<TokenBucket> inputRateLimits = new BlockMap<>();
+
+    /**
+     * the rate limits of the pipes by the location of the input that they were first needed for
+     */
+    private final BlockMap<TokenBucket> pipeRateLimits = new BlockMap<>();
+
+    /**
+     * the inputs that reached their rate limit, they are queued again once they may move items
      */
-    private int emptyRuns;
+    private final Set<SimpleLocation> throttledTransfers = new HashSet<>();
+
+    /**
+     * the throttled inputs by the tick that they may move items again at
+     */
+    private final TreeMap<Integer, List<SimpleLocation>> throttledByTick = new TreeMap<>();
+
+    /**
+     * the task id of the task that queues the throttled transfers once the first one is due and the tick it runs at
+     */
+    private int throttleTaskId = -1;
+    private int throttleTaskTick;
+
+    /**
+     * the inputs whose pipes are being discovered asynchronously, they are queued again once the discovery is done
+     */
+    private final Set<SimpleLocation> pendingTransfers = new HashSet<>();
+
+    /**
+     * the pool that plans the routes of a batch of transfers, <code>null</code> if parallel planning is disabled
+     */
+    private ForkJoinPool planningPool;
+
+    /**
+     * scratch list of the items of the input that is currently transferred, reused to not allocate per transfer
+     */
+    private final List<ItemStack> itemQueue = new ArrayList<>();
+
+    /**
+     * scratch list of the detections that record the transfer that is currently executed
+     */
+    private final List<Detection> sampling = new ArrayList<>();
+
+    /**
+     * scratch list of the slots of the items in the item queue
+     */
+    private final List<Integer> itemSlots = new ArrayList<>();
+
+    /**
+     * the batches of the targets that the current transfer moved items into, they are written back once it is done
+     */
+    private final Map<SimpleLocation, InventoryBatch> targetBatches = new HashMap<>();
+
+    /**
+     * the same batches by the location of their inventory, so that both halves of a double chest share one
+     */
+    private final Map<Location, InventoryBatch> inventoryBatches = new HashMap<>();
+
+    /**
+     * scratch buffers of the outputs of the item that is currently moved and their accept results
+     */
+    private PipeOutput.AcceptResult[] routeResults = new PipeOutput.AcceptResult[0];
+    private PipeOutput[] sortedOutputs = new PipeOutput[0];
+    private PipeOutput.AcceptResult[] sortedResults = new PipeOutput.AcceptResult[0];
+
+    /**
+     * the amount of items that the transfer that is currently executed may still move before its rate limits are reached
+     */
+    private int itemAllowance;
+
+    /**
+     * scratch vector for the motion of dropped items
+     */
+    private final Vector dropMotion = new Vector();
 
     /**
      * the scheduler instance
@@ -103,14 +256,22 @@ public class ItemMoveScheduler {
 
     private ItemMoveScheduler() {
         taskId = -1;
-        scheduledItemTransfers = new LinkedHashSet<>();
+        scheduledItemTransfers = new TransferQueue();
         addItemTransfers = new LinkedHashSet<>();
-        emptyRuns = 0;
+        blockedTransfers = new LinkedHashMap<>();
+        blockedByLocation = new BlockMap<>();
+        blockedTaskId = -1;
+        journalTaskId = -1;
+        wakeupTaskId = -1;
 
-        Timing timingsMove = Timings.of(Pipes.getInstance(), "move");
-        TIMINGS_MOVE_FILTER = Timings.of(Pipes.getInstance(), "## filter", timingsMove);
-        TIMINGS_MOVE_TRANSFER = Timings.of(Pipes.getInstance(), "## transfer", timingsMove);
-        TIMINGS_MOVE_FILTER_AMOUNT = Timings.of(Pipes.getInstance(), "## filter_amount", timingsMove);
+        TIMINGS_MOVE = Timings.of(Pipes.getInstance(), "move");
+        TIMINGS_MOVE_FILTER = Timings.of(Pipes.getInstance(), "## filter", TIMINGS_MOVE);
+        TIMINGS_MOVE_TRANSFER = Timings.of(Pipes.getInstance(), "## transfer", TIMINGS_MOVE);
+        TIMINGS_MOVE_FILTER_AMOUNT = Timings.of(Pipes.getInstance(), "## filter_amount", TIMINGS_MOVE);
+        TIMINGS_MOVE_ROUTES = Timings.of(Pipes.getInstance(), "### routes", TIMINGS_MOVE_FILTER);
+        TIMINGS_MOVE_ACCEPT = Timings.of(Pipes.getInstance(), "### accept", TIMINGS_MOVE_FILTER);
+        TIMINGS_MOVE_EVENTS = Timings.of(Pipes.getInstance(), "### events", TIMINGS_MOVE_TRANSFER);
+        TIMINGS_MOVE_PLAN = Timings.of(Pipes.getInstance(), "## plan", TIMINGS_MOVE);
     }
 
     /**
@@ -126,107 +287,508 @@ public class ItemMoveScheduler {
     }
 
     /**
-     * starts a task
+     * starts a task. The task runs every tick but only starts a new transfer cycle
+     * every transferCooldown ticks. A cycle that didn't finish in the time budget of
+     * one tick is continued in the next one. The task is killed as soon as there are
+     * no transfers left that could make progress.
      */
     private void create() {
-        taskId = Pipes.getInstance().getServer().getScheduler().scheduleSyncRepeatingTask(Pipes.getInstance(), () -> {
-            if (!scheduledItemTransfers.isEmpty()) {
-                isTransferring = true;
-                scheduledItemTransfers.removeIf(this::execute);
-                isTransferring = false;
-                addQueued();
-            } else {
-                emptyRuns++;
-                if (emptyRuns >= 3) {
-                    kill();
+        if (blockedTaskId != -1) {
+            Pipes.getInstance().getServer().getScheduler().cancelTask(blockedTaskId);
+            blockedTaskId = -1;
+        }
+        taskId = Pipes.getInstance().getServer().getScheduler().scheduleSyncRepeatingTask(Pipes.getInstance(), this::run, 1L, 1L);
+    }
+
+    /**
+     * runs (or continues) a transfer cycle until either all transfers of the cycle
+     * were executed or the time budget for this tick ran out
+     */
+    private void run() {
+        if (!scheduledItemTransfers.isCycleRunning()) {
+            if (Bukkit.getCurrentTick() < nextCycleTick) {
+                return;
+            }
+            nextCycleTick = Bukkit.getCurrentTick() + (int) PipesConfig.getTransferCooldown();
+            retryBlocked();
+            if (scheduledItemTransfers.getActiveSize() == 0) {
+                // Nothing that could make progress, wait for an event or the blocked transfer timeout to wake us up again
+                kill();
+                scheduleBlockedRetry();
+                return;
+            }
+            scheduledItemTransfers.startCycle();
+        }
+
+        long budget = PipesConfig.getTransferTimeBudget();
+        long start = System.nanoTime();
+        isTransferring = true;
+        while (scheduledItemTransfers.isCycleRunning()) {
+            if (budget > 0 && System.nanoTime() - start >= budget) {
+                // Out of time, the rest of this cycle is handled next tick
+                MetricsManager.getInstance().recordBudgetExceeded();
+                break;
+            }
+            if (planningPool != null) {
+                if (!runPlanned(budget, start)) {
+                    break;
                 }
+                continue;
+            }
+            // Transfers that didn't complete are re-queued at the tail of their chunk's bucket
+            SimpleLocation location = scheduledItemTransfers.poll();
+            if (location == null) {
+                break;
+            }
+            try (Timing t = TIMINGS_MOVE.startTiming()) {
+                handleResult(location, execute(location));
             }
-        }, 20L, PipesConfig.getTransferCooldown());
+        }
+        isTransferring = false;
+        addQueued();
+    }
+
+    /**
+     * polls a batch of transfers, plans the routes of their items in parallel and then
+     * executes them in the order that they were polled. Transfers that weren't executed
+     * when the time budget ran out are queued again.
+     *
+     * @param budget the time budget of this tick in nanoseconds, 0 for no budget
+     * @param start  the time at which this tick's transfers started
+     * @return <code>false</code> if there was nothing left to poll in this cycle or the budget ran out
+     */
+    private boolean runPlanned(long budget, long start) {
+        List<TransferPlan> batch = new ArrayList<>();
+        // Plans of the same pipe share its route cache so they have to be planned by the same thread
+        Map<Pipe, List<TransferPlan>> byPipe = new IdentityHashMap<>();
+        try (Timing t = TIMINGS_MOVE.startTiming()) {
+            while (batch.size() < PLANNING_BATCH_SIZE && scheduledItemTransfers.isCycleRunning()) {
+                SimpleLocation location = scheduledItemTransfers.poll();
+                if (location == null) {
+                    break;
+                }
+                TransferPlan plan = prepare(location);
+                if (plan.getResult() != null) {
+                    handleResult(location, plan.getResult());
+                    continue;
+                }
+                batch.add(plan);
+                if (plan.capture()) {
+                    byPipe.computeIfAbsent(plan.getPipe(), p -> new ArrayList<>()).add(plan);
+                }
+            }
+        }
+        if (batch.isEmpty()) {
+            return scheduledItemTransfers.isCycleRunning();
+        }
+
+        if (!byPipe.isEmpty()) {
+            List<Callable<Void>> tasks = new ArrayList<>(byPipe.size());
+            for (List<TransferPlan> plans : byPipe.values()) {
+                tasks.add(() -> {
+                    for (TransferPlan plan : plans) {
+                        plan.plan();
+                    }
+                    return null;
+                });
+            }
+            // The main thread waits for the plans so nothing changes the pipes while they are read
+            try (Timing t = TIMINGS_MOVE_PLAN.startTiming()) {
+                planningPool.invokeAll(tasks);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        try (Timing t = TIMINGS_MOVE.startTiming()) {
+            for (int i = 0; i < batch.size(); i++) {
+                if (budget > 0 && System.nanoTime() - start >= budget) {
+                    // Out of time, the rest of the batch is moved to the end of the queue
+                    MetricsManager.getInstance().recordBudgetExceeded();
+                    for (int j = i; j < batch.size(); j++) {
+                        queue(batch.get(j).getLocation());
+                    }
+                    return false;
+                }
+                TransferPlan plan = batch.get(i);
+                handleResult(plan.getLocation(), commit(plan));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * handles the result of an executed transfer
+     *
+     * @param location the location of the PipeInput
+     * @param result   the result of the transfer
+     */
+    private void handleResult(SimpleLocation location, TransferResult result) {
+        switch (result) {
+            case COMPLETED:
+                boostedInputs.remove(location);
+                // It might have been queued again while it was transferred
+                if (journal != null && !addItemTransfers.contains(location)) {
+                    journal.remove(location);
+                }
+                break;
+            case RETRY:
+                queue(location);
+                break;
+            case BLOCKED:
+                block(location);
+                break;
+            case THROTTLED:
+                throttle(location);
+                break;
+            case PENDING:
+                // Its journal record is kept until the discovery is done
+                pendingTransfers.add(location);
+                break;
+        }
     }
 
     /**
      * executes the item transfer
      *
      * @param simpleLocation the location of the PipeInput
-     * @return <code>true</code> if this transfer should be considered as completed and removed from the queue
+     * @return whether this transfer completed, should be retried or is blocked until its outputs change
      */
-    public boolean execute(SimpleLocation simpleLocation) {
-        Location location = simpleLocation.getLocation();
-        if (location.getWorld() == null || !location.getWorld().isChunkLoaded(location.getBlockX() >> 4, location.getBlockZ() >> 4)) {
-            // Chunk is not loaded, cannot transfer items
-            return false;
+    public TransferResult execute(SimpleLocation simpleLocation) {
+        TransferPlan plan = prepare(simpleLocation);
+        if (plan.getResult() != null) {
+            return plan.getResult();
         }
+        return commit(plan);
+    }
 
+    /**
+     * looks up the pipe and the input of a transfer
+     *
+     * @param simpleLocation the location of the PipeInput
+     * @return the plan of the transfer, it already has a result if the transfer can't be executed now
+     */
+    private TransferPlan prepare(SimpleLocation simpleLocation) {
+        // Whether or not the chunk is loaded was already checked for the whole bucket by the queue
         Pipe pipe;
         try {
-            pipe = PipeManager.getInstance().getPipeByInput(simpleLocation);
+            pipe = PipeManager.getInstance().getPipeByInputAsync(simpleLocation);
         } catch (ChunkNotLoadedException | TooManyOutputsException | PipeTooLongException e) {
             // Is input of pipe but pipe is not valid, schedule it for next transfer
-            return false;
+            return new TransferPlan(simpleLocation, TransferResult.RETRY);
+        } catch (PipeDiscoveryPendingException e) {
+            return new TransferPlan(simpleLocation, TransferResult.PENDING);
         }
         if (pipe == null) {
             // No pipe at location? Remove the transfer
-            return true;
+            return new TransferPlan(simpleLocation, TransferResult.COMPLETED);
         }
 
-        if (pipe.getLastTransfer() != Bukkit.getCurrentTick()) {
-            // Reset transfer count if no transfer occurred this tick
-            pipe.setTransfers(0);
-        } else if (PipesConfig.getTransferCount() > 0 && pipe.getTransfers() >= PipesConfig.getTransferCount()) {
-            // Pipe already transferred more than the max transfer based on hard cap? Handle next tick
-            return false;
-        } else if (PipesConfig.getInputToOutputRatio() > 0 && pipe.getTransfers() >= pipe.getOutputs().size() * PipesConfig.getInputToOutputRatio()) {
-            // Pipe already transferred more than the max transfer based on the input/output ratio? Handle next tick
-            return false;
+        if (isTransferLimitReached(pipe)) {
+            return new TransferPlan(simpleLocation, TransferResult.RETRY);
         }
 
         PipeInput input = pipe.getInput(simpleLocation);
         if (input == null) {
-            // Could not find an input at that location, to not recheck this transfer we return true
-            return true;
+            // Could not find an input at that location, to not recheck this transfer we complete it
+            return new TransferPlan(simpleLocation, TransferResult.COMPLETED);
+        }
+
+        if (getItemAllowance(pipe, input) <= 0) {
+            return new TransferPlan(simpleLocation, TransferResult.THROTTLED);
         }
 
         Container inputHolder = input.getHolder();
         if (inputHolder == null) {
-            // Could not find the input block, to not recheck this transfer we return true
+            // Could not find the input block, to not recheck this transfer we complete it
+            return new TransferPlan(simpleLocation, TransferResult.COMPLETED);
+        }
+
+        return new TransferPlan(simpleLocation, pipe, input, inputHolder, inputHolder.getInventory());
+    }
+
+    /**
+     * checks whether or not a pipe already did as many transfers in this tick as it may do
+     *
+     * @param pipe the pipe to check
+     * @return <code>true</code> if the pipe has to wait for the next tick
+     */
+    private boolean isTransferLimitReached(Pipe pipe) {
+        if (pipe.isInLoop() && PipesConfig.getLoopTransferCooldown() > 0
+                && Bukkit.getCurrentTick() - pipe.getLastTransfer() < PipesConfig.getLoopTransferCooldown()) {
+            // Pipes that feed each other would move the same items back and forth, slow them down
             return true;
         }
+        if (pipe.getLastTransfer() != Bukkit.getCurrentTick()) {
+            // Reset transfer count if no transfer occurred this tick
+            pipe.setTransfers(0);
+            return false;
+        }
+        // Did the pipe already transfer more than the max transfer based on hard cap or on the input/output ratio? Handle next tick
+        return PipesConfig.getTransferCount() > 0 && pipe.getTransfers() >= PipesConfig.getTransferCount()
+                || PipesConfig.getInputToOutputRatio() > 0 && pipe.getTransfers() >= pipe.getOutputs().size() * PipesConfig.getInputToOutputRatio();
+    }
+
+    /**
+     * returns the amount of items that a transfer may move before the rate limit of its pipe or its input is reached
+     *
+     * @param pipe  the pipe
+     * @param input the input
+     * @return the amount of items, {@link Integer#MAX_VALUE} if neither is limited
+     */
+    private int getItemAllowance(Pipe pipe, PipeInput input) {
+        int allowance = Integer.MAX_VALUE;
+        TokenBucket pipeLimit = getRateLimit(pipe);
+        if (pipeLimit != null) {
+            allowance = pipeLimit.getAvailable();
+        }
+        TokenBucket inputLimit = getRateLimit(input);
+        if (inputLimit != null) {
+            allowance = Math.min(allowance, inputLimit.getAvailable());
+        }
+        return allowance;
+    }
+
+    /**
+     * returns the rate limit of the items that a pipe moves in total. It is stored by the location of one
+     * of the pipe's inputs so that it isn't reset when the pipe gets split, merged or discovered again.
+     *
+     * @param pipe the pipe
+     * @return the token bucket or null if pipes aren't limited
+     */
+    private TokenBucket getRateLimit(Pipe pipe) {
+        if (PipesConfig.getPipeItemRate() <= 0 || pipe.getInputs().isEmpty()) {
+            return null;
+        }
+        TokenBucket rateLimit = null;
+        for (SimpleLocation location : pipe.getInputs().keySet()) {
+            rateLimit = pipeRateLimits.get(location);
+            if (rateLimit != null) {
+                break;
+            }
+        }
+        if (rateLimit == null) {
+            rateLimit = new TokenBucket(PipesConfig.getPipeItemRate(), PipesConfig.getPipeItemBurst());
+            pipeRateLimits.put(pipe.getInputs().keySet().iterator().next(), rateLimit);
+        } else {
+            rateLimit.configure(PipesConfig.getPipeItemRate(), PipesConfig.getPipeItemBurst());
+        }
+        return rateLimit;
+    }
+
+    /**
+     * returns the rate limit of the items moved out of an input
+     *
+     * @param input the input
+     * @return the token bucket or null if the input isn't limited
+     */
+    private TokenBucket getRateLimit(PipeInput input) {
+        int rate = input.getItemRate();
+        if (rate <= 0) {
+            if (!inputRateLimits.isEmpty()) {
+                inputRateLimits.remove(input.getLocation());
+            }
+            return null;
+        }
+        TokenBucket rateLimit = inputRateLimits.get(input.getLocation());
+        if (rateLimit == null) {
+            rateLimit = new TokenBucket(rate, PipesConfig.getInputItemBurst());
+            inputRateLimits.put(input.getLocation(), rateLimit);
+        } else {
+            rateLimit.configure(rate, PipesConfig.getInputItemBurst());
+        }
+        return rateLimit;
+    }
+
+    /**
+     * Forget the rate limits stored for an input if they are full again. Full ones don't differ
+     * from new ones, so the pipes discovered at the input later on don't gain anything.
+     *
+     * @param input the location of the PipeInput
+     */
+    public void releaseRateLimits(SimpleLocation input) {
+        TokenBucket rateLimit = inputRateLimits.get(input);
+        if (rateLimit != null && rateLimit.isFull()) {
+            inputRateLimits.remove(input);
+        }
+        rateLimit = pipeRateLimits.get(input);
+        if (rateLimit != null && rateLimit.isFull()) {
+            pipeRateLimits.remove(input);
+        }
+    }
+
+    /**
+     * Forget the rate limits stored for an input that got removed
+     *
+     * @param input the location of the PipeInput
+     */
+    public void removeRateLimits(SimpleLocation input) {
+        inputRateLimits.remove(input);
+        pipeRateLimits.remove(input);
+    }
 
-        Inventory inputInventory = inputHolder.getInventory();
-        List<ItemStack> itemQueue = new ArrayList<>();
+    /**
+     * Park a transfer whose rate limit is reached until its pipe and its input may move items again,
+     * instead of retrying it in every cycle
+     *
+     * @param location the location of the PipeInput
+     */
+    private void throttle(SimpleLocation location) {
+        Pipe pipe = PipeManager.getInstance().getPipeCache().getIfPresent(location);
+        PipeInput input = pipe != null ? pipe.getInput(location) : null;
+        if (input == null) {
+            queue(location);
+            return;
+        }
+        if (!throttledTransfers.add(location)) {
+            return;
+        }
+        int delay = 1;
+        TokenBucket pipeLimit = getRateLimit(pipe);
+        if (pipeLimit != null) {
+            delay = Math.max(delay, pipeLimit.getTicksUntilAvailable());
+        }
+        TokenBucket inputLimit = getRateLimit(input);
+        if (inputLimit != null) {
+            delay = Math.max(delay, inputLimit.getTicksUntilAvailable());
+        }
+        throttledByTick.computeIfAbsent(Bukkit.getCurrentTick() + delay, t -> new ArrayList<>()).add(location);
+        scheduleThrottled();
+    }
+
+    /**
+     * queues all throttled transfers that may move items again
+     *
+     * @return whether or not anything was queued
+     */
+    private boolean releaseThrottled() {
+        int currentTick = Bukkit.getCurrentTick();
+        boolean released = false;
+        while (!throttledByTick.isEmpty() && throttledByTick.firstKey() <= currentTick) {
+            for (SimpleLocation location : throttledByTick.pollFirstEntry().getValue()) {
+                throttledTransfers.remove(location);
+                queue(location);
+                released = true;
+            }
+        }
+        return released;
+    }
+
+    /**
+     * schedules a single task that queues the throttled transfers once the first one is due,
+     * an already scheduled task is only replaced if it would run later than that
+     */
+    private void scheduleThrottled() {
+        if (throttledByTick.isEmpty()) {
+            return;
+        }
+        int dueTick = throttledByTick.firstKey();
+        if (throttleTaskId != -1) {
+            if (throttleTaskTick <= dueTick) {
+                return;
+            }
+            Pipes.getInstance().getServer().getScheduler().cancelTask(throttleTaskId);
+        }
+        throttleTaskTick = dueTick;
+        throttleTaskId = Pipes.getInstance().getServer().getScheduler().scheduleSyncDelayedTask(Pipes.getInstance(), () -> {
+            throttleTaskId = -1;
+            if (releaseThrottled() && !isActive()) {
+                create();
+            }
+            scheduleThrottled();
+        }, Math.max(1, dueTick - Bukkit.getCurrentTick()));
+    }
+
+    /**
+     * moves the items of a prepared transfer. Planned routes are only used for slots that
+     * still contain the item that they were planned for.
+     *
+     * @param plan the prepared transfer
+     * @return whether this transfer completed, should be retried or is blocked until its outputs change
+     */
+    private TransferResult commit(TransferPlan plan) {
+        long start = System.nanoTime();
+        Pipe pipe = plan.getPipe();
+        // Another input of the pipe in the same batch might have used up its transfers
+        if (isTransferLimitReached(pipe)) {
+            return TransferResult.RETRY;
+        }
+
+        PipeInput input = plan.getInput();
+        itemAllowance = getItemAllowance(pipe, input);
+        if (itemAllowance <= 0) {
+            return TransferResult.THROTTLED;
+        }
+        Container inputHolder = plan.getHolder();
+        Inventory inputInventory = plan.getInventory();
+        itemQueue.clear();
+        itemSlots.clear();
+        int amountBefore = 0;
+        int slot = 0;
         for (ItemStack itemStack : inputInventory) {
             if (itemStack != null) {
                 itemQueue.add(itemStack);
+                itemSlots.add(slot);
+                amountBefore += itemStack.getAmount();
             }
+            slot++;
         }
 
-        // add the current transfer to all the running detections
-        for (Detection detection : DetectionManager.getInstance().getDetections().values()) {
-            detection.addLocation(new SimpleLocation(input.getLocation()));
+        // add the current transfer to all the running detections that sample it
+        sampling.clear();
+        for (Detection detection : DetectionManager.getInstance().getRunningDetections()) {
+            if (detection.sample()) {
+                detection.addLocation(input.getLocation());
+                sampling.add(detection);
+            }
         }
 
         boolean transferedAnything = false;
         boolean transferredAll = true;
+        int stacksMoved = 0;
         boolean spread = input.getOption(PipeInput.Options.SPREAD);
         boolean spreadFully = input.getOption(PipeInput.Options.FORCE_EQUAL_SPREAD);
         boolean overflow = input.getOption(PipeInput.Options.OVERFLOW);
 
         // loop through all items and try to move them
-        for (ItemStack itemStack : itemQueue) {
-            transferedAnything |= moveItem(input, inputInventory, pipe, itemStack, spread, spreadFully, overflow);
-            transferredAll &= transferedAnything;
+        try {
+            for (int i = 0; i < itemQueue.size(); i++) {
+                ItemStack itemStack = itemQueue.get(i);
+                Pipe.Route[] routes = plan.getRoutes(itemSlots.get(i), itemStack);
+                boolean moved = moveItem(input, inputInventory, pipe, itemStack, routes, spread, spreadFully, overflow);
+                if (moved) {
+                    stacksMoved++;
+                }
+                transferedAnything |= moved;
+                transferredAll &= transferedAnything;
+            }
+        } finally {
+            // The items were taken out of the input already, they have to end up in the targets
+            for (InventoryBatch batch : inventoryBatches.values()) {
+                batch.flush();
+            }
+            inventoryBatches.clear();
+            targetBatches.clear();
         }
 
         if (!transferredAll && input.getOption(PipeInput.Options.MERGE)) {
-            List<ItemStack> inputContents = Arrays.stream(inputInventory.getContents()).filter(Objects::nonNull).collect(Collectors.toList());
-            if (inputContents.size() > 1) {
+            itemQueue.clear();
+            for (ItemStack item : inputInventory.getContents()) {
+                if (item != null) {
+                    itemQueue.add(item);
+                }
+            }
+            if (itemQueue.size() > 1) {
                 inputInventory.clear();
-                for (ItemStack item : inputContents) {
+                for (ItemStack item : itemQueue) {
                     inputInventory.addItem(item);
                 }
             }
         }
+        itemQueue.clear();
         inputHolder.update();
+        // The input might be the target of another pipe that now has space in it
+        targetCapacities.invalidate(input.getLocation());
 
         if (transferedAnything) {
             // Update transfers
@@ -234,34 +796,96 @@ public class ItemMoveScheduler {
             pipe.setLastTransfer(Bukkit.getCurrentTick());
         }
 
-        return transferredAll;
+        int amountAfter = 0;
+        int filledSlots = 0;
+        for (ItemStack itemStack : inputInventory) {
+            if (itemStack != null) {
+                amountAfter += itemStack.getAmount();
+                filledSlots++;
+            }
+        }
+        if (PipesConfig.isPrioritySchedulingEnabled() && PipesConfig.getPriorityBoostFill() > 0) {
+            // Inputs that are about to be full would stop the lines that feed them
+            if (filledSlots >= inputInventory.getSize() * PipesConfig.getPriorityBoostFill()) {
+                boostedInputs.add(plan.getLocation());
+            } else {
+                boostedInputs.remove(plan.getLocation());
+            }
+        }
+        int itemsMoved = Math.max(0, amountBefore - amountAfter);
+        if (itemsMoved > 0) {
+            TokenBucket pipeLimit = getRateLimit(pipe);
+            if (pipeLimit != null) {
+                pipeLimit.take(itemsMoved);
+            }
+            TokenBucket inputLimit = getRateLimit(input);
+            if (inputLimit != null) {
+                inputLimit.take(itemsMoved);
+            }
+        }
+        MetricsManager.getInstance().recordExecution(pipe, plan.getLocation(), System.nanoTime() - start,
+                itemsMoved, stacksMoved);
+
+        if (transferredAll) {
+            return TransferResult.COMPLETED;
+        }
+
+        if (!transferedAnything && amountAfter >= amountBefore) {
+            // Nothing was moved, retrying only makes sense once one of the outputs changes
+            return TransferResult.BLOCKED;
+        }
+        return TransferResult.RETRY;
     }
 
-    private boolean moveItem(PipeInput input, Inventory inputInventory, Pipe pipe, ItemStack itemStack, boolean spread, boolean forceEqualSpread, boolean overflow) {
-        Map<PipeOutput, PipeOutput.AcceptResult> outputs = new LinkedHashMap<>();
+    private boolean moveItem(PipeInput input, Inventory inputInventory, Pipe pipe, ItemStack itemStack, Pipe.Route[] routes, boolean spread, boolean forceEqualSpread, boolean overflow) {
+        int outputCount = 0;
         int filterCount = 0;
         try (Timing t = TIMINGS_MOVE_FILTER.startTiming()) {
-            for (PipeOutput output : pipe.getOutputs().values()) {
-                PipeOutput.AcceptResult acceptResult = output.accepts(input, itemStack);
-                if (!spread || acceptResult.getType() == PipeOutput.ResultType.ACCEPT) {
-                    outputs.put(output, acceptResult);
-                    if (acceptResult.isInFilter()) {
-                        filterCount++;
+            // The filter results are cached by the pipe, only the state of the output blocks has to be checked
+            if (routes == null) {
+                try (Timing t2 = TIMINGS_MOVE_ROUTES.startTiming()) {
+                    routes = pipe.getRoutes(itemStack);
+                }
+            }
+            if (routeResults.length < routes.length) {
+                routeResults = new PipeOutput.AcceptResult[routes.length];
+                sortedOutputs = new PipeOutput[routes.length];
+                sortedResults = new PipeOutput.AcceptResult[routes.length];
+            }
+            try (Timing t2 = TIMINGS_MOVE_ACCEPT.startTiming()) {
+                for (int i = 0; i < routes.length; i++) {
+                    PipeOutput.AcceptResult acceptResult = routes[i].getOutput().accepts(input, routes[i].getFilterResult());
+                    if (!spread || acceptResult.getType() == PipeOutput.ResultType.ACCEPT) {
+                        routeResults[i] = acceptResult;
+                        if (acceptResult.isInFilter()) {
+                            filterCount++;
+                        }
+                    } else {
+                        routeResults[i] = null;
                     }
                 }
             }
 
-            if (outputs.isEmpty()) {
-                return false;
+            // Outputs whose filter matched come first, otherwise keep the order of the outputs
+            int inFilterIndex = 0;
+            int otherIndex = filterCount;
+            for (int i = 0; i < routes.length; i++) {
+                if (routeResults[i] != null) {
+                    int index = routeResults[i].isInFilter() ? inFilterIndex++ : otherIndex++;
+                    sortedOutputs[index] = routes[i].getOutput();
+                    sortedResults[index] = routeResults[i];
+                    routeResults[i] = null;
+                }
             }
+            outputCount = otherIndex;
 
-            outputs = outputs.entrySet().stream()
-                    .sorted((e1, e2) -> e1.getValue().isInFilter() ? e2.getValue().isInFilter() ? 0 : -1 : e2.getValue().isInFilter() ? 1 : 0)
-                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (oldValue, newValue) -> oldValue, LinkedHashMap::new));
+            if (outputCount == 0) {
+                return false;
+            }
         }
 
         // Calculate amount that should be spread over the outputs (when in spread mode)
-        int spreadOver = filterCount > 0 ? filterCount : outputs.size();
+        int spreadOver = filterCount > 0 ? filterCount : outputCount;
         int spreadAmount = itemStack.getAmount() / spreadOver;
         if (spread && spreadAmount == 0) {
             if (forceEqualSpread) {
@@ -272,35 +896,44 @@ public class ItemMoveScheduler {
             spreadAmount = (int) Math.ceil(itemStack.getAmount() / (double) spreadOver);
         }
 
+        // A copy of the item stack for moving only part of it, shared by all outputs
+        ItemStack split = null;
+
         try (Timing t = TIMINGS_MOVE_TRANSFER.startTiming()) {
             // loop through all outputs
-            for (Map.Entry<PipeOutput, PipeOutput.AcceptResult> entry : outputs.entrySet()) {
+            for (int i = 0; i < outputCount; i++) {
                 // we don't need to move empty/already moved itemstacks
                 if (itemStack.getAmount() <= 0) {
                     return true;
                 }
+                if (itemAllowance <= 0) {
+                    // The rate limit is reached, the rest gets moved by a later transfer
+                    return false;
+                }
 
-                PipeOutput output = entry.getKey();
+                PipeOutput output = sortedOutputs[i];
                 // Don't allow looping back into input
                 if (output.getTargetLocation().equals(input.getTargetLocation())) {
                     continue;
                 }
                 Block targetBlock = output.getTargetLocation().getBlock();
-                InventoryHolder targetHolder = output.getTargetHolder();
-                Inventory targetInventory = targetHolder != null ? targetHolder.getInventory() : null;
+                // Don't get the block state of targets that are known to have no space for the item
+                InventoryBatch targetBatch = targetCapacities.isFull(output.getTargetLocation(), itemStack) ? null : getTargetBatch(output, inputInventory);
+                Inventory targetInventory = targetBatch != null ? targetBatch.getInventory() : null;
 
                 PipeOutput.Options.Overflow outputOverflow = output.getOption(PipeOutput.Options.OVERFLOW);
 
                 ItemStack transferring = itemStack;
-                PipeOutput.AcceptResult acceptResult = entry.getValue();
+                PipeOutput.AcceptResult acceptResult = sortedResults[i];
 
                 // Set the spread amount
                 if (spread) {
                     // we still have more available than the spread amount, spread it further
                     if (spreadAmount < transferring.getAmount()) {
-                        if (transferring == itemStack) {
-                            transferring = new ItemStack(transferring);
+                        if (split == null) {
+                            split = new ItemStack(itemStack);
                         }
+                        transferring = split;
                         transferring.setAmount(spreadAmount);
                     } else if (filterCount > 0 && !acceptResult.isInFilter()) {
                         // There are outputs with matching filters and this output doesn't have one
@@ -320,7 +953,7 @@ public class ItemMoveScheduler {
                         && output.getOption(PipeOutput.Options.TARGET_AMOUNT)) {
                     int amountInTarget = 0;
                     try (Timing t2 = TIMINGS_MOVE_FILTER_AMOUNT.startTiming()) {
-                        for (ItemStack item : targetInventory) {
+                        for (ItemStack item : targetBatch.getContents()) {
                             if (output.matchesFilter(acceptResult.getFilterItem(), item)) {
                                 amountInTarget += item.getAmount();
                                 if (amountInTarget > acceptResult.getFilterItem().getAmount()) {
@@ -332,12 +965,26 @@ public class ItemMoveScheduler {
                     }
                     if (amountInTarget + transferring.getAmount() > acceptResult.getFilterItem().getAmount()) {
                         if (transferring == itemStack) {
-                            transferring = new ItemStack(transferring);
+                            if (split == null) {
+                                split = new ItemStack(itemStack);
+                            }
+                            transferring = split;
                         }
                         transferring.setAmount(acceptResult.getFilterItem().getAmount() - amountInTarget);
                     }
                 }
 
+                // Don't move more than the rate limits allow
+                if (transferring.getAmount() > itemAllowance) {
+                    if (transferring == itemStack) {
+                        if (split == null) {
+                            split = new ItemStack(itemStack);
+                        }
+                        transferring = split;
+                    }
+                    transferring.setAmount(itemAllowance);
+                }
+
                 // Calculate the amount not transferred
                 int leftOverAmount = transferring == itemStack ? 0 : itemStack.getAmount() - transferring.getAmount();
 
@@ -350,25 +997,33 @@ public class ItemMoveScheduler {
                     continue;
                 }
 
+                int transferAmount = transferring.getAmount();
+
                 if (output.getOption(PipeOutput.Options.DROP)) {
                     Location dropLocation = output.getTargetLocation().getLocation().add(0.5, 0.5, 0.5);
 
                     double speed = PipesUtil.RANDOM.nextDouble() * 0.1d + 0.2d;
-                    Vector motion = new Vector(
-                            output.getFacing().getModX() * speed + PipesUtil.RANDOM.nextGaussian() * 0.0075 * 6,
-                            0.2 + PipesUtil.RANDOM.nextGaussian() * 0.0075 * 6,
-                            output.getFacing().getModZ() * speed + PipesUtil.RANDOM.nextGaussian() * 0.0075 * 6
-                    );
-
-                    PipeDispenseEvent pipeDispenseEvent = new PipeDispenseEvent(pipe, output, transferring, motion);
-                    Pipes.getInstance().getServer().getPluginManager().callEvent(pipeDispenseEvent);
+                    dropMotion.setX(output.getFacing().getModX() * speed + PipesUtil.RANDOM.nextGaussian() * 0.0075 * 6);
+                    dropMotion.setY(0.2 + PipesUtil.RANDOM.nextGaussian() * 0.0075 * 6);
+                    dropMotion.setZ(output.getFacing().getModZ() * speed + PipesUtil.RANDOM.nextGaussian() * 0.0075 * 6);
+
+                    PipeDispenseEvent pipeDispenseEvent = new PipeDispenseEvent(pipe, output, transferring, dropMotion);
+                    if (PipeDispenseEvent.getHandlerList().getRegisteredListeners().length > 0) {
+                        // Listeners have to see the items that were batched for the targets so far
+                        for (InventoryBatch batch : inventoryBatches.values()) {
+                            batch.flush();
+                        }
+                    }
+                    try (Timing t2 = TIMINGS_MOVE_EVENTS.startTiming()) {
+                        Pipes.getInstance().getServer().getPluginManager().callEvent(pipeDispenseEvent);
+                    }
                     if (pipeDispenseEvent.isCancelled()) {
                         continue;
                     }
 
-                    ItemStack dropping = new ItemStack(transferring);
+                    // The dropped entity gets a copy of the item stack so we can empty ours afterwards
+                    Item droppedItem = dropLocation.getWorld().dropItem(dropLocation, transferring);
                     transferring.setAmount(0);
-                    Item droppedItem = dropLocation.getWorld().dropItem(dropLocation, dropping);
                     droppedItem.setVelocity(pipeDispenseEvent.getVelocity());
 
                     dropLocation.getWorld().playEffect(dropLocation, Effect.CLICK2, null);
@@ -377,7 +1032,13 @@ public class ItemMoveScheduler {
                 } else if (targetInventory != null) {
                     // call move event before doing any moving to check if it was cancelled
                     PipeMoveItemEvent pipeMoveEvent = new PipeMoveItemEvent(pipe, output, inputInventory, transferring, targetInventory);
-                    Pipes.getInstance().getServer().getPluginManager().callEvent(pipeMoveEvent);
+                    if (PipeMoveItemEvent.getHandlerList().getRegisteredListeners().length > 0) {
+                        // Listeners have to see the items that were batched for the destination so far
+                        targetBatch.flush();
+                    }
+                    try (Timing t2 = TIMINGS_MOVE_EVENTS.startTiming()) {
+                        Pipes.getInstance().getServer().getPluginManager().callEvent(pipeMoveEvent);
+                    }
                     if (pipeMoveEvent.isCancelled()) {
                         continue;
                     }
@@ -393,20 +1054,9 @@ public class ItemMoveScheduler {
                         case BLAST_FURNACE:
                             // try to put coal etc in the correct place
                             if (transferring.getType().isFuel() && (smartInsert || (output.getFacing() != BlockFace.DOWN && output.getFacing() != BlockFace.UP))) {
-                                PipesUtil.addFuel(inputInventory, targetInventory, transferring);
+                                targetBatch.addFuel(transferring);
                             } else if (smartInsert || output.getFacing() == BlockFace.DOWN) {
-                                FurnaceInventory furnaceInventory = (FurnaceInventory) targetInventory;
-                                ItemStack smelting = furnaceInventory.getSmelting();
-                                if (smelting == null) {
-                                    inputInventory.removeItem(new ItemStack(transferring));
-                                    furnaceInventory.setSmelting(transferring);
-                                    transferring.setAmount(0);
-                                } else if (smelting.isSimilar(transferring)) {
-                                    ItemStack itemToSet = PipesUtil.moveToSingleSlot(inputInventory, smelting, transferring);
-                                    if (itemToSet != null) {
-                                        furnaceInventory.setSmelting(itemToSet);
-                                    }
-                                }
+                                targetBatch.addSmelting(transferring);
                             }
                             break;
                     /*
@@ -416,56 +1066,29 @@ public class ItemMoveScheduler {
                     BEGIN BREWING STAND
                      */
                         case BREWING:
-                            BrewerInventory brewerInventory = (BrewerInventory) targetInventory;
                             switch (transferring.getType()) {
                                 case POTION:
                                 case SPLASH_POTION:
                                 case LINGERING_POTION:
                                     if (smartInsert || (output.getFacing() != BlockFace.DOWN && output.getFacing() != BlockFace.UP)) {
-                                        ItemStack ingredient = brewerInventory.getIngredient();
-                                        if (!PipesUtil.potionAcceptsIngredient(transferring, ingredient)) {
+                                        if (!PipesUtil.potionAcceptsIngredient(transferring, targetBatch.getIngredient())) {
                                             break;
                                         }
-                                        int firstEmpty = brewerInventory.firstEmpty();
-                                        while (firstEmpty != -1 && firstEmpty < 3 && transferring.getAmount() > 0) {
-                                            ItemStack remove = new ItemStack(transferring);
-                                            remove.setAmount(1);
-                                            inputInventory.removeItem(remove);
-
-                                            ItemStack result = new ItemStack(transferring);
-                                            result.setAmount(1);
-
-                                            transferring.setAmount(transferring.getAmount() - 1);
-
-                                            brewerInventory.setItem(firstEmpty, result);
-                                            if (transferring.getAmount() > 0) {
-                                                firstEmpty = brewerInventory.firstEmpty();
-                                            }
-                                        }
+                                        targetBatch.addPotions(transferring);
                                     }
                                     break;
                                 case BLAZE_POWDER:
                                     // the transported item is fuel
                                     // only insert if pointing from the side, smart insert will treat it as an ingredient
                                     if (!smartInsert && output.getFacing() != BlockFace.DOWN && output.getFacing() != BlockFace.UP) {
-                                        if (!PipesUtil.addFuel(inputInventory, brewerInventory, transferring)) {
+                                        if (!targetBatch.addFuel(transferring)) {
                                             continue;
                                         }
                                         break;
                                     }
                                 default:
                                     if (smartInsert || output.getFacing() == BlockFace.DOWN) {
-                                        ItemStack ingredient = brewerInventory.getIngredient();
-                                        if (ingredient == null) {
-                                            inputInventory.removeItem(new ItemStack(transferring));
-                                            brewerInventory.setIngredient(transferring);
-                                            transferring.setAmount(0);
-                                        } else if (ingredient.isSimilar(transferring)) {
-                                            ItemStack itemToSet = PipesUtil.moveToSingleSlot(inputInventory, ingredient, transferring);
-                                            if (itemToSet != null) {
-                                                brewerInventory.setIngredient(itemToSet);
-                                            }
-                                        }
+                                        targetBatch.addIngredient(transferring);
                                     }
                                     break;
                             }
@@ -482,7 +1105,7 @@ public class ItemMoveScheduler {
                                 case EMERALD:
                                 case GOLD_INGOT:
                                 case IRON_INGOT:
-                                    PipesUtil.addItem(targetInventory, transferring);
+                                    targetBatch.add(transferring);
                                     break;
                             }
                             break;
@@ -505,7 +1128,15 @@ public class ItemMoveScheduler {
                      */
                         default:
                             // for chests, dropper etc...
-                            PipesUtil.addItem(targetInventory, transferring);
+                            // An emptied stack might not know its type anymore
+                            Material insertedType = transferring.getType();
+                            int inserted = targetBatch.add(transferring);
+                            if (transferring.getAmount() > 0) {
+                                // Remember that it's full so that the next items don't have to look at it
+                                targetCapacities.update(output.getTargetLocation(), targetBatch);
+                            } else {
+                                targetCapacities.inserted(output.getTargetLocation(), insertedType, inserted);
+                            }
                             break;
                     /*
                     END DEFAULT
@@ -531,6 +1162,15 @@ public class ItemMoveScheduler {
                     }
                 }
 
+                itemAllowance -= transferAmount - transferring.getAmount();
+
+                if (!sampling.isEmpty() && transferring.getAmount() < transferAmount) {
+                    // Remember where the items went so that detections can find inputs that feed each other
+                    for (Detection detection : sampling) {
+                        detection.addEdge(input.getLocation(), output.getTargetLocation());
+                    }
+                }
+
                 if (itemStack != transferring) {
                     // Check if the item stack that we transferred is the one that was given to us.
                     // If not merge their amounts (this split can happen due to the amount filtering and spreading)
@@ -547,6 +1187,32 @@ public class ItemMoveScheduler {
         return itemStack.getAmount() <= 0;
     }
 
+    /**
+     * returns the batch that collects the items moved into the target of an output during the current transfer
+     *
+     * @param output         the output
+     * @param inputInventory the inventory that the items are moved out of
+     * @return the batch or null if the target has no inventory or it is the input's inventory
+     */
+    private InventoryBatch getTargetBatch(PipeOutput output, Inventory inputInventory) {
+        InventoryBatch batch = targetBatches.get(output.getTargetLocation());
+        if (batch != null) {
+            return batch;
+        }
+        InventoryHolder targetHolder = output.getTargetHolder();
+        if (targetHolder == null) {
+            return null;
+        }
+        Inventory inventory = targetHolder.getInventory();
+        Location location = inventory.getLocation();
+        if (location == null || location.equals(inputInventory.getLocation())) {
+            // Writing the batch back would undo what was taken out of the input, e.g. the other half of a double chest
+            return null;
+        }
+        batch = inventoryBatches.computeIfAbsent(location, l -> new InventoryBatch(inventory));
+        targetBatches.put(output.getTargetLocation(), batch);
+        return batch;
+    }
 
     /**
      * kills the task
@@ -554,7 +1220,6 @@ public class ItemMoveScheduler {
     private void kill() {
         Pipes.getInstance().getServer().getScheduler().cancelTask(taskId);
         taskId = -1;
-        emptyRuns = 0;
     }
 
     /**
@@ -572,53 +1237,477 @@ public class ItemMoveScheduler {
      * @param scheduledItemTransfer the item transfer
      */
     public void add(SimpleLocation scheduledItemTransfer) {
-        emptyRuns = 0;
+        if (throttledTransfers.contains(scheduledItemTransfer)) {
+            // A change in the input doesn't allow it to move items earlier, it gets queued once its rate limit does
+            return;
+        }
+        // A transfer that waits for a discovery is still in the journal
+        boolean queued = pendingTransfers.remove(scheduledItemTransfer);
+        if (blockedTransfers.containsKey(scheduledItemTransfer)) {
+            // Something changed in the input, it doesn't have to wait for its outputs anymore
+            removeBlocked(scheduledItemTransfer);
+            queued = true;
+        }
         if (!isTransferring) {
-            scheduledItemTransfers.add(scheduledItemTransfer);
+            queued |= !queue(scheduledItemTransfer);
         } else if (!scheduledItemTransfers.contains(scheduledItemTransfer)) {
-            addItemTransfers.add(scheduledItemTransfer);
+            queued |= !addItemTransfers.add(scheduledItemTransfer);
+        } else {
+            queued = true;
+        }
+        if (!queued && journal != null) {
+            journal.add(scheduledItemTransfer);
         }
         if (!isActive() && (!scheduledItemTransfers.isEmpty() || !addItemTransfers.isEmpty())) {
             create();
         }
     }
 
+    /**
+     * completes a transfer that waited for the discovery of its pipe without queueing it again
+     *
+     * @param location the location of the PipeInput
+     */
+    public void complete(SimpleLocation location) {
+        if (pendingTransfers.remove(location) && journal != null
+                && !scheduledItemTransfers.contains(location) && !addItemTransfers.contains(location)) {
+            journal.remove(location);
+        }
+    }
+
+    /**
+     * schedules an item move in the next tick, after the items that caused it were moved.
+     * All inputs that are woken up in the same tick share one task.
+     *
+     * @param scheduledItemTransfer the item transfer
+     */
+    public void wakeup(SimpleLocation scheduledItemTransfer) {
+        wakeup(scheduledItemTransfer.getWorldIndex(), scheduledItemTransfer.getBlockKey());
+    }
+
+    /**
+     * schedules an item move in the next tick without creating a location for the input
+     *
+     * @param worldIndex the index of the input's world
+     * @param blockKey   the packed key of the input's block
+     */
+    public void wakeup(int worldIndex, long blockKey) {
+        if (wakeups.putIfAbsent(worldIndex, blockKey, Boolean.TRUE) != null) {
+            return;
+        }
+        wakeupOrder.add(worldIndex);
+        wakeupOrder.add(blockKey);
+        if (wakeupTaskId == -1) {
+            wakeupTaskId = Pipes.getInstance().getServer().getScheduler().scheduleSyncDelayedTask(Pipes.getInstance(), this::addWakeups, 1L);
+        }
+    }
+
+    /**
+     * Check whether or not an input was already woken up in this tick
+     *
+     * @param worldIndex the index of the input's world
+     * @param blockKey   the packed key of the input's block
+     * @return <code>true</code> if its transfer gets scheduled in the next tick
+     */
+    public boolean isWakingUp(int worldIndex, long blockKey) {
+        return wakeupTaskId != -1 && wakeups.containsKey(worldIndex, blockKey);
+    }
+
+    private void addWakeups() {
+        wakeupTaskId = -1;
+        while (!wakeupOrder.isEmpty()) {
+            int worldIndex = (int) wakeupOrder.remove();
+            add(new SimpleLocation(worldIndex, wakeupOrder.remove()));
+        }
+        wakeups.clear();
+    }
+
+    /**
+     * Queue the woken up inputs and write them to the journal without starting the task,
+     * used on shutdown when no tasks can be scheduled anymore
+     */
+    private void saveWakeups() {
+        while (!wakeupOrder.isEmpty()) {
+            int worldIndex = (int) wakeupOrder.remove();
+            SimpleLocation location = new SimpleLocation(worldIndex, wakeupOrder.remove());
+            // Blocked, throttled and pending transfers already have a journal record
+            boolean saved = blockedTransfers.containsKey(location) || throttledTransfers.contains(location) || pendingTransfers.contains(location);
+            if (!saved && queue(location) && journal != null) {
+                journal.add(location);
+            }
+        }
+        wakeups.clear();
+    }
+
+    /**
+     * adds a transfer to the queue with the priority of its input
+     *
+     * @param location the location of the PipeInput
+     * @return <code>true</code> if it wasn't queued before
+     */
+    private boolean queue(SimpleLocation location) {
+        return scheduledItemTransfers.add(location, getPriority(location));
+    }
+
+    /**
+     * returns the priority of the transfers of an input. Inputs of pipes that aren't known yet have the normal one.
+     *
+     * @param location the location of the PipeInput
+     * @return the priority
+     */
+    private PipeInput.Options.Priority getPriority(SimpleLocation location) {
+        if (!PipesConfig.isPrioritySchedulingEnabled()) {
+            return PipeInput.Options.Priority.NORMAL;
+        }
+        PipeInput.Options.Priority priority = PipeInput.Options.Priority.NORMAL;
+        Pipe pipe = PipeManager.getInstance().getPipeCache().getIfPresent(location);
+        PipeInput input = pipe != null ? pipe.getInput(location) : null;
+        if (input != null) {
+            priority = input.getOption(PipeInput.Options.PRIORITY);
+        }
+        return boostedInputs.contains(location) ? priority.getBoosted() : priority;
+    }
+
     private void addQueued() {
-        scheduledItemTransfers.addAll(addItemTransfers);
+        for (SimpleLocation location : addItemTransfers) {
+            queue(location);
+        }
         addItemTransfers.clear();
     }
 
-    public Set<SimpleLocation> getTransfers() {
+    /**
+     * wakes up the transfers queued in a chunk that were parked while it was unloaded
+     *
+     * @param chunk the chunk that was loaded
+     */
+    public void wake(Chunk chunk) {
+        if (scheduledItemTransfers.wake(SimpleLocation.getWorldIndex(chunk.getWorld().getName()), chunk.getChunkKey())) {
+            if (!isActive()) {
+                create();
+            }
+        }
+    }
+
+    /**
+     * blocks a transfer until the inventory of one of its outputs' targets or the filter of
+     * one of its outputs changes or the blocked transfer timeout is reached
+     *
+     * @param input the location of the PipeInput
+     */
+    private void block(SimpleLocation input) {
+        Pipe pipe = PipeManager.getInstance().getPipeCache().getIfPresent(input);
+        if (pipe == null) {
+            queue(input);
+            return;
+        }
+        List<SimpleLocation> watched = new ArrayList<>();
+        for (PipeOutput output : pipe.getOutputs().values()) {
+            watched.add(output.getLocation());
+            watched.add(output.getTargetLocation());
+        }
+        for (SimpleLocation location : watched) {
+            Set<SimpleLocation> inputs = blockedByLocation.get(location);
+            if (inputs == null) {
+                inputs = new LinkedHashSet<>();
+                blockedByLocation.put(location, inputs);
+            }
+            inputs.add(input);
+        }
+        blockedTransfers.put(input, new BlockedTransfer(Bukkit.getCurrentTick(), Bukkit.getCurrentTick() + PipesConfig.getBlockedTransferTimeout(), watched));
+    }
+
+    private BlockedTransfer removeBlocked(SimpleLocation input) {
+        BlockedTransfer blocked = blockedTransfers.remove(input);
+        if (blocked != null) {
+            MetricsManager.getInstance().recordBlocked(input, Bukkit.getCurrentTick() - blocked.blockedTick);
+            for (SimpleLocation location : blocked.watched) {
+                Set<SimpleLocation> inputs = blockedByLocation.get(location);
+                if (inputs != null) {
+                    inputs.remove(input);
+                    if (inputs.isEmpty()) {
+                        blockedByLocation.remove(location);
+                    }
+                }
+            }
+        }
+        return blocked;
+    }
+
+    /**
+     * unblocks all transfers that wait for a change at a location
+     *
+     * @param location the location of the changed output or output target
+     */
+    public void unblock(SimpleLocation location) {
+        unblock(location.getWorldIndex(), location.getBlockKey());
+    }
+
+    /**
+     * unblocks all transfers that wait for a change at a block without creating a location for it
+     *
+     * @param worldIndex the index of the world of the changed output or output target
+     * @param blockKey   the packed key of its block
+     */
+    public void unblock(int worldIndex, long blockKey) {
+        if (blockedByLocation.isEmpty()) {
+            return;
+        }
+        Set<SimpleLocation> inputs = blockedByLocation.get(worldIndex, blockKey);
+        if (inputs != null) {
+            for (SimpleLocation input : new ArrayList<>(inputs)) {
+                add(input);
+            }
+        }
+    }
+
+    /**
+     * unblocks all transfers that wait for a change of an inventory holder
+     *
+     * @param holder the holder of the inventory that changed
+     */
+    public void unblock(InventoryHolder holder) {
+        if (blockedByLocation.isEmpty()) {
+            return;
+        }
+        if (holder instanceof DoubleChest) {
+            unblock(((DoubleChest) holder).getLeftSide());
+            unblock(((DoubleChest) holder).getRightSide());
+        } else if (holder instanceof BlockState) {
+            unblock(new SimpleLocation(((BlockState) holder).getLocation()));
+        }
+    }
+
+    /**
+     * re-queues all blocked transfers whose timeout was reached
+     */
+    private void retryBlocked() {
+        if (PipesConfig.getBlockedTransferTimeout() <= 0) {
+            return;
+        }
+        int currentTick = Bukkit.getCurrentTick();
+        // Blocked transfers are ordered by the tick they were blocked at so we can stop at the first one that isn't due
+        for (Iterator<Map.Entry<SimpleLocation, BlockedTransfer>> it = blockedTransfers.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<SimpleLocation, BlockedTransfer> entry = it.next();
+            if (entry.getValue().retryTick > currentTick) {
+                break;
+            }
+            it.remove();
+            MetricsManager.getInstance().recordBlocked(entry.getKey(), currentTick - entry.getValue().blockedTick);
+            for (SimpleLocation location : entry.getValue().watched) {
+                Set<SimpleLocation> inputs = blockedByLocation.get(location);
+                if (inputs != null) {
+                    inputs.remove(entry.getKey());
+                    if (inputs.isEmpty()) {
+                        blockedByLocation.remove(location);
+                    }
+                }
+            }
+            queue(entry.getKey());
+        }
+    }
+
+    /**
+     * schedules a single task that retries the blocked transfers once the first one is due
+     */
+    private void scheduleBlockedRetry() {
+        if (blockedTaskId != -1 || blockedTransfers.isEmpty() || PipesConfig.getBlockedTransferTimeout() <= 0) {
+            return;
+        }
+        int delay = Math.max(1, blockedTransfers.values().iterator().next().retryTick - Bukkit.getCurrentTick());
+        blockedTaskId = Pipes.getInstance().getServer().getScheduler().scheduleSyncDelayedTask(Pipes.getInstance(), () -> {
+            blockedTaskId = -1;
+            retryBlocked();
+            if (scheduledItemTransfers.getActiveSize() > 0) {
+                if (!isActive()) {
+                    create();
+                }
+            } else {
+                scheduleBlockedRetry();
+            }
+        }, delay);
+    }
+
+    /**
+     * returns the free space of the output targets that are known to be full for some items
+     *
+     * @return the target capacity cache
+     */
+    public TargetCapacityCache getTargetCapacities() {
+        return targetCapacities;
+    }
+
+    public TransferQueue getTransfers() {
         return scheduledItemTransfers;
     }
 
+    /**
+     * Get the transfers that are blocked until one of their outputs changes
+     *
+     * @return the locations of the blocked inputs
+     */
+    public Set<SimpleLocation> getBlockedTransfers() {
+        return blockedTransfers.keySet();
+    }
+
+    /**
+     * Check whether or not any blocked transfer waits for a change of its outputs or their targets
+     *
+     * @return <code>true</code> if there is a blocked transfer
+     */
+    public boolean hasBlockedTransfers() {
+        return !blockedByLocation.isEmpty();
+    }
+
+    /**
+     * Get all transfers that are queued, waiting to be queued, blocked, throttled or waiting for a discovery
+     *
+     * @return the locations of the inputs
+     */
+    private Set<SimpleLocation> getQueuedTransfers() {
+        Set<SimpleLocation> transfers = new LinkedHashSet<>();
+        for (SimpleLocation transfer : scheduledItemTransfers) {
+            transfers.add(transfer);
+        }
+        transfers.addAll(addItemTransfers);
+        transfers.addAll(blockedTransfers.keySet());
+        transfers.addAll(throttledTransfers);
+        transfers.addAll(pendingTransfers);
+        return transfers;
+    }
+
+    /**
+     * Hand the journal records of the last second to its writer and compact it if most of them are outdated
+     */
+    private void flushJournal() {
+        if (journal.needsCompaction(scheduledItemTransfers.size() + addItemTransfers.size() + blockedTransfers.size()
+                + throttledTransfers.size() + pendingTransfers.size())) {
+            journal.compact(getQueuedTransfers());
+        } else {
+            journal.flush();
+        }
+    }
+
     public static void load() {
-        YamlConfiguration oldTransfers = YamlConfiguration.loadConfiguration(new File(Pipes.getInstance().getDataFolder(), "transfers.yml"));
-        for (Map locMap : oldTransfers.getMapList("transfers")) {
+        ItemMoveScheduler scheduler = getInstance();
+        File journalFile = new File(Pipes.getInstance().getDataFolder(), "transfers.journal");
+        if (journalFile.exists()) {
             try {
-                SimpleLocation location = SimpleLocation.deserialize(locMap);
-                getInstance().add(location);
-            } catch (IllegalArgumentException e) {
-                Pipes.getInstance().getLogger().log(Level.SEVERE, "Could not load transfer from transfers.yml: " + e.getMessage());
+                for (SimpleLocation location : TransferJournal.read(journalFile)) {
+                    scheduler.add(location);
+                }
+            } catch (IOException e) {
+                Pipes.getInstance().getLogger().log(Level.SEVERE, "Could not load transfers from " + journalFile.getName(), e);
+            }
+        }
+
+        File legacyFile = new File(Pipes.getInstance().getDataFolder(), "transfers.yml");
+        if (legacyFile.exists()) {
+            YamlConfiguration oldTransfers = YamlConfiguration.loadConfiguration(legacyFile);
+            for (Map locMap : oldTransfers.getMapList("transfers")) {
+                try {
+                    SimpleLocation location = SimpleLocation.deserialize(locMap);
+                    scheduler.add(location);
+                } catch (IllegalArgumentException e) {
+                    Pipes.getInstance().getLogger().log(Level.SEVERE, "Could not load transfer from transfers.yml: " + e.getMessage());
+                }
             }
         }
-        Pipes.getInstance().getLogger().log(Level.INFO, "Loaded " + getInstance().getTransfers().size() + " scheduled transfers.");
+
+        // Start with a journal that only contains what was loaded
+        scheduler.journal = new TransferJournal(journalFile);
+        try {
+            scheduler.journal.compact(scheduler.getQueuedTransfers()).get();
+            if (legacyFile.exists()) {
+                legacyFile.delete();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            Pipes.getInstance().getLogger().log(Level.SEVERE, "Could not write " + journalFile.getName(), e);
+        }
+        scheduler.journalTaskId = Pipes.getInstance().getServer().getScheduler().scheduleSyncRepeatingTask(
+                Pipes.getInstance(), scheduler::flushJournal, 20L, 20L);
+
+        if (PipesConfig.isParallelPlanningEnabled()) {
+            int threads = PipesConfig.getPlanningThreads() > 0 ? PipesConfig.getPlanningThreads() : Runtime.getRuntime().availableProcessors();
+            scheduler.planningPool = new ForkJoinPool(threads, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("Pipes-Planner-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+        }
+        Pipes.getInstance().getLogger().log(Level.INFO, "Loaded " + scheduler.getTransfers().size() + " scheduled transfers.");
     }
 
     public static void exit() {
-        getInstance().kill();
-        YamlConfiguration oldTransfers = new YamlConfiguration();
-        List<Map<String, Object>> transferList = new ArrayList<>();
-        for (SimpleLocation transfer : getInstance().getTransfers()) {
-            transferList.add(transfer.serialize());
+        ItemMoveScheduler scheduler = getInstance();
+        if (scheduler.wakeupTaskId != -1) {
+            // Queue them now so that they get saved
+            Pipes.getInstance().getServer().getScheduler().cancelTask(scheduler.wakeupTaskId);
+            scheduler.wakeupTaskId = -1;
+            scheduler.saveWakeups();
         }
-        oldTransfers.set("transfers", transferList);
-        try {
-            oldTransfers.save(new File(Pipes.getInstance().getDataFolder(), "transfers.yml"));
-            Pipes.getInstance().getLogger().log(Level.INFO, "Saved " + transferList.size() + " scheduled transfers.");
-        } catch (IOException e) {
-            Pipes.getInstance().getLogger().log(Level.SEVERE, "Could not write transfers to transfers.yml", e);
+        scheduler.kill();
+        if (scheduler.blockedTaskId != -1) {
+            Pipes.getInstance().getServer().getScheduler().cancelTask(scheduler.blockedTaskId);
+            scheduler.blockedTaskId = -1;
+        }
+        if (scheduler.throttleTaskId != -1) {
+            // Throttled transfers already have a journal record
+            Pipes.getInstance().getServer().getScheduler().cancelTask(scheduler.throttleTaskId);
+            scheduler.throttleTaskId = -1;
+        }
+        if (scheduler.planningPool != null) {
+            scheduler.planningPool.shutdown();
+            scheduler.planningPool = null;
+        }
+        if (scheduler.journalTaskId != -1) {
+            Pipes.getInstance().getServer().getScheduler().cancelTask(scheduler.journalTaskId);
+            scheduler.journalTaskId = -1;
+        }
+        if (scheduler.journal != null) {
+            // Everything but the last second is already written, so this only appends a few records
+            scheduler.journal.close();
+            scheduler.journal = null;
+            Pipes.getInstance().getLogger().log(Level.INFO, "Saved " + (scheduler.getTransfers().size() + scheduler.getBlockedTransfers().size()
+                    + scheduler.throttledTransfers.size() + scheduler.pendingTransfers.size()) + " scheduled transfers.");
         }
     }
 
+    /**
+     * The result of executing a transfer
+     */
+    public enum TransferResult {
+        /**
+         * everything was moved or the transfer isn't valid anymore, it can be removed from the queue
+         */
+        COMPLETED,
+        /**
+         * the transfer should be retried in the next cycle
+         */
+        RETRY,
+        /**
+         * nothing could be moved, the transfer waits for one of its outputs to change
+         */
+        BLOCKED,
+        /**
+         * the rate limit of the pipe or the input is reached, the transfer waits until it may move items again
+         */
+        THROTTLED,
+        /**
+         * the pipe is still being discovered asynchronously, the transfer gets queued again once it is known
+         */
+        PENDING
+    }
+
+    private static class BlockedTransfer {
+        private final int blockedTick;
+        private final int retryTick;
+        private final List<SimpleLocation> watched;
+
+        private BlockedTransfer(int blockedTick, int retryTick, List<SimpleLocation> watched) {
+            this.blockedTick = blockedTick;
+            this.retryTick = retryTick;
+            this.watched = watched;
+        }
+    }
 }
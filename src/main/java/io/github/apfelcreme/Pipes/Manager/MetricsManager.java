@@ -0,0 +1,357 @@
+package io.github.apfelcreme.Pipes.Manager;
+
+import com.google.common.cache.CacheStats;
+import io.github.apfelcreme.Pipes.Metrics.CacheMetrics;
+import io.github.apfelcreme.Pipes.Metrics.TransferMetrics;
+import io.github.apfelcreme.Pipes.Pipe.Pipe;
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import io.github.apfelcreme.Pipes.Pipes;
+import io.github.apfelcreme.Pipes.PipesConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class MetricsManager {
+
+    /**
+     * the MetricsManager instance
+     */
+    private static MetricsManager instance = null;
+
+    /**
+     * the metrics of all transfers
+     */
+    private TransferMetrics global;
+
+    /**
+     * the metrics of the transfers by the location of their input
+     */
+    private final Map<SimpleLocation, TransferMetrics> inputs;
+
+    /**
+     * the lookups of the single cache and the part cache, the pipe cache records its own stats
+     */
+    private CacheMetrics singleCache;
+    private CacheMetrics pipePartCache;
+
+    /**
+     * the amount of ticks in which the transfers didn't finish in the time budget
+     */
+    private long budgetExceeded;
+
+    /**
+     * the task id of the task that exports the metrics
+     */
+    private int exportTaskId;
+
+    /**
+     * constructor
+     */
+    private MetricsManager() {
+        global = new TransferMetrics();
+        inputs = new HashMap<>();
+        singleCache = new CacheMetrics();
+        pipePartCache = new CacheMetrics();
+        exportTaskId = -1;
+    }
+
+    /**
+     * returns the MetricsManager instance
+     *
+     * @return the MetricsManager instance
+     */
+    public static MetricsManager getInstance() {
+        if (instance == null) {
+            instance = new MetricsManager();
+        }
+        return instance;
+    }
+
+    /**
+     * records an executed transfer globally, for its pipe and for its input
+     *
+     * @param pipe   the pipe of the transfer
+     * @param input  the location of the input
+     * @param nanos  the time the transfer took in nanoseconds
+     * @param items  the amount of items that were moved
+     * @param stacks the amount of stacks that were moved completely
+     */
+    public void recordExecution(Pipe pipe, SimpleLocation input, long nanos, int items, int stacks) {
+        global.recordExecution(nanos, items, stacks);
+        pipe.getMetrics().recordExecution(nanos, items, stacks);
+        getInputMetrics(input).recordExecution(nanos, items, stacks);
+    }
+
+    /**
+     * records the time a transfer was blocked
+     *
+     * @param input the location of the input
+     * @param ticks the amount of ticks the transfer was blocked
+     */
+    public void recordBlocked(SimpleLocation input, int ticks) {
+        global.recordBlocked(ticks);
+        getInputMetrics(input).recordBlocked(ticks);
+        Pipe pipe = PipeManager.getInstance().getPipeCache().getIfPresent(input);
+        if (pipe != null) {
+            pipe.getMetrics().recordBlocked(ticks);
+        }
+    }
+
+    /**
+     * records a tick in which the scheduler ran out of its time budget and continues the cycle in the next one
+     */
+    public void recordBudgetExceeded() {
+        budgetExceeded++;
+    }
+
+    /**
+     * returns the amount of ticks in which the scheduler ran out of its time budget
+     *
+     * @return the amount of ticks
+     */
+    public long getBudgetExceeded() {
+        return budgetExceeded;
+    }
+
+    /**
+     * returns the metrics of an input, creates them if there are none yet
+     *
+     * @param input the location of the input
+     * @return the metrics of the input
+     */
+    public TransferMetrics getInputMetrics(SimpleLocation input) {
+        return inputs.computeIfAbsent(input, l -> new TransferMetrics());
+    }
+
+    /**
+     * forgets the metrics of an input, has to be called when the input is removed or its pipe leaves the cache
+     *
+     * @param input the location of the input
+     */
+    public void removeInput(SimpleLocation input) {
+        inputs.remove(input);
+    }
+
+    /**
+     * returns the metrics of all cached inputs that transferred since the last reset
+     *
+     * @return the metrics by the location of the input
+     */
+    public Map<SimpleLocation, TransferMetrics> getInputs() {
+        return inputs;
+    }
+
+    /**
+     * returns the metrics of all transfers
+     *
+     * @return the global metrics
+     */
+    public TransferMetrics getGlobal() {
+        return global;
+    }
+
+    /**
+     * returns the lookups of the single cache
+     *
+     * @return the single cache metrics
+     */
+    public CacheMetrics getSingleCache() {
+        return singleCache;
+    }
+
+    /**
+     * returns the lookups of the pipe part cache
+     *
+     * @return the pipe part cache metrics
+     */
+    public CacheMetrics getPipePartCache() {
+        return pipePartCache;
+    }
+
+    /**
+     * returns the hit rate of the pipe cache
+     *
+     * @return the hit rate between 0 and 1
+     */
+    public double getPipeCacheHitRate() {
+        return PipeManager.getInstance().getPipeCache().stats().hitRate();
+    }
+
+    /**
+     * returns the cached pipes that took the most time to execute
+     *
+     * @param limit the maximum amount of pipes
+     * @return the pipes, the most expensive first
+     */
+    public List<Pipe> getMostExpensivePipes(int limit) {
+        List<Pipe> pipes = new ArrayList<>(PipeManager.getInstance().getCachedPipes());
+        pipes.sort(Comparator.comparingLong((Pipe p) -> p.getMetrics().getExecuteNanos()).reversed());
+        return pipes.subList(0, Math.min(limit, pipes.size()));
+    }
+
+    /**
+     * returns the inputs that took the most time to execute
+     *
+     * @param limit the maximum amount of inputs
+     * @return the inputs and their metrics, the most expensive first
+     */
+    public List<Map.Entry<SimpleLocation, TransferMetrics>> getMostExpensiveInputs(int limit) {
+        List<Map.Entry<SimpleLocation, TransferMetrics>> entries = new ArrayList<>(inputs.entrySet());
+        entries.sort(Comparator.comparingLong((Map.Entry<SimpleLocation, TransferMetrics> e) -> e.getValue().getExecuteNanos()).reversed());
+        return entries.subList(0, Math.min(limit, entries.size()));
+    }
+
+    /**
+     * resets all metrics, the pipe cache keeps its stats as they can't be reset
+     */
+    public void reset() {
+        global = new TransferMetrics();
+        inputs.clear();
+        singleCache = new CacheMetrics();
+        pipePartCache = new CacheMetrics();
+        budgetExceeded = 0;
+        for (Pipe pipe : PipeManager.getInstance().getCachedPipes()) {
+            pipe.resetMetrics();
+        }
+    }
+
+    /**
+     * returns all metrics in the Prometheus text format
+     *
+     * @return the metrics
+     */
+    public String toPrometheus() {
+        Map<String, TransferMetrics> pipes = new HashMap<>();
+        for (Pipe pipe : PipeManager.getInstance().getCachedPipes()) {
+            if (!pipe.getInputs().isEmpty()) {
+                pipes.put(getLabels(pipe.getInputs().keySet().iterator().next()), pipe.getMetrics());
+            }
+        }
+        Map<String, TransferMetrics> inputLabels = new HashMap<>();
+        for (Map.Entry<SimpleLocation, TransferMetrics> entry : inputs.entrySet()) {
+            inputLabels.put(getLabels(entry.getKey()), entry.getValue());
+        }
+
+        StringBuilder sb = new StringBuilder();
+        writeTransferMetric(sb, "items_moved_total", "Items moved by pipes", TransferMetrics::getItemsMoved, pipes, inputLabels);
+        writeTransferMetric(sb, "stacks_moved_total", "Stacks that were moved completely", TransferMetrics::getStacksMoved, pipes, inputLabels);
+        writeTransferMetric(sb, "executions_total", "Executed transfers", TransferMetrics::getExecutions, pipes, inputLabels);
+        writeTransferMetric(sb, "failed_attempts_total", "Executed transfers that couldn't move anything", TransferMetrics::getFailedAttempts, pipes, inputLabels);
+        writeTransferMetric(sb, "execute_nanoseconds_total", "Time spent executing transfers", TransferMetrics::getExecuteNanos, pipes, inputLabels);
+        writeTransferMetric(sb, "blocked_ticks_total", "Ticks transfers spent blocked by their outputs", TransferMetrics::getBlockedTicks, pipes, inputLabels);
+
+        ItemMoveScheduler scheduler = ItemMoveScheduler.getInstance();
+        writeHeader(sb, "pipes_queued_transfers", "Transfers waiting in the queue", "gauge");
+        sb.append("pipes_queued_transfers ").append(scheduler.getTransfers().size()).append('\n');
+        writeHeader(sb, "pipes_blocked_transfers", "Transfers blocked until one of their outputs changes", "gauge");
+        sb.append("pipes_blocked_transfers ").append(scheduler.getBlockedTransfers().size()).append('\n');
+        writeHeader(sb, "pipes_budget_exceeded_total", "Ticks in which the transfers didn't finish in the time budget", "counter");
+        sb.append("pipes_budget_exceeded_total ").append(budgetExceeded).append('\n');
+        writeHeader(sb, "pipes_cached_pipes", "Pipes in the cache", "gauge");
+        sb.append("pipes_cached_pipes ").append(PipeManager.getInstance().getCachedPipes().size()).append('\n');
+
+        CacheStats pipeCacheStats = PipeManager.getInstance().getPipeCache().stats();
+        writeHeader(sb, "pipes_cache_hits_total", "Cache lookups that found a value", "counter");
+        sb.append("pipes_cache_hits_total{cache=\"pipeCache\"} ").append(pipeCacheStats.hitCount()).append('\n');
+        sb.append("pipes_cache_hits_total{cache=\"singleCache\"} ").append(singleCache.getHits()).append('\n');
+        sb.append("pipes_cache_hits_total{cache=\"pipePartCache\"} ").append(pipePartCache.getHits()).append('\n');
+        writeHeader(sb, "pipes_cache_misses_total", "Cache lookups that didn't find a value", "counter");
+        sb.append("pipes_cache_misses_total{cache=\"pipeCache\"} ").append(pipeCacheStats.missCount()).append('\n');
+        sb.append("pipes_cache_misses_total{cache=\"singleCache\"} ").append(singleCache.getMisses()).append('\n');
+        sb.append("pipes_cache_misses_total{cache=\"pipePartCache\"} ").append(pipePartCache.getMisses()).append('\n');
+        return sb.toString();
+    }
+
+    private static void writeTransferMetric(StringBuilder sb, String name, String help, ToLongFunction<TransferMetrics> value,
+                                            Map<String, TransferMetrics> pipes, Map<String, TransferMetrics> inputs) {
+        writeHeader(sb, "pipes_" + name, help, "counter");
+        sb.append("pipes_").append(name).append(' ').append(value.applyAsLong(getInstance().global)).append('\n');
+        writeHeader(sb, "pipes_pipe_" + name, help + " per pipe, labeled with its first input", "counter");
+        for (Map.Entry<String, TransferMetrics> entry : pipes.entrySet()) {
+            sb.append("pipes_pipe_").append(name).append(entry.getKey()).append(' ').append(value.applyAsLong(entry.getValue())).append('\n');
+        }
+        writeHeader(sb, "pipes_input_" + name, help + " per input", "counter");
+        for (Map.Entry<String, TransferMetrics> entry : inputs.entrySet()) {
+            sb.append("pipes_input_").append(name).append(entry.getKey()).append(' ').append(value.applyAsLong(entry.getValue())).append('\n');
+        }
+    }
+
+    private static void writeHeader(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String getLabels(SimpleLocation location) {
+        return "{world=\"" + location.getWorldName().replace("\\", "\\\\").replace("\"", "\\\"")
+                + "\",x=\"" + location.getX() + "\",y=\"" + location.getY() + "\",z=\"" + location.getZ() + "\"}";
+    }
+
+    /**
+     * writes the metrics in the Prometheus text format to metrics.prom in the plugin folder.
+     * The text is created on the calling thread, the file is written asynchronously.
+     *
+     * @return the file that is written
+     */
+    public File export() {
+        File file = new File(Pipes.getInstance().getDataFolder(), "metrics.prom");
+        byte[] content = toPrometheus().getBytes(StandardCharsets.UTF_8);
+        Pipes.getInstance().getServer().getScheduler().runTaskAsynchronously(Pipes.getInstance(), () -> {
+            synchronized (MetricsManager.class) {
+                File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+                try {
+                    Files.write(temp.toPath(), content);
+                    // Scrapers should never see a partially written file
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    Pipes.getInstance().getLogger().log(Level.SEVERE, "Could not write " + file.getName(), e);
+                }
+            }
+        });
+        return file;
+    }
+
+    public static void load() {
+        MetricsManager manager = getInstance();
+        long interval = PipesConfig.getMetricsExportInterval() * 20;
+        if (interval > 0) {
+            manager.exportTaskId = Pipes.getInstance().getServer().getScheduler().scheduleSyncRepeatingTask(
+                    Pipes.getInstance(), manager::export, interval, interval);
+        }
+    }
+
+    public static void exit() {
+        MetricsManager manager = getInstance();
+        if (manager.exportTaskId != -1) {
+            Pipes.getInstance().getServer().getScheduler().cancelTask(manager.exportTaskId);
+            manager.exportTaskId = -1;
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package io.github.apfelcreme.Pipes.Manager;
+
+import com.destroystokyo.paper.MaterialTags;
+import io.github.apfelcreme.Pipes.Exception.ChunkNotLoadedException;
+import io.github.apfelcreme.Pipes.Exception.LocationException;
+import io.github.apfelcreme.Pipes.Exception.PipeTooLongException;
+import io.github.apfelcreme.Pipes.Exception.TooManyOutputsException;
+import io.github.apfelcreme.Pipes.Pipe.AbstractPipePart;
+import io.github.apfelcreme.Pipes.Pipe.ChunkLoader;
+import io.github.apfelcreme.Pipes.Pipe.Pipe;
+import io.github.apfelcreme.Pipes.Pipe.PipeInput;
+import io.github.apfelcreme.Pipes.Pipe.PipeOutput;
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import io.github.apfelcreme.Pipes.Pipes;
+import io.github.apfelcreme.Pipes.PipesConfig;
+import io.github.apfelcreme.Pipes.PipesItem;
+import io.github.apfelcreme.Pipes.PipesUtil;
+import io.github.apfelcreme.Pipes.Util.LongArrayQueue;
+import io.github.apfelcreme.Pipes.Util.LongHashSet;
+import io.github.apfelcreme.Pipes.Util.LongObjectMap;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.inventory.InventoryHolder;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+class PipeDiscovery {
+
+    private final PipeManager manager;
+    private final World world;
+    private final int worldIndex;
+    private final int minHeight;
+    private final int maxHeight;
+    private final SimpleLocation start;
+
+    /**
+     * the data of all chunks that the search may access by chunk key
+     */
+    private final LongObjectMap<ChunkData> chunks = new LongObjectMap<>();
+
+    private final LongArrayQueue queue = new LongArrayQueue();
+    private final LongHashSet found = new LongHashSet();
+    private final LinkedHashMap<SimpleLocation, PipeInput> inputs = new LinkedHashMap<>();
+    private final LinkedHashMap<SimpleLocation, PipeOutput> outputs = new LinkedHashMap<>();
+    private final LinkedHashMap<SimpleLocation, ChunkLoader> chunkLoaders = new LinkedHashMap<>();
+    private final LinkedHashSet<SimpleLocation> pipeBlocks = new LinkedHashSet<>();
+    private Material type = null;
+
+    /**
+     * the key of the chunk that the search paused at
+     */
+    private long missingChunk;
+
+    private LocationException error = null;
+
+    /**
+     * whether a block that the search already read changed, the result is thrown away then
+     */
+    private volatile boolean aborted = false;
+
+    /**
+     * Discovers a pipe like {@link PipeManager#isPipe(org.bukkit.block.Block)} but off the main thread. The search runs on
+     * snapshots of the chunks, the parts and inventory holders of a chunk are looked up on the main thread when its snapshot
+     * is taken. When the search reaches a chunk without a snapshot it pauses, the snapshot is taken in the next tick and the
+     * search continues from where it stopped.
+     *
+     * @param manager the PipeManager
+     * @param world the world
+     * @param start the location of the input to start at
+     */
+    PipeDiscovery(PipeManager manager, World world, SimpleLocation start) {
+        this.manager = manager;
+        this.world = world;
+        this.worldIndex = start.getWorldIndex();
+        this.minHeight = world.getMinHeight();
+        this.maxHeight = world.getMaxHeight();
+        this.start = start;
+        queue.add(start.getBlockKey());
+    }
+
+    /**
+     * returns the location that the search started at
+     *
+     * @return the location of the input
+     */
+    SimpleLocation getStart() {
+        return start;
+    }
+
+    /**
+     * returns the exception that stopped the search
+     *
+     * @return the exception or <code>null</code> if the search finished
+     */
+    LocationException getError() {
+        return error;
+    }
+
+    /**
+     * returns whether or not the search was aborted
+     *
+     * @return <code>true</code> if it was aborted
+     */
+    boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Abort the search, it stops at the next block or when it would continue in a new chunk
+     */
+    void abort() {
+        aborted = true;
+    }
+
+    /**
+     * Check whether the search already took the snapshot of a chunk, has to be called on the main thread
+     *
+     * @param worldIndex the index of the world of the chunk
+     * @param chunkKey the key of the chunk
+     * @return <code>true</code> if changes in that chunk might not be seen by the search
+     */
+    boolean hasRead(int worldIndex, long chunkKey) {
+        return this.worldIndex == worldIndex && chunks.containsKey(chunkKey);
+    }
+
+    /**
+     * Start the search, has to be called on the main thread
+     */
+    void start() {
+        missingChunk = start.getChunkKey();
+        resume();
+    }
+
+    /**
+     * Take the snapshot of the missing chunk and continue the search asynchronously, has to be called on the main thread
+     */
+    private void resume() {
+        if (aborted) {
+            manager.finishDiscovery(this, null);
+            return;
+        }
+        int chunkX = (int) missingChunk;
+        int chunkZ = (int) (missingChunk >> 32);
+        if (!world.isChunkLoaded(chunkX, chunkZ) && chunkLoaders.isEmpty()) {
+            error = new ChunkNotLoadedException(new SimpleLocation(worldIndex, SimpleLocation.getBlockKey(chunkX << 4, 0, chunkZ << 4)));
+            manager.finishDiscovery(this, null);
+            return;
+        }
+        chunks.put(missingChunk, new ChunkData(world.getChunkAt(chunkX, chunkZ)));
+        Pipes.getInstance().getServer().getScheduler().runTaskAsynchronously(Pipes.getInstance(), this::run);
+    }
+
+    /**
+     * Run the search until it finishes or reaches a chunk without a snapshot
+     */
+    private void run() {
+        boolean finished;
+        try {
+            finished = search();
+        } catch (LocationException e) {
+            error = e;
+            finished = true;
+        }
+        boolean done = finished;
+        Pipes.getInstance().getServer().getScheduler().runTask(Pipes.getInstance(), () -> {
+            if (done) {
+                manager.finishDiscovery(this, error == null && !aborted ? createPipe() : null);
+            } else {
+                resume();
+            }
+        });
+    }
+
+    /**
+     * Continue the breadth first search. A block is only removed from the queue once it was handled completely,
+     * so that the search can pause at any lookup in a missing chunk and handle the block again when it continues.
+     *
+     * @return <code>true</code> if the search finished, <code>false</code> if it paused at a missing chunk
+     * @throws PipeTooLongException When the pipe is too long
+     * @throws TooManyOutputsException when the pipe has too many outputs
+     */
+    private boolean search() throws PipeTooLongException, TooManyOutputsException {
+        while (!queue.isEmpty() && !aborted) {
+            long key = queue.peek();
+            if (!found.contains(key)) {
+                Material material = getType(key);
+                if (material == null) {
+                    return false;
+                }
+                if (MaterialTags.STAINED_GLASS.isTagged(material)) {
+                    if (type == null) {
+                        type = material;
+                    }
+                    if (material == type) {
+                        if (PipesConfig.getMaxPipeLength() > 0 && pipeBlocks.size() >= PipesConfig.getMaxPipeLength()) {
+                            throw new PipeTooLongException(new SimpleLocation(worldIndex, key));
+                        }
+                        pipeBlocks.add(new SimpleLocation(worldIndex, key));
+                        found.add(key);
+                        for (BlockFace face : PipesUtil.BLOCK_FACES) {
+                            queue.add(SimpleLocation.getRelativeKey(key, face));
+                        }
+                    }
+                } else {
+                    AbstractPipePart pipesPart = chunks.get(getChunkKey(key)).parts.get(key);
+                    if (pipesPart != null && !handlePart(key, pipesPart)) {
+                        return false;
+                    }
+                }
+            }
+            queue.remove();
+        }
+        return true;
+    }
+
+    /**
+     * Handle a part that the search reached. All lookups are done before anything is changed.
+     *
+     * @return <code>false</code> if a lookup reached a missing chunk
+     */
+    private boolean handlePart(long key, AbstractPipePart pipesPart) throws TooManyOutputsException {
+        switch (pipesPart.getType()) {
+            case PIPE_INPUT:
+                PipeInput pipeInput = (PipeInput) pipesPart;
+                long targetKey = pipeInput.getTargetLocation().getBlockKey();
+                Material relative = getType(targetKey);
+                if (relative == null) {
+                    return false;
+                }
+                if (type == null && MaterialTags.STAINED_GLASS.isTagged(relative)) {
+                    type = relative;
+                }
+                if (relative == type) {
+                    inputs.put(pipeInput.getLocation(), pipeInput);
+                    found.add(key);
+                    queue.add(targetKey);
+                }
+                return true;
+            case PIPE_OUTPUT:
+                PipeOutput pipeOutput = (PipeOutput) pipesPart;
+                long next = 0;
+                boolean hasNext = false;
+                if (found.isEmpty()) {
+                    for (BlockFace face : PipesUtil.BLOCK_FACES) {
+                        if (face != pipeOutput.getFacing()) {
+                            long relativeKey = SimpleLocation.getRelativeKey(key, face);
+                            Material relativeType = getType(relativeKey);
+                            if (relativeType == null) {
+                                return false;
+                            }
+                            if (relativeType == type || (type == null & MaterialTags.STAINED_GLASS.isTagged(relativeType))) {
+                                next = relativeKey;
+                                hasNext = true;
+                                break;
+                            }
+                        }
+                    }
+                }
+                long outputTarget = pipeOutput.getTargetLocation().getBlockKey();
+                Material targetType = getType(outputTarget);
+                if (targetType == null) {
+                    return false;
+                }
+
+                if (PipesConfig.getMaxPipeOutputs() > 0 && outputs.size() >= PipesConfig.getMaxPipeOutputs()) {
+                    throw new TooManyOutputsException(pipeOutput.getLocation());
+                }
+                outputs.put(pipeOutput.getLocation(), pipeOutput);
+                if (hasNext) {
+                    queue.add(next);
+                }
+                found.add(key);
+                if (chunks.get(getChunkKey(outputTarget)).holders.contains(outputTarget) || targetType == Material.COMPOSTER) {
+                    found.add(outputTarget);
+                }
+                return true;
+            case CHUNK_LOADER:
+                chunkLoaders.put(pipesPart.getLocation(), (ChunkLoader) pipesPart);
+                found.add(key);
+                return true;
+        }
+        return true;
+    }
+
+    /**
+     * Get the type of a block from the snapshot of its chunk
+     *
+     * @param key the block key
+     * @return the type or <code>null</code> if there is no snapshot of its chunk yet
+     */
+    private Material getType(long key) {
+        ChunkData chunk = chunks.get(getChunkKey(key));
+        if (chunk == null) {
+            missingChunk = getChunkKey(key);
+            return null;
+        }
+        int y = SimpleLocation.getBlockKeyY(key);
+        if (y < minHeight || y >= maxHeight) {
+            return Material.VOID_AIR;
+        }
+        return chunk.snapshot.getBlockType(SimpleLocation.getBlockKeyX(key) & 15, y, SimpleLocation.getBlockKeyZ(key) & 15);
+    }
+
+    private static long getChunkKey(long blockKey) {
+        return SimpleLocation.getChunkKey(SimpleLocation.getBlockKeyX(blockKey) >> 4, SimpleLocation.getBlockKeyZ(blockKey) >> 4);
+    }
+
+    private Pipe createPipe() {
+        // Remove outputs that point in our own inputs
+        for (Iterator<PipeOutput> it = outputs.values().iterator(); it.hasNext();) {
+            PipeOutput pipeOutput = it.next();
+            if (inputs.containsKey(pipeOutput.getTargetLocation())) {
+                it.remove();
+            }
+        }
+
+        if ((outputs.size() > 0) && (inputs.size() > 0) && pipeBlocks.size() > 0) {
+            return new Pipe(inputs, outputs, chunkLoaders, pipeBlocks, type);
+        }
+        return null;
+    }
+
+    /**
+     * The snapshot of a chunk together with its parts and inventory holders, which can't be read from a snapshot
+     */
+    private class ChunkData {
+        private final ChunkSnapshot snapshot;
+        private final LongObjectMap<AbstractPipePart> parts = new LongObjectMap<>();
+        private final LongHashSet holders = new LongHashSet();
+
+        private ChunkData(Chunk chunk) {
+            this.snapshot = chunk.getChunkSnapshot(false, false, false);
+            for (BlockState state : chunk.getTileEntities(false)) {
+                long key = SimpleLocation.getBlockKey(state.getX(), state.getY(), state.getZ());
+                if (state instanceof InventoryHolder) {
+                    holders.add(key);
+                }
+                if (state.getType() == PipesItem.PIPE_INPUT.getMaterial()
+                        || state.getType() == PipesItem.PIPE_OUTPUT.getMaterial()
+                        || state.getType() == PipesItem.CHUNK_LOADER.getMaterial()) {
+                    AbstractPipePart part = manager.getPipePart(state);
+                    if (part != null) {
+                        parts.put(key, part);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package io.github.apfelcreme.Pipes.Manager;
+
+import io.github.apfelcreme.Pipes.Pipe.Pipe;
+import io.github.apfelcreme.Pipes.Pipe.PipeInput;
+import io.github.apfelcreme.Pipes.Pipe.PipeOutput;
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import io.github.apfelcreme.Pipes.Pipes;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+class PipeGraph {
+
+    private final PipeManager manager;
+
+    /**
+     * the cached pipes by the locations that their outputs move items into
+     */
+    private final Map<SimpleLocation, Set<Pipe>> pipesByTarget = new HashMap<>();
+
+    /**
+     * the output targets of every cached pipe at the time it was last updated
+     */
+    private final Map<Pipe, Set<SimpleLocation>> targetsByPipe = new IdentityHashMap<>();
+
+    /**
+     * the pipes that feed each other, every member of a loop maps to the same set
+     */
+    private final Map<Pipe, Set<Pipe>> loops = new IdentityHashMap<>();
+
+    /**
+     * Creates the graph of the pipes that feed into each other. A pipe feeds another pipe
+     * when one of its outputs moves items into the other pipe's input.
+     *
+     * @param manager the manager whose pipe cache maps input locations to their pipes
+     */
+    PipeGraph(PipeManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Update the edges of a cached pipe after it was added or its parts changed and check
+     * whether it is part of a loop now or isn't anymore
+     *
+     * @param pipe the pipe
+     */
+    void update(Pipe pipe) {
+        Set<SimpleLocation> targets = new HashSet<>();
+        for (PipeOutput output : pipe.getOutputs().values()) {
+            targets.add(output.getTargetLocation());
+        }
+        Set<SimpleLocation> previous = targetsByPipe.put(pipe, targets);
+        if (previous != null) {
+            for (SimpleLocation target : previous) {
+                if (!targets.contains(target)) {
+                    removeTarget(target, pipe);
+                }
+            }
+        }
+        for (SimpleLocation target : targets) {
+            if (previous == null || !previous.contains(target)) {
+                pipesByTarget.computeIfAbsent(target, t -> Collections.newSetFromMap(new IdentityHashMap<>())).add(pipe);
+            }
+        }
+        checkLoops(pipe);
+    }
+
+    /**
+     * Remove a pipe that got evicted, the other members of its loop are checked again
+     *
+     * @param pipe the pipe
+     */
+    void remove(Pipe pipe) {
+        Set<SimpleLocation> previous = targetsByPipe.remove(pipe);
+        if (previous != null) {
+            for (SimpleLocation target : previous) {
+                removeTarget(target, pipe);
+            }
+        }
+        Set<Pipe> loop = loops.remove(pipe);
+        pipe.setInLoop(false);
+        if (loop != null) {
+            Set<Pipe> remaining = Collections.newSetFromMap(new IdentityHashMap<>());
+            remaining.addAll(loop);
+            remaining.remove(pipe);
+            checkLoops(remaining);
+        }
+    }
+
+    private void removeTarget(SimpleLocation target, Pipe pipe) {
+        Set<Pipe> pipes = pipesByTarget.get(target);
+        if (pipes != null && pipes.remove(pipe) && pipes.isEmpty()) {
+            pipesByTarget.remove(target);
+        }
+    }
+
+    /**
+     * returns the amount of pipes that are part of a loop
+     *
+     * @return the amount of pipes
+     */
+    int getLoopedPipes() {
+        return loops.size();
+    }
+
+    private void checkLoops(Pipe pipe) {
+        Set<Pipe> candidates = Collections.newSetFromMap(new IdentityHashMap<>());
+        candidates.add(pipe);
+        Set<Pipe> previous = loops.get(pipe);
+        if (previous != null) {
+            // Removing an edge might have split the loop, so all previous members need to be checked
+            candidates.addAll(previous);
+        }
+        checkLoops(candidates);
+    }
+
+    /**
+     * Find the strongly connected components of some pipes and flag the ones that form loops.
+     * Every new loop has to go through a changed pipe, so only the components of those are computed.
+     *
+     * @param candidates the pipes whose edges or whose loop changed
+     */
+    private void checkLoops(Set<Pipe> candidates) {
+        Set<Pipe> checked = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Pipe candidate : candidates) {
+            if (checked.contains(candidate)) {
+                continue;
+            }
+            Set<Pipe> component = findComponent(candidate);
+            checked.addAll(component);
+            boolean isLoop = component.size() > 1 || getSuccessors(candidate).contains(candidate);
+            if (isLoop && !candidate.isInLoop() && !candidate.getInputs().isEmpty()) {
+                SimpleLocation input = candidate.getInputs().keySet().iterator().next();
+                Pipes.getInstance().getLogger().log(Level.WARNING, component.size() + " pipes feed each other in a loop, one of them has an input at "
+                        + input.getWorldName() + " " + input.getX() + "," + input.getY() + "," + input.getZ());
+            }
+            for (Pipe member : component) {
+                if (isLoop) {
+                    loops.put(member, component);
+                } else {
+                    loops.remove(member);
+                }
+                member.setInLoop(isLoop);
+            }
+        }
+    }
+
+    /**
+     * The strongly connected component of a pipe are the pipes that it can reach and that can reach it
+     *
+     * @param pipe the pipe
+     * @return the component, at least containing the pipe itself
+     */
+    private Set<Pipe> findComponent(Pipe pipe) {
+        Set<Pipe> reachable = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Pipe> queue = new ArrayDeque<>();
+        reachable.add(pipe);
+        queue.add(pipe);
+        while (!queue.isEmpty()) {
+            for (Pipe next : getSuccessors(queue.poll())) {
+                if (reachable.add(next)) {
+                    queue.add(next);
+                }
+            }
+        }
+
+        Set<Pipe> component = Collections.newSetFromMap(new IdentityHashMap<>());
+        component.add(pipe);
+        Set<Pipe> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        visited.add(pipe);
+        queue.add(pipe);
+        while (!queue.isEmpty()) {
+            for (Pipe previous : getPredecessors(queue.poll())) {
+                if (visited.add(previous)) {
+                    queue.add(previous);
+                    if (reachable.contains(previous)) {
+                        component.add(previous);
+                    }
+                }
+            }
+        }
+        return component;
+    }
+
+    private Set<Pipe> getSuccessors(Pipe pipe) {
+        Set<Pipe> successors = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (PipeOutput output : pipe.getOutputs().values()) {
+            Pipe target = manager.getPipeCache().asMap().get(output.getTargetLocation());
+            if (target != null) {
+                successors.add(target);
+            }
+        }
+        return successors;
+    }
+
+    private Set<Pipe> getPredecessors(Pipe pipe) {
+        Set<Pipe> predecessors = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (PipeInput input : pipe.getInputs().values()) {
+            predecessors.addAll(pipesByTarget.getOrDefault(input.getLocation(), Collections.emptySet()));
+        }
+        return predecessors;
+    }
+}
@@ -1,5 +1,7 @@
 package io.github.apfelcreme.Pipes.Manager;
 
+import co.aikar.timings.Timing;
+import co.aikar.timings.Timings;
 import com.destroystokyo.paper.MaterialTags;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
@@ -7,6 +9,7 @@ import com.google.common.cache.RemovalCause;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
 import io.github.apfelcreme.Pipes.Exception.ChunkNotLoadedException;
+import io.github.apfelcreme.Pipes.Exception.PipeDiscoveryPendingException;
 import io.github.apfelcreme.Pipes.Exception.PipeTooLongException;
 import io.github.apfelcreme.Pipes.Exception.TooManyOutputsException;
 import io.github.apfelcreme.Pipes.Pipe.AbstractPipePart;
@@ -15,9 +18,15 @@ import io.github.apfelcreme.Pipes.Pipe.Pipe;
 import io.github.apfelcreme.Pipes.Pipe.PipeInput;
 import io.github.apfelcreme.Pipes.Pipe.PipeOutput;
 import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import io.github.apfelcreme.Pipes.Pipes;
 import io.github.apfelcreme.Pipes.PipesConfig;
 import io.github.apfelcreme.Pipes.PipesItem;
 import io.github.apfelcreme.Pipes.PipesUtil;
+import io.github.apfelcreme.Pipes.Util.BlockMap;
+import io.github.apfelcreme.Pipes.Util.LongArrayQueue;
+import io.github.apfelcreme.Pipes.Util.LongHashSet;
+import io.github.apfelcreme.Pipes.Util.LongObjectMap;
+import org.bukkit.Chunk;
 import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.block.Block;
@@ -27,18 +36,22 @@ import org.bukkit.block.Container;
 import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.persistence.PersistentDataType;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
 
 /*
  * Copyright (C) 2016 Lord36 aka Apfelcreme
@@ -73,30 +86,64 @@ public class PipeManager {
     /**
      * a cache to stop endless pipe checks, this is for parts that can be attached to only one pipe (glass pipe blocks)
      */
-    private final Map<SimpleLocation, Pipe> singleCache;
+    private final BlockMap<Pipe> singleCache;
 
     /**
      * a cache to stop endless pipe checks, this is for parts that can be attached to multiple pipes (outputs and chunk loader)
      */
-    private final Map<SimpleLocation, Set<Pipe>> multiCache;
+    private final BlockMap<Set<Pipe>> multiCache;
 
     /**
      * A cache for pipe parts
      */
-    private final Map<SimpleLocation, AbstractPipePart> pipePartCache;
+    private final BlockMap<AbstractPipePart> pipePartCache;
+
+    /**
+     * the pipes that have blocks, inputs, outputs or output targets in a chunk by world index and chunk key
+     */
+    private final List<LongObjectMap<Set<Pipe>>> chunkIndex = new ArrayList<>();
+
+    /**
+     * all pipes that are currently cached
+     */
+    private final Set<Pipe> cachedPipes = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * the cached pipes that feed into each other
+     */
+    private final PipeGraph graph = new PipeGraph(this);
+
+    /**
+     * the keys of the chunks that got unloaded since the last eviction by world index
+     */
+    private final Map<Integer, Set<Long>> unloadedChunks = new HashMap<>();
+
+    /**
+     * the id of the task that evicts the pipes of unloaded chunks, -1 if none is scheduled
+     */
+    private int evictionTaskId = -1;
+
+    /**
+     * the asynchronous discoveries that are running by the location of the input they started at
+     */
+    private final Map<SimpleLocation, PipeDiscovery> discoveries = new HashMap<>();
+
+    private final Timing TIMINGS_DISCOVER;
 
     /**
      * constructor
      */
     private PipeManager() {
+        TIMINGS_DISCOVER = Timings.of(Pipes.getInstance(), "discover");
         pipeCache = CacheBuilder.newBuilder()
                 .maximumSize(PipesConfig.getPipeCacheSize())
                 .expireAfterWrite(PipesConfig.getPipeCacheDuration(), TimeUnit.SECONDS)
                 .removalListener(new PipeRemovalListener())
+                .recordStats()
                 .build();
-        singleCache = new HashMap<>();
-        multiCache = new HashMap<>();
-        pipePartCache = new HashMap<>();
+        singleCache = new BlockMap<>();
+        multiCache = new BlockMap<>();
+        pipePartCache = new BlockMap<>();
     }
 
     /**
@@ -113,7 +160,7 @@ public class PipeManager {
      *
      * @return the single cache
      */
-    public Map<SimpleLocation, Pipe> getSingleCache() {
+    public BlockMap<Pipe> getSingleCache() {
         return singleCache;
     }
 
@@ -122,19 +169,151 @@ public class PipeManager {
      *
      * @return the multi cache
      */
-    public Map<SimpleLocation, Set<Pipe>> getMultiCache() {
+    public BlockMap<Set<Pipe>> getMultiCache() {
         return multiCache;
     }
 
+    /**
+     * returns all pipes that are currently cached
+     *
+     * @return the cached pipes
+     */
+    public Set<Pipe> getCachedPipes() {
+        return Collections.unmodifiableSet(cachedPipes);
+    }
+
     /**
      * returns the cache for pipe parts
      *
      * @return the pipe part cache
      */
-    public Map<SimpleLocation, AbstractPipePart> getPipePartCache() {
+    public BlockMap<AbstractPipePart> getPipePartCache() {
         return pipePartCache;
     }
 
+    /**
+     * returns the pipes that have blocks, inputs, outputs or output targets in a chunk
+     *
+     * @param world the world
+     * @param chunkX the x coordinate of the chunk
+     * @param chunkZ the z coordinate of the chunk
+     * @return the pipes, an empty set if there are none
+     */
+    public Set<Pipe> getPipesInChunk(World world, int chunkX, int chunkZ) {
+        LongObjectMap<Set<Pipe>> chunks = getChunkIndex(SimpleLocation.getWorldIndex(world.getName()), false);
+        if (chunks == null) {
+            return Collections.emptySet();
+        }
+        Set<Pipe> pipes = chunks.get(SimpleLocation.getChunkKey(chunkX, chunkZ));
+        return pipes != null ? Collections.unmodifiableSet(pipes) : Collections.emptySet();
+    }
+
+    /**
+     * returns the pipes that have blocks, inputs, outputs or output targets in an area of chunks
+     *
+     * @param world the world
+     * @param minChunkX the smallest x coordinate of the chunks
+     * @param minChunkZ the smallest z coordinate of the chunks
+     * @param maxChunkX the biggest x coordinate of the chunks
+     * @param maxChunkZ the biggest z coordinate of the chunks
+     * @return the pipes, an empty set if there are none
+     */
+    public Set<Pipe> getPipesInArea(World world, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) {
+        LongObjectMap<Set<Pipe>> chunks = getChunkIndex(SimpleLocation.getWorldIndex(world.getName()), false);
+        if (chunks == null) {
+            return Collections.emptySet();
+        }
+        Set<Pipe> pipes = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                Set<Pipe> chunkPipes = chunks.get(SimpleLocation.getChunkKey(chunkX, chunkZ));
+                if (chunkPipes != null) {
+                    pipes.addAll(chunkPipes);
+                }
+            }
+        }
+        return pipes;
+    }
+
+    /**
+     * returns the amount of cached pipes that are part of a loop of pipes that feed each other
+     *
+     * @return the amount of pipes in loops
+     */
+    public int getLoopedPipes() {
+        return graph.getLoopedPipes();
+    }
+
+    /**
+     * returns the amount of chunks that have pipes in them
+     *
+     * @return the amount of indexed chunks
+     */
+    public int getIndexedChunks() {
+        int size = 0;
+        for (LongObjectMap<Set<Pipe>> chunks : chunkIndex) {
+            if (chunks != null) {
+                size += chunks.size();
+            }
+        }
+        return size;
+    }
+
+    private LongObjectMap<Set<Pipe>> getChunkIndex(int worldIndex, boolean create) {
+        while (create && chunkIndex.size() <= worldIndex) {
+            chunkIndex.add(null);
+        }
+        LongObjectMap<Set<Pipe>> chunks = worldIndex < chunkIndex.size() ? chunkIndex.get(worldIndex) : null;
+        if (chunks == null && create) {
+            chunks = new LongObjectMap<>();
+            chunkIndex.set(worldIndex, chunks);
+        }
+        return chunks;
+    }
+
+    private void indexChunk(Pipe pipe, long chunkKey) {
+        LongObjectMap<Set<Pipe>> chunks = getChunkIndex(pipe.getWorldIndex(), true);
+        Set<Pipe> pipes = chunks.get(chunkKey);
+        if (pipes == null) {
+            // Pipes are compared by their content which changes, so the index compares them by identity
+            pipes = Collections.newSetFromMap(new IdentityHashMap<>());
+            chunks.put(chunkKey, pipes);
+        }
+        pipes.add(pipe);
+    }
+
+    private void unindexChunk(Pipe pipe, long chunkKey) {
+        LongObjectMap<Set<Pipe>> chunks = getChunkIndex(pipe.getWorldIndex(), false);
+        Set<Pipe> pipes = chunks != null ? chunks.get(chunkKey) : null;
+        if (pipes != null && pipes.remove(pipe) && pipes.isEmpty()) {
+            chunks.remove(chunkKey);
+        }
+    }
+
+    /**
+     * Count a location for the chunks of a pipe and add the pipe to the chunk index if it's a new chunk
+     *
+     * @param pipe the pipe
+     * @param location the location of a block, input, output or output target of the pipe
+     */
+    private void addChunkLocation(Pipe pipe, SimpleLocation location) {
+        if (pipe.addChunkLocation(location)) {
+            indexChunk(pipe, location.getChunkKey());
+        }
+    }
+
+    /**
+     * Stop counting a location for the chunks of a pipe and remove the pipe from the chunk index if it was the last one
+     *
+     * @param pipe the pipe
+     * @param location the location of a block, input, output or output target of the pipe
+     */
+    private void removeChunkLocation(Pipe pipe, SimpleLocation location) {
+        if (pipe.removeChunkLocation(location)) {
+            unindexChunk(pipe, location.getChunkKey());
+        }
+    }
+
     /**
      * returns the PipeManager instance
      *
@@ -166,16 +345,146 @@ public class PipeManager {
                 return null;
             }
 
-            pipe = isPipe(block);
+            pipe = TopologyStore.getInstance().restore(location);
+            if (pipe == null) {
+                pipe = isPipe(block);
+            }
             if (pipe != null) {
                 addPipe(pipe);
             }
         } else {
             pipe.checkLoaded(location);
+            pipe.touch();
         }
         return pipe;
     }
 
+    /**
+     * Get the pipe by an input at a location like {@link #getPipeByInput(SimpleLocation)}. If async discovery is enabled
+     * and the pipe isn't known yet it is discovered off the main thread. Once it is found the transfer of the input
+     * gets queued again.
+     *
+     * @param location the location the input is at
+     * @return a Pipe or <code>null</code>
+     * @throws ChunkNotLoadedException When the pipe reaches into a chunk that is not loaded
+     * @throws PipeTooLongException When the pipe is too long
+     * @throws TooManyOutputsException when the pipe has too many outputs
+     * @throws PipeDiscoveryPendingException when the pipe is still being discovered
+     */
+    public Pipe getPipeByInputAsync(SimpleLocation location) throws ChunkNotLoadedException, TooManyOutputsException, PipeTooLongException, PipeDiscoveryPendingException {
+        if (!PipesConfig.isAsyncDiscoveryEnabled()) {
+            return getPipeByInput(location);
+        }
+        Pipe pipe = pipeCache.getIfPresent(location);
+        if (pipe != null) {
+            pipe.checkLoaded(location);
+            pipe.touch();
+            return pipe;
+        }
+        if (discoveries.containsKey(location)) {
+            throw new PipeDiscoveryPendingException(location);
+        }
+
+        Block block = location.getBlock();
+        if (PipesUtil.getPipesItem(block) != PipesItem.PIPE_INPUT) {
+            return null;
+        }
+        pipe = TopologyStore.getInstance().restore(location);
+        if (pipe != null) {
+            addPipe(pipe);
+            return pipe;
+        }
+        PipeDiscovery discovery = new PipeDiscovery(this, block.getWorld(), location);
+        discoveries.put(location, discovery);
+        discovery.start();
+        throw new PipeDiscoveryPendingException(location);
+    }
+
+    /**
+     * Publish the result of an asynchronous discovery, has to be called on the main thread
+     *
+     * @param discovery the discovery
+     * @param pipe the pipe that was found or <code>null</code> if none was found or an error occurred
+     */
+    void finishDiscovery(PipeDiscovery discovery, Pipe pipe) {
+        SimpleLocation input = discovery.getStart();
+        if (discovery.isAborted()) {
+            // A new discovery was already started in its place
+            return;
+        }
+        discoveries.remove(input, discovery);
+        if (discovery.getError() == null && pipe == null) {
+            // Not an input of a pipe, nothing to transfer
+            ItemMoveScheduler.getInstance().complete(input);
+            return;
+        }
+        if (pipe != null && pipeCache.getIfPresent(input) == null) {
+            if (!evictOverlappingPipes(pipe)) {
+                // The blocks belong to a cached pipe that doesn't know this input, it joins once that pipe is discovered again
+                ItemMoveScheduler.getInstance().complete(input);
+                return;
+            }
+            addPipe(pipe);
+        }
+        // Failed discoveries are retried in the next cycle just like synchronous ones
+        ItemMoveScheduler.getInstance().add(input);
+    }
+
+    /**
+     * Check whether a pipe that was discovered asynchronously claims blocks or inputs of cached pipes.
+     * Outputs and chunk loaders aren't checked as they can belong to several pipes. Cached pipes that
+     * don't have any inputs anymore are stale and get evicted so that they don't keep their blocks.
+     *
+     * @param pipe the discovered pipe
+     * @return <code>true</code> if none of its blocks or inputs belongs to a cached pipe anymore
+     */
+    private boolean evictOverlappingPipes(Pipe pipe) {
+        Set<Pipe> overlapping = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (SimpleLocation location : pipe.getPipeBlocks()) {
+            Pipe cached = singleCache.get(location);
+            if (cached != null) {
+                overlapping.add(cached);
+            }
+        }
+        for (SimpleLocation location : pipe.getInputs().keySet()) {
+            Pipe cached = pipeCache.getIfPresent(location);
+            if (cached != null) {
+                overlapping.add(cached);
+            }
+        }
+        for (Pipe cached : overlapping) {
+            if (!cached.getInputs().isEmpty()) {
+                return false;
+            }
+        }
+        for (Pipe cached : overlapping) {
+            evictPipe(cached);
+        }
+        return true;
+    }
+
+    /**
+     * Abort the asynchronous discoveries that already read the chunk of a block, has to be called when a pipe
+     * block or part changes. The transfers of their inputs get queued again so that they start a new discovery.
+     *
+     * @param block the block that changed
+     */
+    public void abortDiscoveries(Block block) {
+        if (discoveries.isEmpty()) {
+            return;
+        }
+        int worldIndex = SimpleLocation.getWorldIndex(block.getWorld().getName());
+        long chunkKey = SimpleLocation.getChunkKey(block.getX() >> 4, block.getZ() >> 4);
+        for (Iterator<PipeDiscovery> it = discoveries.values().iterator(); it.hasNext();) {
+            PipeDiscovery discovery = it.next();
+            if (discovery.hasRead(worldIndex, chunkKey)) {
+                discovery.abort();
+                it.remove();
+                ItemMoveScheduler.getInstance().add(discovery.getStart());
+            }
+        }
+    }
+
     /**
      * Get the pipe that is at that location, returns an empty set instead of throwing an exception
      *
@@ -198,8 +507,10 @@ public class PipeManager {
             Pipe pipe = pipeCache.getIfPresent(location);
             if (pipe == null) {
                 pipe = singleCache.get(location);
+                MetricsManager.getInstance().getSingleCache().record(pipe != null);
             }
             if (pipe != null) {
+                pipe.touch();
                 return Collections.singleton(pipe);
             }
             return multiCache.getOrDefault(location, Collections.emptySet());
@@ -267,9 +578,13 @@ public class PipeManager {
         if (block == null) {
             return Collections.emptySet();
         }
-        Set<Pipe> pipes = getPipesSafe(new SimpleLocation(block.getLocation()), true);
+        SimpleLocation location = new SimpleLocation(block.getLocation());
+        Set<Pipe> pipes = getPipesSafe(location, true);
         if (pipes.isEmpty() && !cacheOnly) {
-            Pipe pipe = isPipe(block);
+            Pipe pipe = TopologyStore.getInstance().restore(location);
+            if (pipe == null) {
+                pipe = isPipe(block);
+            }
             if (pipe != null) {
                 addPipe(pipe);
                 return Collections.singleton(pipe);
@@ -286,7 +601,10 @@ public class PipeManager {
         for (Iterator<PipeInput> i = pipe.getInputs().values().iterator(); i.hasNext();) {
             PipeInput input = i.next();
             i.remove();
+            removeChunkLocation(pipe, input.getLocation());
             pipeCache.invalidate(input.getLocation());
+            MetricsManager.getInstance().removeInput(input.getLocation());
+            ItemMoveScheduler.getInstance().releaseRateLimits(input.getLocation());
         }
     }
 
@@ -294,10 +612,15 @@ public class PipeManager {
      * Add all the pipes locations to the cache
      * @param pipe The pipe
      */
-    private void addPipe(Pipe pipe) {
+    void addPipe(Pipe pipe) {
         if (pipe == null) {
             return;
         }
+        pipe.touch();
+        cachedPipes.add(pipe);
+        for (long chunkKey : pipe.getChunkKeys()) {
+            indexChunk(pipe, chunkKey);
+        }
         for (PipeInput input : pipe.getInputs().values()) {
             pipeCache.put(input.getLocation(), pipe);
             pipePartCache.put(input.getLocation(), input);
@@ -316,6 +639,102 @@ public class PipeManager {
             addToMultiCache(chunkLoader.getLocation(), pipe);
             pipePartCache.put(chunkLoader.getLocation(), chunkLoader);
         }
+        graph.update(pipe);
+        enforceMaxBlocks(pipe);
+    }
+
+    /**
+     * Evict the least recently used pipes when more pipe blocks than configured are cached
+     *
+     * @param keep the pipe that shouldn't be evicted
+     */
+    private void enforceMaxBlocks(Pipe keep) {
+        int maxBlocks = PipesConfig.getPipeCacheMaxBlocks();
+        if (maxBlocks <= 0 || singleCache.size() <= maxBlocks) {
+            return;
+        }
+        // Evict a bit more than needed so that this doesn't run for every new pipe
+        int target = maxBlocks - maxBlocks / 10;
+        List<Pipe> leastRecentlyUsed = new ArrayList<>(cachedPipes);
+        leastRecentlyUsed.sort(Comparator.comparingInt(Pipe::getLastUsed));
+        int size = singleCache.size();
+        for (Pipe pipe : leastRecentlyUsed) {
+            if (size <= target) {
+                break;
+            }
+            if (pipe != keep) {
+                size -= pipe.getPipeBlocks().size();
+                TopologyStore.getInstance().store(pipe);
+                evictPipe(pipe);
+            }
+        }
+    }
+
+    /**
+     * Remember that a chunk got unloaded. All pipes that only have locations in unloaded chunks get evicted
+     * from the caches in the next tick, so that chunks which unload together are handled at once.
+     * Cached parts in the chunk that don't belong to a cached pipe get removed directly.
+     *
+     * @param chunk the chunk that gets unloaded
+     */
+    public void unloadChunk(Chunk chunk) {
+        int worldIndex = SimpleLocation.getWorldIndex(chunk.getWorld().getName());
+        for (BlockState state : chunk.getTileEntities(false)) {
+            SimpleLocation location = new SimpleLocation(worldIndex, SimpleLocation.getBlockKey(state.getX(), state.getY(), state.getZ()));
+            AbstractPipePart part = pipePartCache.get(location);
+            if (part != null && !multiCache.containsKey(location) && !pipeCache.asMap().containsKey(location)) {
+                pipePartCache.remove(location, part);
+            }
+        }
+
+        LongObjectMap<Set<Pipe>> chunks = getChunkIndex(worldIndex, false);
+        if (chunks == null || !chunks.containsKey(chunk.getChunkKey())) {
+            return;
+        }
+        for (Pipe pipe : chunks.get(chunk.getChunkKey())) {
+            // The blocks next to the pipe can't be read anymore once it gets stored
+            TopologyStore.getInstance().recordNeighbours(pipe, chunk);
+        }
+        unloadedChunks.computeIfAbsent(worldIndex, w -> new HashSet<>()).add(chunk.getChunkKey());
+        if (evictionTaskId == -1) {
+            evictionTaskId = Pipes.getInstance().getServer().getScheduler().runTask(Pipes.getInstance(), () -> {
+                evictionTaskId = -1;
+                evictUnloaded();
+            }).getTaskId();
+        }
+    }
+
+    /**
+     * Evict all pipes in the unloaded chunks that don't have any location in a loaded chunk anymore
+     */
+    private void evictUnloaded() {
+        for (Map.Entry<Integer, Set<Long>> entry : unloadedChunks.entrySet()) {
+            LongObjectMap<Set<Pipe>> chunks = getChunkIndex(entry.getKey(), false);
+            World world = Pipes.getInstance().getServer().getWorld(SimpleLocation.getWorldName(entry.getKey()));
+            if (chunks == null) {
+                continue;
+            }
+            Set<Pipe> candidates = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (long chunkKey : entry.getValue()) {
+                candidates.addAll(chunks.getOrDefault(chunkKey, Collections.emptySet()));
+            }
+            for (Pipe pipe : candidates) {
+                if (world == null || !isLoaded(world, pipe)) {
+                    TopologyStore.getInstance().store(pipe);
+                    evictPipe(pipe);
+                }
+            }
+        }
+        unloadedChunks.clear();
+    }
+
+    private static boolean isLoaded(World world, Pipe pipe) {
+        for (long chunkKey : pipe.getChunkKeys()) {
+            if (world.isChunkLoaded((int) chunkKey, (int) (chunkKey >> 32))) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -327,7 +746,9 @@ public class PipeManager {
      */
     public void addPart(Pipe pipe, AbstractPipePart pipePart) throws TooManyOutputsException {
         if (pipePart instanceof PipeInput) {
-            pipe.getInputs().put(pipePart.getLocation(), (PipeInput) pipePart);
+            if (pipe.getInputs().put(pipePart.getLocation(), (PipeInput) pipePart) == null) {
+                addChunkLocation(pipe, pipePart.getLocation());
+            }
             for (PipeInput input : pipe.getInputs().values()) {
                 pipeCache.put(input.getLocation(), pipe);
             }
@@ -336,13 +757,23 @@ public class PipeManager {
                 removePipe(pipe);
                 throw new TooManyOutputsException(pipePart.getLocation());
             }
-            pipe.getOutputs().put(pipePart.getLocation(), (PipeOutput) pipePart);
+            PipeOutput previous = pipe.getOutputs().put(pipePart.getLocation(), (PipeOutput) pipePart);
+            if (previous != null) {
+                removeChunkLocation(pipe, previous.getLocation());
+                removeChunkLocation(pipe, previous.getTargetLocation());
+            }
+            addChunkLocation(pipe, pipePart.getLocation());
+            addChunkLocation(pipe, ((PipeOutput) pipePart).getTargetLocation());
+            pipe.invalidateRoutes();
             addToMultiCache(pipePart.getLocation(), pipe);
         } else if (pipePart instanceof ChunkLoader) {
             pipe.getChunkLoaders().put(pipePart.getLocation(), (ChunkLoader) pipePart);
             addToMultiCache(pipePart.getLocation(), pipe);
         }
         pipePartCache.put(pipePart.getLocation(), pipePart);
+        if (!(pipePart instanceof ChunkLoader) && cachedPipes.contains(pipe)) {
+            graph.update(pipe);
+        }
     }
 
     /**
@@ -353,10 +784,19 @@ public class PipeManager {
      */
     public void removePart(Pipe pipe, AbstractPipePart pipePart) {
         if (pipePart instanceof PipeInput) {
-            pipe.getInputs().remove(pipePart.getLocation());
+            if (pipe.getInputs().remove(pipePart.getLocation()) != null) {
+                removeChunkLocation(pipe, pipePart.getLocation());
+            }
             pipeCache.invalidate(pipePart.getLocation());
+            MetricsManager.getInstance().removeInput(pipePart.getLocation());
+            ItemMoveScheduler.getInstance().removeRateLimits(pipePart.getLocation());
         } else if (pipePart instanceof PipeOutput) {
-            pipe.getOutputs().remove(pipePart.getLocation());
+            PipeOutput removed = pipe.getOutputs().remove(pipePart.getLocation());
+            if (removed != null) {
+                removeChunkLocation(pipe, removed.getLocation());
+                removeChunkLocation(pipe, removed.getTargetLocation());
+            }
+            pipe.invalidateRoutes();
             if (pipe.getOutputs().isEmpty()) {
                 removePipe(pipe);
             } else {
@@ -367,39 +807,396 @@ public class PipeManager {
             removeFromMultiCache(pipePart.getLocation(), pipe);
         }
         pipePartCache.remove(pipePart.getLocation(), pipePart);
+        if (!(pipePart instanceof ChunkLoader) && cachedPipes.contains(pipe)) {
+            graph.update(pipe);
+        }
     }
 
     private void addToMultiCache(SimpleLocation location, Pipe pipe) {
-        multiCache.putIfAbsent(location, Collections.newSetFromMap(new WeakHashMap<>()));
-        multiCache.get(location).add(pipe);
+        Set<Pipe> pipes = multiCache.get(location);
+        if (pipes == null) {
+            pipes = Collections.newSetFromMap(new WeakHashMap<>());
+            multiCache.put(location, pipes);
+        }
+        pipes.add(pipe);
     }
 
     private void removeFromMultiCache(SimpleLocation location, Pipe pipe) {
         Collection<Pipe> pipes = multiCache.get(location);
-        if (pipes != null) {
-            if (pipes.size() == 1) {
-                multiCache.remove(location);
-            } else {
-                pipes.remove(pipe);
-            }
+        if (pipes != null && pipes.remove(pipe) && pipes.isEmpty()) {
+            multiCache.remove(location);
         }
     }
 
     /**
-     * Add a block to a pipe while checking settings and caching the location
+     * Add a block to a pipe while checking settings and caching the location.
+     * Parts next to the block that point into it get attached to the pipe too.
      *
      * @param pipe the pipe to add to
      * @param block the block to add
      * @throws PipeTooLongException When the pipe is too long
+     * @throws TooManyOutputsException when the pipe has too many outputs
      */
-    public void addBlock(Pipe pipe, Block block) throws PipeTooLongException {
+    public void addBlock(Pipe pipe, Block block) throws PipeTooLongException, TooManyOutputsException {
         SimpleLocation location = new SimpleLocation(block.getLocation());
         if (PipesConfig.getMaxPipeLength() > 0 && pipe.getPipeBlocks().size() >= PipesConfig.getMaxPipeLength()) {
             removePipe(pipe);
             throw new PipeTooLongException(location);
         }
-        pipe.getPipeBlocks().add(location);
+        if (pipe.getPipeBlocks().add(location)) {
+            addChunkLocation(pipe, location);
+        }
         singleCache.put(location, pipe);
+
+        for (BlockFace face : PipesUtil.BLOCK_FACES) {
+            AbstractPipePart part = getPipePart(block.getRelative(face));
+            if (part == null) {
+                continue;
+            }
+            if (part instanceof PipeInput) {
+                if (location.equals(((PipeInput) part).getTargetLocation()) && !pipe.getInputs().containsKey(part.getLocation())) {
+                    addPart(pipe, part);
+                }
+            } else if (part instanceof PipeOutput) {
+                if (!location.equals(((PipeOutput) part).getTargetLocation())
+                        && !pipe.getOutputs().containsKey(part.getLocation())
+                        && !pipe.getInputs().containsKey(((PipeOutput) part).getTargetLocation())) {
+                    addPart(pipe, part);
+                }
+            } else if (part instanceof ChunkLoader) {
+                if (!pipe.getChunkLoaders().containsKey(part.getLocation())) {
+                    addPart(pipe, part);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a newly placed or moved glass block to the pipes next to it. Merges the pipes if it connects multiple ones.
+     *
+     * @param block the glass block
+     * @return the pipe that the block was added to or <code>null</code> if it wasn't next to any pipe of its type
+     * @throws PipeTooLongException When the pipe is too long
+     * @throws TooManyOutputsException when the pipe has too many outputs
+     */
+    public Pipe addGlassBlock(Block block) throws PipeTooLongException, TooManyOutputsException {
+        Material placedType = block.getType();
+
+        Set<Pipe> found = new LinkedHashSet<>();
+        for (BlockFace face : PipesUtil.BLOCK_FACES) {
+            Block relative = block.getRelative(face);
+            if (relative.getType() == placedType) {
+                for (Pipe pipe : getPipesSafe(relative, true)) {
+                    if (pipe.getType() == placedType) {
+                        found.add(pipe);
+                    }
+                }
+            }
+        }
+
+        Pipe pipe = null;
+        if (found.size() == 1) {
+            pipe = found.iterator().next();
+        } else if (found.size() > 1) {
+            pipe = mergePipes(found);
+        }
+        if (pipe != null) {
+            addBlock(pipe, block);
+        }
+        return pipe;
+    }
+
+    /**
+     * Remove a glass block from a pipe. Only the part of the pipe around the removed block is searched
+     * to check whether or not the pipe got split up, the pipe doesn't have to be discovered again.
+     *
+     * @param pipe the pipe to remove from
+     * @param location the location of the removed block
+     */
+    public void removeBlock(Pipe pipe, SimpleLocation location) {
+        if (!pipe.getPipeBlocks().remove(location)) {
+            return;
+        }
+        removeChunkLocation(pipe, location);
+        singleCache.remove(location, pipe);
+
+        int worldIndex = location.getWorldIndex();
+        LongObjectMap<Pipe> blocks = singleCache.getWorldMap(worldIndex);
+        List<long[]> splitOff = blocks != null ? findSplitComponents(pipe, blocks, location.getBlockKey()) : Collections.emptyList();
+
+        List<Pipe> newPipes = new ArrayList<>();
+        for (long[] component : splitOff) {
+            Pipe newPipe = splitOff(pipe, blocks, worldIndex, component);
+            if (newPipe != null) {
+                newPipes.add(newPipe);
+            }
+        }
+
+        // Detach parts that were only connected to the removed block or to blocks that were split off
+        pruneParts(pipe, blocks, worldIndex);
+        if (!pipe.getInputs().isEmpty() && (pipe.getOutputs().isEmpty() || pipe.getPipeBlocks().isEmpty())) {
+            removePipe(pipe);
+        }
+
+        for (Pipe newPipe : newPipes) {
+            addPipe(newPipe);
+        }
+    }
+
+    /**
+     * Search the pipe blocks around a removed block for components that aren't connected anymore. Runs one search
+     * from every neighbour of the removed block in lockstep and stops once at most one search is still running,
+     * so the work is proportional to the size of the split off components and not to the size of the whole pipe.
+     *
+     * @param pipe the pipe that the block was removed from
+     * @param blocks the single cache of the world
+     * @param removed the block key of the removed block
+     * @return the block keys of each component that got split off, the biggest one stays with the pipe
+     */
+    private List<long[]> findSplitComponents(Pipe pipe, LongObjectMap<Pipe> blocks, long removed) {
+        long[] starts = new long[PipesUtil.BLOCK_FACES.length];
+        int searches = 0;
+        for (BlockFace face : PipesUtil.BLOCK_FACES) {
+            long neighbour = SimpleLocation.getRelativeKey(removed, face);
+            if (blocks.get(neighbour) == pipe) {
+                starts[searches++] = neighbour;
+            }
+        }
+        if (searches < 2) {
+            return Collections.emptyList();
+        }
+
+        // There are at most six searches so the groups fit into the bits of an int
+        int[] parent = new int[searches];
+        LongArrayQueue[] queues = new LongArrayQueue[searches];
+        LongArrayQueue[] found = new LongArrayQueue[searches];
+        LongHashSet[] visited = new LongHashSet[searches];
+        for (int i = 0; i < searches; i++) {
+            parent[i] = i;
+            queues[i] = new LongArrayQueue();
+            queues[i].add(starts[i]);
+            found[i] = new LongArrayQueue();
+            found[i].add(starts[i]);
+            visited[i] = new LongHashSet();
+            visited[i].add(starts[i]);
+        }
+
+        while (true) {
+            // A group of searches that met is running as long as one of its searches still has blocks queued
+            int groups = 0;
+            int running = 0;
+            for (int i = 0; i < searches; i++) {
+                int root = find(parent, i);
+                groups |= 1 << root;
+                if (!queues[i].isEmpty()) {
+                    running |= 1 << root;
+                }
+            }
+            if (Integer.bitCount(groups) == 1) {
+                // Everything is still connected
+                return Collections.emptyList();
+            }
+            if (Integer.bitCount(running) <= 1) {
+                break;
+            }
+
+            for (int i = 0; i < searches; i++) {
+                if (queues[i].isEmpty()) {
+                    continue;
+                }
+                long key = queues[i].remove();
+                for (BlockFace face : PipesUtil.BLOCK_FACES) {
+                    long next = SimpleLocation.getRelativeKey(key, face);
+                    if (blocks.get(next) != pipe) {
+                        continue;
+                    }
+                    int nextOwner = getOwner(visited, next);
+                    if (nextOwner == -1) {
+                        visited[i].add(next);
+                        found[i].add(next);
+                        queues[i].add(next);
+                    } else {
+                        int a = find(parent, i);
+                        int b = find(parent, nextOwner);
+                        if (a != b) {
+                            parent[Math.max(a, b)] = Math.min(a, b);
+                        }
+                    }
+                }
+            }
+        }
+
+        // The components by the search that is the root of their group
+        LongArrayQueue[] components = new LongArrayQueue[searches];
+        int remaining = -1;
+        for (int i = 0; i < searches; i++) {
+            int root = find(parent, i);
+            if (components[root] == null) {
+                components[root] = new LongArrayQueue(found[i].size());
+            }
+            while (!found[i].isEmpty()) {
+                components[root].add(found[i].remove());
+            }
+            if (!queues[i].isEmpty()) {
+                remaining = root;
+            }
+        }
+        if (remaining == -1) {
+            // All searches finished, keep the biggest component in the original pipe
+            int biggest = 0;
+            for (int root = 0; root < searches; root++) {
+                if (components[root] != null && components[root].size() > biggest) {
+                    biggest = components[root].size();
+                    remaining = root;
+                }
+            }
+        }
+
+        List<long[]> splitOff = new ArrayList<>();
+        for (int root = 0; root < searches; root++) {
+            if (components[root] != null && root != remaining) {
+                LongArrayQueue queue = components[root];
+                long[] keys = new long[queue.size()];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = queue.remove();
+                }
+                splitOff.add(keys);
+            }
+        }
+        return splitOff;
+    }
+
+    /**
+     * returns the search that already found a block
+     *
+     * @param visited the blocks that each search found
+     * @param key the block key
+     * @return the index of the search or -1 if no search found the block yet
+     */
+    private static int getOwner(LongHashSet[] visited, long key) {
+        for (int i = 0; i < visited.length; i++) {
+            if (visited[i].contains(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Move a component of blocks out of a pipe into a new pipe together with the parts that are connected to it
+     *
+     * @param pipe the pipe that the component gets removed from
+     * @param blocks the single cache of the world
+     * @param worldIndex the index of the world
+     * @param component the block keys of the component
+     * @return the new pipe or <code>null</code> if the component isn't a valid pipe on its own
+     */
+    private Pipe splitOff(Pipe pipe, LongObjectMap<Pipe> blocks, int worldIndex, long[] component) {
+        LongHashSet keys = new LongHashSet(component.length);
+        LinkedHashSet<SimpleLocation> pipeBlocks = new LinkedHashSet<>();
+        for (long key : component) {
+            SimpleLocation location = new SimpleLocation(worldIndex, key);
+            keys.add(key);
+            pipeBlocks.add(location);
+            if (pipe.getPipeBlocks().remove(location)) {
+                removeChunkLocation(pipe, location);
+            }
+            blocks.remove(key, pipe);
+        }
+
+        LinkedHashMap<SimpleLocation, PipeInput> inputs = new LinkedHashMap<>();
+        for (PipeInput input : pipe.getInputs().values()) {
+            SimpleLocation target = input.getTargetLocation();
+            if (target.getWorldIndex() == worldIndex && keys.contains(target.getBlockKey())) {
+                inputs.put(input.getLocation(), input);
+            }
+        }
+        LinkedHashMap<SimpleLocation, PipeOutput> outputs = new LinkedHashMap<>();
+        for (PipeOutput output : pipe.getOutputs().values()) {
+            if (isAttached(output, keys::contains)) {
+                outputs.put(output.getLocation(), output);
+            }
+        }
+        LinkedHashMap<SimpleLocation, ChunkLoader> chunkLoaders = new LinkedHashMap<>();
+        for (ChunkLoader chunkLoader : pipe.getChunkLoaders().values()) {
+            if (isAttached(chunkLoader, keys::contains)) {
+                chunkLoaders.put(chunkLoader.getLocation(), chunkLoader);
+            }
+        }
+
+        if (inputs.isEmpty() || outputs.isEmpty()) {
+            return null;
+        }
+        return new Pipe(inputs, outputs, chunkLoaders, pipeBlocks, pipe.getType());
+    }
+
+    /**
+     * Remove all parts from a pipe that aren't connected to one of its blocks anymore
+     *
+     * @param pipe the pipe
+     * @param blocks the single cache of the world
+     * @param worldIndex the index of the world
+     */
+    private void pruneParts(Pipe pipe, LongObjectMap<Pipe> blocks, int worldIndex) {
+        LongPredicate isPipeBlock = key -> blocks != null && blocks.get(key) == pipe;
+        for (Iterator<PipeInput> it = pipe.getInputs().values().iterator(); it.hasNext();) {
+            PipeInput input = it.next();
+            SimpleLocation target = input.getTargetLocation();
+            if (target.getWorldIndex() != worldIndex || !isPipeBlock.test(target.getBlockKey())) {
+                it.remove();
+                removeChunkLocation(pipe, input.getLocation());
+                pipeCache.invalidate(input.getLocation());
+                MetricsManager.getInstance().removeInput(input.getLocation());
+                ItemMoveScheduler.getInstance().releaseRateLimits(input.getLocation());
+            }
+        }
+        for (Iterator<PipeOutput> it = pipe.getOutputs().values().iterator(); it.hasNext();) {
+            PipeOutput output = it.next();
+            if (!isAttached(output, isPipeBlock)) {
+                it.remove();
+                removeChunkLocation(pipe, output.getLocation());
+                removeChunkLocation(pipe, output.getTargetLocation());
+                removeFromMultiCache(output.getLocation(), pipe);
+            }
+        }
+        for (Iterator<ChunkLoader> it = pipe.getChunkLoaders().values().iterator(); it.hasNext();) {
+            ChunkLoader chunkLoader = it.next();
+            if (!isAttached(chunkLoader, isPipeBlock)) {
+                it.remove();
+                removeFromMultiCache(chunkLoader.getLocation(), pipe);
+            }
+        }
+        pipe.invalidateRoutes();
+        if (cachedPipes.contains(pipe)) {
+            graph.update(pipe);
+        }
+    }
+
+    /**
+     * Check whether or not an output or chunk loader is connected to one of the given blocks
+     *
+     * @param part the part
+     * @param isPipeBlock checks whether or not a block key belongs to the pipe
+     * @return <code>true</code> if one of the blocks that the part connects to is a pipe block
+     */
+    private boolean isAttached(AbstractPipePart part, LongPredicate isPipeBlock) {
+        long key = part.getLocation().getBlockKey();
+        for (BlockFace face : PipesUtil.BLOCK_FACES) {
+            if (part instanceof PipeOutput && face == ((PipeOutput) part).getFacing()) {
+                continue;
+            }
+            if (isPipeBlock.test(SimpleLocation.getRelativeKey(key, face))) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -425,13 +1222,16 @@ public class PipeManager {
         LinkedHashMap<SimpleLocation, ChunkLoader> chunkLoaders = new LinkedHashMap<>();
         LinkedHashSet<SimpleLocation> blocks = new LinkedHashSet<>();
 
-        pipes.forEach(pipe -> {
-            removePipe(pipe);
+        for (Pipe pipe : pipes) {
             inputs.putAll(pipe.getInputs());
             outputs.putAll(pipe.getOutputs());
             chunkLoaders.putAll(pipe.getChunkLoaders());
             blocks.addAll(pipe.getPipeBlocks());
-        });
+        }
+        // Only evict the old pipes once everything was collected, removing them empties their inputs
+        for (Pipe pipe : pipes) {
+            evictPipe(pipe);
+        }
 
         if (PipesConfig.getMaxPipeLength() > 0 &&blocks.size() >= PipesConfig.getMaxPipeLength()) {
             throw new PipeTooLongException(blocks.iterator().next());
@@ -457,9 +1257,15 @@ public class PipeManager {
      * @throws TooManyOutputsException when the pipe has too many outputs
      */
     public Pipe isPipe(Block startingPoint) throws ChunkNotLoadedException, TooManyOutputsException, PipeTooLongException {
+        try (Timing t = TIMINGS_DISCOVER.startTiming()) {
+            return discoverPipe(startingPoint);
+        }
+    }
 
-        Queue<SimpleLocation> queue = new LinkedList<>();
-        Set<SimpleLocation> found = new LinkedHashSet<>();
+    private Pipe discoverPipe(Block startingPoint) throws ChunkNotLoadedException, TooManyOutputsException, PipeTooLongException {
+        // The search only stays in one world so it can work on the packed block keys alone
+        LongArrayQueue queue = new LongArrayQueue();
+        LongHashSet found = new LongHashSet();
 
         LinkedHashMap<SimpleLocation, PipeInput> inputs = new LinkedHashMap<>();
         LinkedHashMap<SimpleLocation, PipeOutput> outputs = new LinkedHashMap<>();
@@ -469,33 +1275,36 @@ public class PipeManager {
         Material type = null;
 
         World world = startingPoint.getWorld();
+        int worldIndex = SimpleLocation.getWorldIndex(world.getName());
 
-        queue.add(new SimpleLocation(
-                startingPoint.getWorld().getName(),
+        queue.add(SimpleLocation.getBlockKey(
                 startingPoint.getX(),
                 startingPoint.getY(),
                 startingPoint.getZ()));
 
         while (!queue.isEmpty()) {
-            SimpleLocation location = queue.remove();
-            if (!found.contains(location)) {
-                if (!world.isChunkLoaded(location.getX() >> 4, location.getZ() >> 4)
+            long key = queue.remove();
+            if (!found.contains(key)) {
+                int x = SimpleLocation.getBlockKeyX(key);
+                int y = SimpleLocation.getBlockKeyY(key);
+                int z = SimpleLocation.getBlockKeyZ(key);
+                if (!world.isChunkLoaded(x >> 4, z >> 4)
                         && (chunkLoaders.size() == 0)) {
-                    throw new ChunkNotLoadedException(location);
+                    throw new ChunkNotLoadedException(new SimpleLocation(worldIndex, key));
                 }
-                Block block = world.getBlockAt(location.getX(), location.getY(), location.getZ());
+                Block block = world.getBlockAt(x, y, z);
                 if (MaterialTags.STAINED_GLASS.isTagged(block)) {
                     if (type == null) {
                         type = block.getType();
                     }
                     if (block.getType() == type) {
                         if (PipesConfig.getMaxPipeLength() > 0 && pipeBlocks.size() >= PipesConfig.getMaxPipeLength()) {
-                            throw new PipeTooLongException(location);
+                            throw new PipeTooLongException(new SimpleLocation(worldIndex, key));
                         }
-                        pipeBlocks.add(location);
-                        found.add(location);
+                        pipeBlocks.add(new SimpleLocation(worldIndex, key));
+                        found.add(key);
                         for (BlockFace face : PipesUtil.BLOCK_FACES) {
-                            queue.add(location.getRelative(face));
+                            queue.add(SimpleLocation.getRelativeKey(key, face));
                         }
                     }
                 } else {
@@ -510,14 +1319,14 @@ public class PipeManager {
                                 }
                                 if (relativeBlock.getType() == type) {
                                     inputs.put(pipeInput.getLocation(), pipeInput);
-                                    found.add(location);
-                                    queue.add(pipeInput.getTargetLocation());
+                                    found.add(key);
+                                    queue.add(pipeInput.getTargetLocation().getBlockKey());
                                 }
                                 break;
                             case PIPE_OUTPUT:
                                 PipeOutput pipeOutput = (PipeOutput) pipesPart;
                                 if (PipesConfig.getMaxPipeOutputs() > 0 && outputs.size() >= PipesConfig.getMaxPipeOutputs()) {
-                                    throw new TooManyOutputsException(location);
+                                    throw new TooManyOutputsException(pipeOutput.getLocation());
                                 }
                                 outputs.put(pipeOutput.getLocation(), pipeOutput);
                                 if (found.isEmpty()) {
@@ -525,23 +1334,23 @@ public class PipeManager {
                                         if (face != pipeOutput.getFacing()) {
                                             Material relative = block.getRelative(face).getType();
                                             if (relative == type || (type == null & MaterialTags.STAINED_GLASS.isTagged(relative))) {
-                                                queue.add(location.getRelative(face));
+                                                queue.add(SimpleLocation.getRelativeKey(key, face));
                                                 break;
                                             }
                                         }
                                     }
                                 }
-                                found.add(location);
-                                Block relativeToOutput = pipeOutput.getTargetLocation().getBlock();
+                                found.add(key);
+                                Block relativeToOutput = block.getRelative(pipeOutput.getFacing());
                                 if (relativeToOutput.getState(false) instanceof InventoryHolder) {
-                                    found.add(new SimpleLocation(relativeToOutput.getLocation()));
+                                    found.add(pipeOutput.getTargetLocation().getBlockKey());
                                 } else if (relativeToOutput.getType() == Material.COMPOSTER) {
-                                    found.add(new SimpleLocation(relativeToOutput.getLocation()));
+                                    found.add(pipeOutput.getTargetLocation().getBlockKey());
                                 }
                                 break;
                             case CHUNK_LOADER:
                                 chunkLoaders.put(pipesPart.getLocation(), (ChunkLoader) pipesPart);
-                                found.add(location);
+                                found.add(key);
                                 break;
                         }
                     }
@@ -595,10 +1404,12 @@ public class PipeManager {
         if (type == null) {
             return null;
         }
-        return pipePartCache.getOrDefault(
-                new SimpleLocation(block.getLocation()),
-                PipesUtil.convertToPipePart(block.getState(false), type)
-        );
+        AbstractPipePart part = pipePartCache.get(new SimpleLocation(block.getLocation()));
+        MetricsManager.getInstance().getPipePartCache().record(part != null);
+        if (part == null) {
+            part = PipesUtil.convertToPipePart(block.getState(false), type);
+        }
+        return part;
     }
 
     /**
@@ -611,10 +1422,12 @@ public class PipeManager {
         if (type == null) {
             return null;
         }
-        return pipePartCache.getOrDefault(
-                new SimpleLocation(state.getLocation()),
-                PipesUtil.convertToPipePart(state, type)
-        );
+        AbstractPipePart part = pipePartCache.get(new SimpleLocation(state.getLocation()));
+        MetricsManager.getInstance().getPipePartCache().record(part != null);
+        if (part == null) {
+            part = PipesUtil.convertToPipePart(state, type);
+        }
+        return part;
     }
 
     /**
@@ -636,26 +1449,43 @@ public class PipeManager {
             }
 
             if (pipe.getInputs().isEmpty() || notification.getCause() != RemovalCause.EXPLICIT) {
-                for (PipeInput input : pipe.getInputs().values()) {
-                    pipeCache.invalidate(input.getLocation());
-                    pipePartCache.remove(input.getLocation(), input);
-                }
-                for (SimpleLocation location : pipe.getPipeBlocks()) {
-                    singleCache.remove(location);
-                }
-                for (PipeOutput output : pipe.getOutputs().values()) {
-                    removeFromMultiCache(output.getLocation(), pipe);
-                    if (multiCache.getOrDefault(output.getLocation(), Collections.emptySet()).isEmpty()) {
-                        pipePartCache.remove(output.getLocation(), output);
-                    }
-                }
-                for (ChunkLoader loader : pipe.getChunkLoaders().values()) {
-                    removeFromMultiCache(loader.getLocation(), pipe);
-                    if (multiCache.getOrDefault(loader.getLocation(), Collections.emptySet()).isEmpty()) {
-                        pipePartCache.remove(loader.getLocation(), loader);
-                    }
-                }
+                evictPipe(pipe);
             }
         }
     }
+
+    /**
+     * Remove a pipe and all of its locations from the caches. The pipe gets discovered again the next time that it is needed.
+     *
+     * @param pipe the pipe
+     */
+    public void evictPipe(Pipe pipe) {
+        cachedPipes.remove(pipe);
+        TopologyStore.getInstance().forget(pipe);
+        graph.remove(pipe);
+        for (PipeInput input : pipe.getInputs().values()) {
+            pipeCache.invalidate(input.getLocation());
+            pipePartCache.remove(input.getLocation(), input);
+            MetricsManager.getInstance().removeInput(input.getLocation());
+            ItemMoveScheduler.getInstance().releaseRateLimits(input.getLocation());
+        }
+        for (SimpleLocation location : pipe.getPipeBlocks()) {
+            singleCache.remove(location, pipe);
+        }
+        for (PipeOutput output : pipe.getOutputs().values()) {
+            removeFromMultiCache(output.getLocation(), pipe);
+            if (multiCache.getOrDefault(output.getLocation(), Collections.emptySet()).isEmpty()) {
+                pipePartCache.remove(output.getLocation(), output);
+            }
+        }
+        for (ChunkLoader loader : pipe.getChunkLoaders().values()) {
+            removeFromMultiCache(loader.getLocation(), pipe);
+            if (multiCache.getOrDefault(loader.getLocation(), Collections.emptySet()).isEmpty()) {
+                pipePartCache.remove(loader.getLocation(), loader);
+            }
+        }
+        for (long chunkKey : pipe.getChunkKeys()) {
+            unindexChunk(pipe, chunkKey);
+        }
+    }
 }
@@ -0,0 +1,777 @@
+package io.github.apfelcreme.Pipes.Manager;
+
+import co.aikar.timings.Timing;
+import co.aikar.timings.Timings;
+import io.github.apfelcreme.Pipes.Pipe.AbstractPipePart;
+import io.github.apfelcreme.Pipes.Pipe.ChunkLoader;
+import io.github.apfelcreme.Pipes.Pipe.Pipe;
+import io.github.apfelcreme.Pipes.Pipe.PipeInput;
+import io.github.apfelcreme.Pipes.Pipe.PipeOutput;
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import io.github.apfelcreme.Pipes.Pipes;
+import io.github.apfelcreme.Pipes.PipesConfig;
+import io.github.apfelcreme.Pipes.PipesItem;
+import io.github.apfelcreme.Pipes.PipesUtil;
+import io.github.apfelcreme.Pipes.Util.LongHashSet;
+import io.github.apfelcreme.Pipes.Util.LongObjectMap;
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongPredicate;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class TopologyStore {
+
+    private static final int MAGIC = 0x50495045;
+    private static final int VERSION = 2;
+
+    /**
+     * the TopologyStore instance
+     */
+    private static TopologyStore instance = null;
+
+    /**
+     * the stored pipes by world index and the block key of their blocks and inputs
+     */
+    private final List<LongObjectMap<StoredPipe>> storedPipes = new ArrayList<>();
+
+    /**
+     * the neighbour checksums of cached pipes by chunk key, recorded while their chunks were unloading
+     */
+    private final Map<Pipe, LongObjectMap<int[]>> recordedNeighbours = new IdentityHashMap<>();
+
+    /**
+     * the id of the task that saves the topology regularly
+     */
+    private int saveTaskId = -1;
+
+    private final Timing TIMINGS_RESTORE;
+
+    /**
+     * constructor
+     */
+    private TopologyStore() {
+        TIMINGS_RESTORE = Timings.of(Pipes.getInstance(), "restore");
+    }
+
+    /**
+     * returns the TopologyStore instance
+     *
+     * @return the TopologyStore instance
+     */
+    public static TopologyStore getInstance() {
+        if (instance == null) {
+            instance = new TopologyStore();
+        }
+        return instance;
+    }
+
+    private LongObjectMap<StoredPipe> getWorld(int worldIndex, boolean create) {
+        while (create && storedPipes.size() <= worldIndex) {
+            storedPipes.add(null);
+        }
+        LongObjectMap<StoredPipe> pipes = worldIndex < storedPipes.size() ? storedPipes.get(worldIndex) : null;
+        if (pipes == null && create) {
+            pipes = new LongObjectMap<>();
+            storedPipes.set(worldIndex, pipes);
+        }
+        return pipes;
+    }
+
+    /**
+     * Store a pipe that gets removed from the caches so that it can be restored by comparing checksums
+     * instead of discovering it again. The blocks next to it are checksummed in the loaded chunks,
+     * the checksums of unloaded chunks have to be recorded while they were unloading.
+     *
+     * @param pipe the pipe, it isn't stored if it isn't complete
+     */
+    public void store(Pipe pipe) {
+        LongObjectMap<int[]> recorded = recordedNeighbours.remove(pipe);
+        if (pipe.getInputs().isEmpty() || pipe.getOutputs().isEmpty() || pipe.getPipeBlocks().isEmpty()) {
+            return;
+        }
+        add(new StoredPipe(pipe, Pipes.getInstance().getServer().getWorld(SimpleLocation.getWorldName(pipe.getWorldIndex())), recorded));
+    }
+
+    /**
+     * Record the checksum of the blocks next to a cached pipe in a chunk that is unloading,
+     * it can't be read anymore once the pipe gets stored
+     *
+     * @param pipe the pipe
+     * @param chunk the chunk that is unloading, it still has to be loaded
+     */
+    public void recordNeighbours(Pipe pipe, Chunk chunk) {
+        long chunkKey = chunk.getChunkKey();
+        int[] checksum = new StoredPipe(pipe, null, null).checksumNeighbours(chunk.getWorld(), c -> c == chunkKey, null).get(chunkKey);
+        if (checksum != null) {
+            recordedNeighbours.computeIfAbsent(pipe, p -> new LongObjectMap<>()).put(chunkKey, checksum);
+        }
+    }
+
+    /**
+     * Forget the recorded neighbour checksums of a pipe, has to be called when it gets evicted
+     *
+     * @param pipe the pipe
+     */
+    public void forget(Pipe pipe) {
+        recordedNeighbours.remove(pipe);
+    }
+
+    private void add(StoredPipe storedPipe) {
+        LongObjectMap<StoredPipe> pipes = getWorld(storedPipe.worldIndex, true);
+        // A location can only belong to one stored pipe, older ones are outdated
+        for (long key : storedPipe.blocks) {
+            StoredPipe previous = pipes.get(key);
+            if (previous != null) {
+                remove(previous);
+            }
+        }
+        for (long key : storedPipe.inputs) {
+            StoredPipe previous = pipes.get(key);
+            if (previous != null) {
+                remove(previous);
+            }
+        }
+        for (long key : storedPipe.blocks) {
+            pipes.put(key, storedPipe);
+        }
+        for (long key : storedPipe.inputs) {
+            pipes.put(key, storedPipe);
+        }
+    }
+
+    private void remove(StoredPipe storedPipe) {
+        LongObjectMap<StoredPipe> pipes = getWorld(storedPipe.worldIndex, false);
+        if (pipes == null) {
+            return;
+        }
+        for (long key : storedPipe.blocks) {
+            pipes.remove(key, storedPipe);
+        }
+        for (long key : storedPipe.inputs) {
+            pipes.remove(key, storedPipe);
+        }
+    }
+
+    /**
+     * Forget the stored pipes at a block and next to it, has to be called when a pipe block or part changes
+     *
+     * @param block the block that changed
+     */
+    public void invalidate(Block block) {
+        LongObjectMap<StoredPipe> pipes = getWorld(SimpleLocation.getWorldIndex(block.getWorld().getName()), false);
+        if (pipes == null || pipes.isEmpty()) {
+            return;
+        }
+        long key = SimpleLocation.getBlockKey(block.getX(), block.getY(), block.getZ());
+        StoredPipe storedPipe = pipes.get(key);
+        if (storedPipe != null) {
+            remove(storedPipe);
+        }
+        for (BlockFace face : PipesUtil.BLOCK_FACES) {
+            storedPipe = pipes.get(SimpleLocation.getRelativeKey(key, face));
+            if (storedPipe != null) {
+                remove(storedPipe);
+            }
+        }
+    }
+
+    /**
+     * Restore the stored pipe that a location belongs to. The checksums of its chunks and of the blocks next to it
+     * have to match the blocks in the world and all of its parts have to still be there, otherwise it is forgotten.
+     * Only the materials of these blocks are read, parts are only created for its own parts and for neighbours
+     * that are made of a part material.
+     *
+     * @param location the location of a pipe block or input
+     * @return the restored pipe or <code>null</code> if none is stored there or it isn't valid anymore
+     */
+    public Pipe restore(SimpleLocation location) {
+        LongObjectMap<StoredPipe> pipes = getWorld(location.getWorldIndex(), false);
+        StoredPipe storedPipe = pipes != null ? pipes.get(location.getBlockKey()) : null;
+        if (storedPipe == null) {
+            return null;
+        }
+        World world = Pipes.getInstance().getServer().getWorld(location.getWorldName());
+        if (world == null) {
+            return null;
+        }
+        if (!storedPipe.isLoaded(world)) {
+            // Keep it stored, it might be valid once the chunk is loaded
+            return null;
+        }
+        try (Timing t = TIMINGS_RESTORE.startTiming()) {
+            remove(storedPipe);
+            return storedPipe.restore(world);
+        }
+    }
+
+    /**
+     * returns the amount of stored pipes
+     *
+     * @return the amount of stored pipes
+     */
+    public int size() {
+        return getStoredPipes().size();
+    }
+
+    private Collection<StoredPipe> getStoredPipes() {
+        // Every stored pipe is in the map once per block and input
+        Map<StoredPipe, Boolean> unique = new IdentityHashMap<>();
+        for (LongObjectMap<StoredPipe> pipes : storedPipes) {
+            if (pipes != null) {
+                for (StoredPipe storedPipe : pipes.values()) {
+                    unique.put(storedPipe, Boolean.TRUE);
+                }
+            }
+        }
+        return unique.keySet();
+    }
+
+    /**
+     * Take a snapshot of all cached and stored pipes, grouped by world name
+     *
+     * @param readNeighbours whether or not the blocks next to the cached pipes should be read from the loaded chunks,
+     *                       otherwise only their recorded checksums are saved
+     * @return the pipes to save by world name
+     */
+    private Map<String, List<StoredPipe>> snapshot(boolean readNeighbours) {
+        Map<String, List<StoredPipe>> worlds = new HashMap<>();
+        for (StoredPipe storedPipe : getStoredPipes()) {
+            worlds.computeIfAbsent(SimpleLocation.getWorldName(storedPipe.worldIndex), w -> new ArrayList<>()).add(storedPipe);
+        }
+        for (Pipe pipe : PipeManager.getInstance().getCachedPipes()) {
+            if (!pipe.getInputs().isEmpty() && !pipe.getOutputs().isEmpty() && !pipe.getPipeBlocks().isEmpty()) {
+                World world = readNeighbours ? Pipes.getInstance().getServer().getWorld(SimpleLocation.getWorldName(pipe.getWorldIndex())) : null;
+                StoredPipe storedPipe = new StoredPipe(pipe, world, recordedNeighbours.get(pipe));
+                worlds.computeIfAbsent(SimpleLocation.getWorldName(storedPipe.worldIndex), w -> new ArrayList<>()).add(storedPipe);
+            }
+        }
+        return worlds;
+    }
+
+    private static File getFolder() {
+        return new File(Pipes.getInstance().getDataFolder(), "topology");
+    }
+
+    /**
+     * Save all cached and stored pipes
+     *
+     * @param async whether or not the files should be written asynchronously
+     */
+    public void save(boolean async) {
+        // Reading the neighbours of every cached pipe is only worth it when the server stops
+        Map<String, List<StoredPipe>> worlds = snapshot(!async);
+        Runnable write = () -> {
+            synchronized (TopologyStore.class) {
+                writeAll(worlds, !async);
+            }
+        };
+        if (async) {
+            Pipes.getInstance().getServer().getScheduler().runTaskAsynchronously(Pipes.getInstance(), write);
+        } else {
+            write.run();
+        }
+    }
+
+    private static void writeAll(Map<String, List<StoredPipe>> worlds, boolean log) {
+        File folder = getFolder();
+        if (!folder.exists()) {
+            folder.mkdirs();
+        }
+        int saved = 0;
+        for (Map.Entry<String, List<StoredPipe>> world : worlds.entrySet()) {
+            try {
+                write(new File(folder, world.getKey() + ".dat"), world.getValue());
+                saved += world.getValue().size();
+            } catch (IOException e) {
+                Pipes.getInstance().getLogger().log(Level.SEVERE, "Could not save the pipes of world " + world.getKey(), e);
+            }
+        }
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(".dat"));
+        if (files != null) {
+            for (File file : files) {
+                if (!worlds.containsKey(file.getName().substring(0, file.getName().length() - 4))) {
+                    file.delete();
+                }
+            }
+        }
+        if (log) {
+            Pipes.getInstance().getLogger().log(Level.INFO, "Saved " + saved + " pipes.");
+        }
+    }
+
+    private static void write(File file, List<StoredPipe> pipes) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(pipes.size());
+            for (StoredPipe storedPipe : pipes) {
+                storedPipe.write(out);
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void read(File file, int worldIndex) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Unknown file format");
+            }
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unknown file version " + version);
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                add(StoredPipe.read(in, worldIndex, version));
+            }
+        }
+    }
+
+    /**
+     * Load the stored pipes of all worlds and start saving them regularly
+     */
+    public static void load() {
+        TopologyStore store = getInstance();
+        File[] files = getFolder().listFiles((dir, name) -> name.endsWith(".dat"));
+        if (files != null) {
+            for (File file : files) {
+                String worldName = file.getName().substring(0, file.getName().length() - 4);
+                try {
+                    store.read(file, SimpleLocation.getWorldIndex(worldName));
+                } catch (IOException e) {
+                    Pipes.getInstance().getLogger().log(Level.WARNING, "Could not load the pipes of world " + worldName + ": " + e.getMessage());
+                }
+            }
+        }
+        Pipes.getInstance().getLogger().log(Level.INFO, "Loaded " + store.size() + " stored pipes.");
+
+        long interval = PipesConfig.getTopologySaveInterval() * 20;
+        if (interval > 0) {
+            store.saveTaskId = Pipes.getInstance().getServer().getScheduler().runTaskTimer(Pipes.getInstance(),
+                    () -> store.save(true), interval, interval).getTaskId();
+        }
+    }
+
+    /**
+     * Stop saving regularly and save all pipes
+     */
+    public static void exit() {
+        TopologyStore store = getInstance();
+        if (store.saveTaskId != -1) {
+            Pipes.getInstance().getServer().getScheduler().cancelTask(store.saveTaskId);
+            store.saveTaskId = -1;
+        }
+        store.save(false);
+    }
+
+    /**
+     * The locations of a pipe in one world together with a checksum of the blocks in each of its chunks
+     * and a checksum of the blocks next to its pipe blocks in each chunk where they are known
+     */
+    private static class StoredPipe {
+        private final int worldIndex;
+        private final Material type;
+        private final long[] blocks;
+        private final long[] inputs;
+        private final long[] outputs;
+        private final long[] chunkLoaders;
+        private final long[] chunkKeys;
+        private final int[] checksums;
+        private final long[] neighbourChunkKeys;
+        private final int[] neighbourChecksums;
+
+        /**
+         * constructor
+         *
+         * @param pipe the pipe
+         * @param world the world to read the blocks next to the pipe from or <code>null</code> if they shouldn't be read
+         * @param recorded the neighbour checksums of unloaded chunks by chunk key or <code>null</code> if none were recorded
+         */
+        private StoredPipe(Pipe pipe, World world, LongObjectMap<int[]> recorded) {
+            this.worldIndex = pipe.getWorldIndex();
+            this.type = pipe.getType();
+            this.blocks = toKeys(pipe.getPipeBlocks());
+            this.inputs = toKeys(pipe.getInputs().keySet());
+            this.outputs = toKeys(pipe.getOutputs().keySet());
+            this.chunkLoaders = toKeys(pipe.getChunkLoaders().keySet());
+            LongObjectMap<int[]> checksums = new LongObjectMap<>();
+            forEachLocation((key, material) -> addChecksum(checksums, key, material));
+            this.chunkKeys = checksums.keys();
+            this.checksums = toChecksums(checksums, chunkKeys);
+            LongObjectMap<int[]> neighbourChecksums = world != null || recorded != null
+                    ? checksumNeighbours(world, c -> isChunkLoaded(world, c), recorded)
+                    : new LongObjectMap<>();
+            this.neighbourChunkKeys = neighbourChecksums.keys();
+            this.neighbourChecksums = toChecksums(neighbourChecksums, neighbourChunkKeys);
+        }
+
+        private StoredPipe(int worldIndex, Material type, long[] blocks, long[] inputs, long[] outputs,
+                           long[] chunkLoaders, long[] chunkKeys, int[] checksums, long[] neighbourChunkKeys, int[] neighbourChecksums) {
+            this.worldIndex = worldIndex;
+            this.type = type;
+            this.blocks = blocks;
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.chunkLoaders = chunkLoaders;
+            this.chunkKeys = chunkKeys;
+            this.checksums = checksums;
+            this.neighbourChunkKeys = neighbourChunkKeys;
+            this.neighbourChecksums = neighbourChecksums;
+        }
+
+        private static long[] toKeys(Collection<SimpleLocation> locations) {
+            long[] keys = new long[locations.size()];
+            int i = 0;
+            for (SimpleLocation location : locations) {
+                keys[i++] = location.getBlockKey();
+            }
+            return keys;
+        }
+
+        private static long getChunkKey(long blockKey) {
+            return SimpleLocation.getChunkKey(SimpleLocation.getBlockKeyX(blockKey) >> 4, SimpleLocation.getBlockKeyZ(blockKey) >> 4);
+        }
+
+        private static int checksum(int checksum, long key, Material material) {
+            checksum = 31 * checksum + Long.hashCode(key);
+            // The name stays the same between server versions, the ordinal doesn't
+            return 31 * checksum + material.name().hashCode();
+        }
+
+        private static void addChecksum(LongObjectMap<int[]> checksums, long key, Material material) {
+            int[] checksum = checksums.get(getChunkKey(key));
+            if (checksum == null) {
+                checksums.put(getChunkKey(key), new int[]{checksum(1, key, material)});
+            } else {
+                checksum[0] = checksum(checksum[0], key, material);
+            }
+        }
+
+        private static int[] toChecksums(LongObjectMap<int[]> checksums, long[] chunkKeys) {
+            int[] values = new int[chunkKeys.length];
+            for (int i = 0; i < chunkKeys.length; i++) {
+                values[i] = checksums.get(chunkKeys[i])[0];
+            }
+            return values;
+        }
+
+        private static Material getType(World world, long key) {
+            return world.getType(SimpleLocation.getBlockKeyX(key), SimpleLocation.getBlockKeyY(key), SimpleLocation.getBlockKeyZ(key));
+        }
+
+        private static boolean isPartMaterial(Material material) {
+            return material == PipesItem.PIPE_INPUT.getMaterial()
+                    || material == PipesItem.PIPE_OUTPUT.getMaterial()
+                    || material == PipesItem.CHUNK_LOADER.getMaterial();
+        }
+
+        private void forEachLocation(LocationConsumer consumer) {
+            for (long key : blocks) {
+                consumer.accept(key, type);
+            }
+            for (long key : inputs) {
+                consumer.accept(key, PipesItem.PIPE_INPUT.getMaterial());
+            }
+            for (long key : outputs) {
+                consumer.accept(key, PipesItem.PIPE_OUTPUT.getMaterial());
+            }
+            for (long key : chunkLoaders) {
+                consumer.accept(key, PipesItem.CHUNK_LOADER.getMaterial());
+            }
+        }
+
+        /**
+         * Check whether the chunks of the pipe and of the blocks next to its pipe blocks are loaded
+         *
+         * @param world the world
+         * @return <code>true</code> if the pipe can be checked without loading chunks
+         */
+        private boolean isLoaded(World world) {
+            for (long chunkKey : chunkKeys) {
+                if (!isChunkLoaded(world, chunkKey)) {
+                    return false;
+                }
+            }
+            for (long key : blocks) {
+                int x = SimpleLocation.getBlockKeyX(key) & 15;
+                int z = SimpleLocation.getBlockKeyZ(key) & 15;
+                // Only blocks at the border of a chunk have neighbours in other chunks
+                if (x == 0 || x == 15 || z == 0 || z == 15) {
+                    for (BlockFace face : PipesUtil.BLOCK_FACES) {
+                        if (!isChunkLoaded(world, getChunkKey(SimpleLocation.getRelativeKey(key, face)))) {
+                            return false;
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        private static boolean isChunkLoaded(World world, long chunkKey) {
+            return world != null && world.isChunkLoaded((int) chunkKey, (int) (chunkKey >> 32));
+        }
+
+        /**
+         * returns the blocks next to the pipe blocks that aren't locations of the pipe, each one once
+         *
+         * @return the block keys of the neighbours in the order of the pipe blocks
+         */
+        private long[] getNeighbours() {
+            LongHashSet known = new LongHashSet(blocks.length + inputs.length + outputs.length + chunkLoaders.length);
+            forEachLocation((key, material) -> known.add(key));
+            long[] neighbours = new long[blocks.length * PipesUtil.BLOCK_FACES.length];
+            int size = 0;
+            for (long key : blocks) {
+                for (BlockFace face : PipesUtil.BLOCK_FACES) {
+                    long neighbour = SimpleLocation.getRelativeKey(key, face);
+                    if (known.add(neighbour)) {
+                        neighbours[size++] = neighbour;
+                    }
+                }
+            }
+            return Arrays.copyOf(neighbours, size);
+        }
+
+        /**
+         * Checksum the materials of the blocks next to the pipe blocks by the chunk that they are in
+         *
+         * @param world the world to read the blocks from
+         * @param read whether or not the blocks in a chunk can be read
+         * @param recorded the checksums to use for chunks that can't be read or <code>null</code>
+         * @return the checksums by chunk key, chunks that neither could be read nor were recorded are missing
+         */
+        private LongObjectMap<int[]> checksumNeighbours(World world, LongPredicate read, LongObjectMap<int[]> recorded) {
+            LongObjectMap<int[]> checksums = new LongObjectMap<>();
+            LongHashSet skipped = new LongHashSet();
+            for (long neighbour : getNeighbours()) {
+                long chunkKey = getChunkKey(neighbour);
+                if (skipped.contains(chunkKey)) {
+                    continue;
+                }
+                if (!read.test(chunkKey)) {
+                    skipped.add(chunkKey);
+                    int[] checksum = recorded != null ? recorded.get(chunkKey) : null;
+                    if (checksum != null) {
+                        checksums.put(chunkKey, checksum);
+                    }
+                    continue;
+                }
+                addChecksum(checksums, neighbour, getType(world, neighbour));
+            }
+            return checksums;
+        }
+
+        private boolean hasNeighbourChecksum(long chunkKey) {
+            for (long neighbourChunkKey : neighbourChunkKeys) {
+                if (neighbourChunkKey == chunkKey) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Check the blocks next to the pipe blocks for ones that would connect to the pipe. Their materials are
+         * compared with the neighbour checksums, in chunks without one they only must not be of the pipe's type.
+         * The materials can't tell whether a part connects, so parts are only looked up for those.
+         *
+         * @param world the world, all chunks around the pipe have to be loaded
+         * @param blockKeys the keys of the pipe blocks
+         * @return <code>true</code> if no unknown block connects to the pipe
+         */
+        private boolean isNeighbourhoodUnchanged(World world, LongHashSet blockKeys) {
+            LongObjectMap<int[]> actualChecksums = new LongObjectMap<>();
+            for (long neighbour : getNeighbours()) {
+                Material material = getType(world, neighbour);
+                if (hasNeighbourChecksum(getChunkKey(neighbour))) {
+                    addChecksum(actualChecksums, neighbour, material);
+                } else if (material == type) {
+                    return false;
+                }
+                if (isPartMaterial(material)) {
+                    AbstractPipePart part = getPart(world, neighbour);
+                    if (part instanceof PipeInput) {
+                        // Inputs only connect to the block that they face
+                        if (blockKeys.contains(((PipeInput) part).getTargetLocation().getBlockKey())) {
+                            return false;
+                        }
+                    } else if (part != null) {
+                        return false;
+                    }
+                }
+            }
+            for (int i = 0; i < neighbourChunkKeys.length; i++) {
+                int[] checksum = actualChecksums.get(neighbourChunkKeys[i]);
+                if (checksum == null || checksum[0] != neighbourChecksums[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Check the chunk checksums and the neighbourhood against the world and create the pipe with the parts in the world
+         *
+         * @param world the world, all chunks of the pipe and around it have to be loaded
+         * @return the pipe or <code>null</code> if the world doesn't match anymore
+         */
+        private Pipe restore(World world) {
+            LongObjectMap<int[]> actualChecksums = new LongObjectMap<>();
+            forEachLocation((key, material) -> addChecksum(actualChecksums, key, getType(world, key)));
+            for (int i = 0; i < chunkKeys.length; i++) {
+                int[] checksum = actualChecksums.get(chunkKeys[i]);
+                if (checksum == null || checksum[0] != checksums[i]) {
+                    return null;
+                }
+            }
+            LongHashSet blockKeys = new LongHashSet(blocks.length);
+            for (long key : blocks) {
+                blockKeys.add(key);
+            }
+            if (!isNeighbourhoodUnchanged(world, blockKeys)) {
+                return null;
+            }
+
+            LinkedHashSet<SimpleLocation> pipeBlocks = new LinkedHashSet<>();
+            for (long key : blocks) {
+                pipeBlocks.add(new SimpleLocation(worldIndex, key));
+            }
+
+            LinkedHashMap<SimpleLocation, PipeInput> inputs = new LinkedHashMap<>();
+            for (long key : this.inputs) {
+                AbstractPipePart part = getPart(world, key);
+                if (!(part instanceof PipeInput) || !blockKeys.contains(((PipeInput) part).getTargetLocation().getBlockKey())) {
+                    return null;
+                }
+                inputs.put(part.getLocation(), (PipeInput) part);
+            }
+            LinkedHashMap<SimpleLocation, PipeOutput> outputs = new LinkedHashMap<>();
+            for (long key : this.outputs) {
+                AbstractPipePart part = getPart(world, key);
+                if (!(part instanceof PipeOutput) || inputs.containsKey(((PipeOutput) part).getTargetLocation())) {
+                    return null;
+                }
+                outputs.put(part.getLocation(), (PipeOutput) part);
+            }
+            LinkedHashMap<SimpleLocation, ChunkLoader> chunkLoaders = new LinkedHashMap<>();
+            for (long key : this.chunkLoaders) {
+                AbstractPipePart part = getPart(world, key);
+                if (!(part instanceof ChunkLoader)) {
+                    return null;
+                }
+                chunkLoaders.put(part.getLocation(), (ChunkLoader) part);
+            }
+            return new Pipe(inputs, outputs, chunkLoaders, pipeBlocks, type);
+        }
+
+        private static AbstractPipePart getPart(World world, long key) {
+            return PipeManager.getInstance().getPipePart(world.getBlockAt(
+                    SimpleLocation.getBlockKeyX(key), SimpleLocation.getBlockKeyY(key), SimpleLocation.getBlockKeyZ(key)));
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeUTF(type.name());
+            writeKeys(out, blocks);
+            writeKeys(out, inputs);
+            writeKeys(out, outputs);
+            writeKeys(out, chunkLoaders);
+            writeKeys(out, chunkKeys);
+            for (int checksum : checksums) {
+                out.writeInt(checksum);
+            }
+            writeKeys(out, neighbourChunkKeys);
+            for (int checksum : neighbourChecksums) {
+                out.writeInt(checksum);
+            }
+        }
+
+        private static StoredPipe read(DataInputStream in, int worldIndex, int version) throws IOException {
+            String typeName = in.readUTF();
+            Material type = Material.getMaterial(typeName);
+            if (type == null) {
+                throw new IOException("Unknown pipe type " + typeName);
+            }
+            long[] blocks = readKeys(in);
+            long[] inputs = readKeys(in);
+            long[] outputs = readKeys(in);
+            long[] chunkLoaders = readKeys(in);
+            long[] chunkKeys = readKeys(in);
+            int[] checksums = readChecksums(in, chunkKeys.length);
+            // The first version didn't have neighbour checksums, those pipes get their neighbours checked one by one
+            long[] neighbourChunkKeys = version > 1 ? readKeys(in) : new long[0];
+            int[] neighbourChecksums = readChecksums(in, neighbourChunkKeys.length);
+            return new StoredPipe(worldIndex, type, blocks, inputs, outputs, chunkLoaders, chunkKeys, checksums, neighbourChunkKeys, neighbourChecksums);
+        }
+
+        private static int[] readChecksums(DataInputStream in, int length) throws IOException {
+            int[] checksums = new int[length];
+            for (int i = 0; i < length; i++) {
+                checksums[i] = in.readInt();
+            }
+            return checksums;
+        }
+
+        private static void writeKeys(DataOutputStream out, long[] keys) throws IOException {
+            out.writeInt(keys.length);
+            for (long key : keys) {
+                out.writeLong(key);
+            }
+        }
+
+        private static long[] readKeys(DataInputStream in) throws IOException {
+            long[] keys = new long[in.readInt()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = in.readLong();
+            }
+            return keys;
+        }
+    }
+
+    private interface LocationConsumer {
+        void accept(long key, Material material);
+    }
+}
@@ -0,0 +1,177 @@
+package io.github.apfelcreme.Pipes.Manager;
+
+import io.github.apfelcreme.Pipes.Pipe.Pipe;
+import io.github.apfelcreme.Pipes.Pipe.PipeInput;
+import io.github.apfelcreme.Pipes.Pipe.PipeOutput;
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import org.bukkit.block.Container;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+class TransferPlan {
+
+    private final SimpleLocation location;
+
+    /**
+     * the result of the transfer if it finished before it could be planned
+     */
+    private final ItemMoveScheduler.TransferResult result;
+
+    private final Pipe pipe;
+    private final PipeInput input;
+    private final Container holder;
+    private final Inventory inventory;
+
+    /**
+     * copies of the input's items whose routes weren't cached by slot, <code>null</code> if the transfer isn't planned
+     */
+    private ItemStack[] snapshot = null;
+
+    /**
+     * the planned routes by slot, <code>null</code> for slots that weren't planned
+     */
+    private Pipe.Route[][] routes = null;
+
+    TransferPlan(SimpleLocation location, ItemMoveScheduler.TransferResult result) {
+        this(location, result, null, null, null, null);
+    }
+
+    TransferPlan(SimpleLocation location, Pipe pipe, PipeInput input, Container holder, Inventory inventory) {
+        this(location, null, pipe, input, holder, inventory);
+    }
+
+    private TransferPlan(SimpleLocation location, ItemMoveScheduler.TransferResult result, Pipe pipe, PipeInput input, Container holder, Inventory inventory) {
+        this.location = location;
+        this.result = result;
+        this.pipe = pipe;
+        this.input = input;
+        this.holder = holder;
+        this.inventory = inventory;
+    }
+
+    /**
+     * Capture everything that planning needs so that it doesn't have to access the world. Only the items
+     * whose routes aren't cached get copied, the others are looked up from the cache when the transfer is
+     * executed. Has to be called on the main thread.
+     *
+     * @return <code>true</code> if the transfer has items to plan, <code>false</code> if all routes are
+     * cached or an output's filter is invalid
+     */
+    boolean capture() {
+        for (PipeOutput output : pipe.getOutputs().values()) {
+            if (!output.prepareFilter()) {
+                return false;
+            }
+        }
+        ItemStack[] contents = inventory.getContents();
+        boolean uncached = false;
+        for (int i = 0; i < contents.length; i++) {
+            if (contents[i] != null) {
+                if (pipe.getCachedRoutes(contents[i]) != null) {
+                    contents[i] = null;
+                } else {
+                    contents[i] = contents[i].clone();
+                    uncached = true;
+                }
+            }
+        }
+        if (!uncached) {
+            return false;
+        }
+        snapshot = contents;
+        return true;
+    }
+
+    /**
+     * Look up the routes of the captured items. This only reads the captured items and the
+     * compiled filters, it may run on any thread as long as no other thread uses the same pipe
+     * and the main thread waits for it.
+     */
+    void plan() {
+        if (snapshot == null) {
+            return;
+        }
+        Pipe.Route[][] planned = new Pipe.Route[snapshot.length][];
+        try {
+            for (int i = 0; i < snapshot.length; i++) {
+                if (snapshot[i] != null) {
+                    planned[i] = pipe.getRoutes(snapshot[i]);
+                }
+            }
+            routes = planned;
+        } catch (RuntimeException e) {
+            // Leave it to the main thread to look up the routes of this transfer
+            routes = null;
+        }
+    }
+
+    /**
+     * returns the planned routes of the item in a slot if the slot still contains the item that was planned
+     *
+     * @param slot the slot of the input inventory
+     * @param item the current item in that slot
+     * @return the planned routes or <code>null</code> if they have to be looked up again
+     */
+    Pipe.Route[] getRoutes(int slot, ItemStack item) {
+        if (routes == null || slot >= routes.length || routes[slot] == null || !item.isSimilar(snapshot[slot])) {
+            return null;
+        }
+        // Moving earlier items might have changed the pipe's outputs or their filters
+        if (routes[slot].length != pipe.getOutputs().size()) {
+            return null;
+        }
+        for (Pipe.Route route : routes[slot]) {
+            if (!route.isValid()) {
+                return null;
+            }
+        }
+        return routes[slot];
+    }
+
+    SimpleLocation getLocation() {
+        return location;
+    }
+
+    /**
+     * returns the result of the transfer if it finished before it could be planned
+     *
+     * @return the result or <code>null</code> if the transfer still has to be executed
+     */
+    ItemMoveScheduler.TransferResult getResult() {
+        return result;
+    }
+
+    Pipe getPipe() {
+        return pipe;
+    }
+
+    PipeInput getInput() {
+        return input;
+    }
+
+    Container getHolder() {
+        return holder;
+    }
+
+    Inventory getInventory() {
+        return inventory;
+    }
+}
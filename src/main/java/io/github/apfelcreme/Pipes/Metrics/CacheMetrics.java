@@ -0,0 +1,66 @@
+package io.github.apfelcreme.Pipes.Metrics;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class CacheMetrics {
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * records a lookup
+     *
+     * @param hit whether or not the cache contained the value
+     */
+    public void record(boolean hit) {
+        if (hit) {
+            hits++;
+        } else {
+            misses++;
+        }
+    }
+
+    /**
+     * returns the amount of lookups that found a value
+     *
+     * @return the amount of hits
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * returns the amount of lookups that didn't find a value
+     *
+     * @return the amount of misses
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * returns the share of lookups that found a value
+     *
+     * @return the hit rate between 0 and 1, 1 if there were no lookups yet
+     */
+    public double getHitRate() {
+        long total = hits + misses;
+        return total > 0 ? (double) hits / total : 1.0;
+    }
+}
@@ -0,0 +1,118 @@
+package io.github.apfelcreme.Pipes.Metrics;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class TransferMetrics {
+
+    private long itemsMoved = 0;
+    private long stacksMoved = 0;
+    private long executions = 0;
+    private long failedAttempts = 0;
+    private long executeNanos = 0;
+    private long blockedTicks = 0;
+
+    /**
+     * records an executed transfer
+     *
+     * @param nanos  the time the transfer took in nanoseconds
+     * @param items  the amount of items that were moved
+     * @param stacks the amount of stacks that were moved completely
+     */
+    public void recordExecution(long nanos, int items, int stacks) {
+        executions++;
+        executeNanos += nanos;
+        itemsMoved += items;
+        stacksMoved += stacks;
+        if (items <= 0) {
+            failedAttempts++;
+        }
+    }
+
+    /**
+     * records the time that a transfer was blocked until one of its outputs changed
+     *
+     * @param ticks the amount of ticks the transfer was blocked
+     */
+    public void recordBlocked(int ticks) {
+        blockedTicks += ticks;
+    }
+
+    /**
+     * returns the amount of items that were moved
+     *
+     * @return the amount of items
+     */
+    public long getItemsMoved() {
+        return itemsMoved;
+    }
+
+    /**
+     * returns the amount of stacks that were moved completely
+     *
+     * @return the amount of stacks
+     */
+    public long getStacksMoved() {
+        return stacksMoved;
+    }
+
+    /**
+     * returns the amount of executed transfers
+     *
+     * @return the amount of executions
+     */
+    public long getExecutions() {
+        return executions;
+    }
+
+    /**
+     * returns the amount of executed transfers that couldn't move anything
+     *
+     * @return the amount of failed attempts
+     */
+    public long getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    /**
+     * returns the time all executions took together
+     *
+     * @return the time in nanoseconds
+     */
+    public long getExecuteNanos() {
+        return executeNanos;
+    }
+
+    /**
+     * returns the average time that an execution took
+     *
+     * @return the time in nanoseconds, 0 if nothing was executed yet
+     */
+    public long getAverageExecuteNanos() {
+        return executions > 0 ? executeNanos / executions : 0;
+    }
+
+    /**
+     * returns the ticks that transfers spent blocked
+     *
+     * @return the amount of ticks
+     */
+    public long getBlockedTicks() {
+        return blockedTicks;
+    }
+}
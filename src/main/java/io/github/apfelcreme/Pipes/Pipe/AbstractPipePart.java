@@ -6,6 +6,7 @@ import de.themoep.inventorygui.GuiStateElement;
 import de.themoep.inventorygui.GuiStorageElement;
 import de.themoep.inventorygui.InventoryGui;
 import de.themoep.inventorygui.StaticGuiElement;
+import io.github.apfelcreme.Pipes.Manager.ItemMoveScheduler;
 import io.github.apfelcreme.Pipes.Pipes;
 import io.github.apfelcreme.Pipes.PipesConfig;
 import io.github.apfelcreme.Pipes.PipesItem;
@@ -182,6 +183,8 @@ public abstract class AbstractPipePart {
             throw new IllegalArgumentException("The option " + option + "< " + option.getValueType().getSimpleName() + "> does not accept the value " + value + "!");
         }
         options.put(option, value);
+        // The new option might allow transfers that were blocked before
+        ItemMoveScheduler.getInstance().unblock(getLocation());
         if (save) {
             Container holder = getHolder();
             if (holder != null) {
@@ -1,16 +1,19 @@
 package io.github.apfelcreme.Pipes.Pipe;
 
-import com.google.common.collect.Multimap;
-import com.google.common.collect.MultimapBuilder;
 import io.github.apfelcreme.Pipes.Exception.ChunkNotLoadedException;
+import io.github.apfelcreme.Pipes.Metrics.TransferMetrics;
 import io.github.apfelcreme.Pipes.PipesConfig;
 import io.github.apfelcreme.Pipes.PipesUtil;
+import io.github.apfelcreme.Pipes.Util.LongObjectMap;
 import org.bukkit.Bukkit;
 import org.bukkit.Material;
 import org.bukkit.Particle;
 import org.bukkit.World;
 import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
 
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
@@ -44,6 +47,56 @@ public class Pipe {
     private int lastTransfer = 0;
     private int transfers = 0;
 
+    /**
+     * the maximum amount of item stacks with meta whose routes get cached
+     */
+    private static final int MAX_ITEM_ROUTES = 64;
+
+    /**
+     * the cached routes of items without meta by their material
+     */
+    private final Map<Material, Route[]> materialRoutes = new EnumMap<>(Material.class);
+
+    /**
+     * the cached routes of items with meta by a single item of the stack
+     */
+    private final Map<ItemKey, Route[]> itemRoutes = new HashMap<>();
+
+    /**
+     * the key that looks up the routes of items with meta without copying them
+     */
+    private final ItemKey lookupKey = new ItemKey();
+
+    /**
+     * the amount of locations (blocks, inputs, outputs and output targets) of this pipe per chunk key
+     */
+    private final LongObjectMap<int[]> chunks = new LongObjectMap<>();
+
+    /**
+     * the cached keys of the chunks, <code>null</code> if they changed
+     */
+    private long[] chunkKeys = null;
+
+    /**
+     * the index of the world that this pipe is in
+     */
+    private int worldIndex = -1;
+
+    /**
+     * the tick that this pipe was last looked up in
+     */
+    private int lastUsed = 0;
+
+    /**
+     * the metrics of the transfers of this pipe while it is cached
+     */
+    private TransferMetrics metrics = new TransferMetrics();
+
+    /**
+     * whether or not this pipe feeds into a pipe that feeds back into it
+     */
+    private boolean inLoop = false;
+
     public Pipe(LinkedHashMap<SimpleLocation, PipeInput> inputs, LinkedHashMap<SimpleLocation, PipeOutput> outputs,
                 LinkedHashMap<SimpleLocation, ChunkLoader> chunkLoaders, LinkedHashSet<SimpleLocation> pipeBlocks, Material type) {
         this.inputs = inputs;
@@ -51,6 +104,16 @@ public class Pipe {
         this.chunkLoaders = chunkLoaders;
         this.pipeBlocks = pipeBlocks;
         this.type = type;
+        for (SimpleLocation location : pipeBlocks) {
+            addChunkLocation(location);
+        }
+        for (SimpleLocation location : inputs.keySet()) {
+            addChunkLocation(location);
+        }
+        for (PipeOutput output : outputs.values()) {
+            addChunkLocation(output.getLocation());
+            addChunkLocation(output.getTargetLocation());
+        }
     }
 
     /**
@@ -145,6 +208,73 @@ public class Pipe {
         this.transfers = transfers;
     }
 
+    /**
+     * returns the routes of an item stack through this pipe. The routes contain the filter
+     * result of every output in the order of the outputs and are cached until an output is
+     * added, removed or its filter changes.
+     *
+     * @param itemStack the item stack to get the routes for
+     * @return the routes of all outputs
+     */
+    public Route[] getRoutes(ItemStack itemStack) {
+        Route[] routes = getCachedRoutes(itemStack);
+        if (routes != null) {
+            return routes;
+        }
+
+        boolean hasMeta = itemStack.hasItemMeta();
+        routes = new Route[outputs.size()];
+        int i = 0;
+        for (PipeOutput output : outputs.values()) {
+            int filterVersion = output.getFilterVersion();
+            routes[i++] = new Route(output, output.getFilterResult(itemStack), filterVersion);
+        }
+        if (hasMeta) {
+            if (itemRoutes.size() >= MAX_ITEM_ROUTES) {
+                itemRoutes.clear();
+            }
+            // Only the stored key needs its own copy of the item
+            itemRoutes.put(new ItemKey(itemStack.asOne()), routes);
+        } else {
+            materialRoutes.put(itemStack.getType(), routes);
+        }
+        return routes;
+    }
+
+    /**
+     * returns the cached routes of an item stack if they are still valid
+     *
+     * @param itemStack the item stack to get the routes for
+     * @return the routes of all outputs or <code>null</code> if they have to be looked up
+     */
+    public Route[] getCachedRoutes(ItemStack itemStack) {
+        Route[] routes;
+        if (itemStack.hasItemMeta()) {
+            lookupKey.set(itemStack);
+            routes = itemRoutes.get(lookupKey);
+            lookupKey.set(null);
+        } else {
+            routes = materialRoutes.get(itemStack.getType());
+        }
+        if (routes == null || routes.length != outputs.size()) {
+            return null;
+        }
+        for (Route route : routes) {
+            if (!route.isValid()) {
+                return null;
+            }
+        }
+        return routes;
+    }
+
+    /**
+     * clears the cached routes, has to be called when outputs are added or removed
+     */
+    public void invalidateRoutes() {
+        materialRoutes.clear();
+        itemRoutes.clear();
+    }
+
     /**
      * displays particles around a pipe
      * @param players The player to show the pipe to, none to show it to everyone
@@ -188,11 +318,82 @@ public class Pipe {
      * @return a string with some info in it
      */
     public String getString() {
-        return PipesConfig.getText("info.pipe.pipeData",
+        String data = PipesConfig.getText("info.pipe.pipeData",
                 String.valueOf(inputs.size()),
                 String.valueOf(outputs.size()),
                 String.valueOf(pipeBlocks.size()),
                 String.valueOf(chunkLoaders.size()));
+        return inLoop ? data + PipesConfig.getText("info.pipe.loop") : data;
+    }
+
+    /**
+     * The filter result of an output for an item
+     */
+    public static class Route {
+        private final PipeOutput output;
+        private final PipeOutput.AcceptResult filterResult;
+        private final int filterVersion;
+
+        private Route(PipeOutput output, PipeOutput.AcceptResult filterResult, int filterVersion) {
+            this.output = output;
+            this.filterResult = filterResult;
+            this.filterVersion = filterVersion;
+        }
+
+        public PipeOutput getOutput() {
+            return output;
+        }
+
+        public PipeOutput.AcceptResult getFilterResult() {
+            return filterResult;
+        }
+
+        /**
+         * returns whether or not the filter of the output is still the one that this route was created with
+         *
+         * @return <code>true</code> if the filter didn't change
+         */
+        public boolean isValid() {
+            if (filterResult.getType() == PipeOutput.ResultType.DENY_INVALID) {
+                // The output had no inventory when this route was created, recompiling its filter changes the version once it has one
+                output.prepareFilter();
+            }
+            return filterVersion == output.getFilterVersion();
+        }
+    }
+
+    /**
+     * The key of the routes of an item with meta. Items with the same type, damage and meta
+     * share their routes no matter the amount.
+     */
+    private static class ItemKey {
+        private ItemStack item;
+        private int hash;
+
+        private ItemKey() {}
+
+        private ItemKey(ItemStack item) {
+            set(item);
+        }
+
+        private void set(ItemStack item) {
+            this.item = item;
+            // The meta is left to equals as getting it would copy it
+            this.hash = item != null ? item.getType().hashCode() * 31 + item.getDurability() : 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ItemKey)) return false;
+            ItemKey other = (ItemKey) o;
+            return hash == other.hash && item != null && item.isSimilar(other.item);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
     }
 
     @Override
@@ -219,22 +420,121 @@ public class Pipe {
         return result;
     }
 
+    /**
+     * Count a location of this pipe for the chunk that it is in
+     *
+     * @param location the location of a block, input, output or output target
+     * @return <code>true</code> if the chunk wasn't part of this pipe before
+     */
+    public boolean addChunkLocation(SimpleLocation location) {
+        worldIndex = location.getWorldIndex();
+        int[] count = chunks.get(location.getChunkKey());
+        if (count != null) {
+            count[0]++;
+            return false;
+        }
+        chunks.put(location.getChunkKey(), new int[]{1});
+        chunkKeys = null;
+        return true;
+    }
+
+    /**
+     * Stop counting a location of this pipe for the chunk that it is in
+     *
+     * @param location the location of a block, input, output or output target
+     * @return <code>true</code> if the chunk isn't part of this pipe anymore
+     */
+    public boolean removeChunkLocation(SimpleLocation location) {
+        int[] count = chunks.get(location.getChunkKey());
+        if (count == null || --count[0] > 0) {
+            return false;
+        }
+        chunks.remove(location.getChunkKey());
+        chunkKeys = null;
+        return true;
+    }
+
+    /**
+     * returns the keys of all chunks that this pipe has blocks, inputs, outputs or output targets in
+     *
+     * @return the chunk keys, the array must not be modified
+     */
+    public long[] getChunkKeys() {
+        if (chunkKeys == null) {
+            chunkKeys = chunks.keys();
+        }
+        return chunkKeys;
+    }
+
+    /**
+     * Mark this pipe as used in the current tick
+     */
+    public void touch() {
+        lastUsed = Bukkit.getCurrentTick();
+    }
+
+    /**
+     * returns the tick that this pipe was last looked up in
+     *
+     * @return the tick
+     */
+    public int getLastUsed() {
+        return lastUsed;
+    }
+
+    /**
+     * returns the metrics of the transfers of this pipe. They start over when the pipe is split, merged or
+     * discovered again, as that creates a new pipe. The metrics of its inputs are kept by location until
+     * the input is removed or its pipe is removed or evicted from the cache.
+     *
+     * @return the metrics
+     */
+    public TransferMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * returns whether or not this pipe is part of a loop of pipes that feed each other
+     *
+     * @return <code>true</code> if the pipe is part of a loop
+     */
+    public boolean isInLoop() {
+        return inLoop;
+    }
+
+    /**
+     * sets whether or not this pipe is part of a loop of pipes that feed each other
+     *
+     * @param inLoop whether or not the pipe is part of a loop
+     */
+    public void setInLoop(boolean inLoop) {
+        this.inLoop = inLoop;
+    }
+
+    /**
+     * resets the metrics of the transfers of this pipe
+     */
+    public void resetMetrics() {
+        metrics = new TransferMetrics();
+    }
+
+    /**
+     * returns the index of the world that this pipe is in
+     *
+     * @return the world index or -1 if the pipe has no locations
+     */
+    public int getWorldIndex() {
+        return worldIndex;
+    }
+
     public void checkLoaded(SimpleLocation startLocation) throws ChunkNotLoadedException {
         World world = Bukkit.getWorld(startLocation.getWorldName());
         if (world == null) {
             return;
         }
 
-        Multimap<Integer, Integer> chunks = MultimapBuilder.hashKeys().hashSetValues().build();
-        LinkedHashSet<SimpleLocation> locations = new LinkedHashSet<>(pipeBlocks);
-        locations.addAll(inputs.keySet());
-        locations.addAll(outputs.keySet());
-        outputs.values().stream().map(PipeOutput::getTargetLocation).forEach(locations::add);
-        for (SimpleLocation location : locations) {
-            chunks.put(location.getX() >> 4, location.getZ() >> 4);
-        }
-        for (Map.Entry<Integer, Integer> chunk : chunks.entries()) {
-            if (!world.isChunkLoaded(chunk.getKey(), chunk.getValue())) {
+        for (long chunkKey : getChunkKeys()) {
+            if (!world.isChunkLoaded((int) chunkKey, (int) (chunkKey >> 32))) {
                 throw new ChunkNotLoadedException(startLocation);
             }
         }
@@ -1,5 +1,6 @@
 package io.github.apfelcreme.Pipes.Pipe;
 
+import io.github.apfelcreme.Pipes.PipesConfig;
 import io.github.apfelcreme.Pipes.PipesItem;
 import org.bukkit.block.BlockFace;
 import org.bukkit.block.BlockState;
@@ -36,19 +37,38 @@ public class PipeInput extends AbstractPipePart {
 
     private final BlockFace facing;
 
+    /**
+     * the location of the block that this input is facing, computed on first use
+     */
+    private SimpleLocation targetLocation = null;
+
     public PipeInput(BlockState state) {
         super(PipesItem.PIPE_INPUT, state.getLocation());
         this.facing = ((Directional) state.getData()).getFacing();
     }
 
     public SimpleLocation getTargetLocation() {
-        return getLocation().getRelative(getFacing());
+        if (targetLocation == null) {
+            targetLocation = getLocation().getRelative(getFacing());
+        }
+        return targetLocation;
     }
 
     public BlockFace getFacing() {
         return facing;
     }
 
+    /**
+     * returns the amount of items that may be moved out of this input per second. It is set by the
+     * ITEM_RATE option or by the config if the option isn't set.
+     *
+     * @return the amount of items, 0 or less if the input isn't limited
+     */
+    public int getItemRate() {
+        int rate = getOption(Options.ITEM_RATE);
+        return rate > 0 ? rate : PipesConfig.getInputItemRate();
+    }
+
     @Override
     public String[] getGuiSetup() {
         return GUI_SETUP;
@@ -102,6 +122,25 @@ public class PipeInput extends AbstractPipePart {
          * Whether to merge item stacks in the input after a transfer attempt or not
          */
         public static final Option<Boolean> MERGE = add(new Option<>("MERGE", Value.TRUE, Value.FALSE));
+        /**
+         * How early in a transfer cycle the transfers of this input are handled when priority scheduling is enabled
+         * <p><strong>Possible Values:</strong></p>
+         * <ul>
+         * <li><code>normal</code> the transfers take turns with the ones of the other inputs</li>
+         * <li><code>high</code> for inputs that should stay responsive under load, like furnace feeds</li>
+         * <li><code>low</code> for bulk storage that can drain in the background</li>
+         * </ul>
+         */
+        public static final Option<Priority> PRIORITY = add(new Option<>("PRIORITY", new Value<>(Priority.NORMAL), new Value<>(Priority.HIGH), new Value<>(Priority.LOW)));
+        /**
+         * How many items per second this input may move, limited as a token bucket so that short bursts are possible
+         * <p><strong>Possible Values:</strong></p>
+         * <ul>
+         * <li><code>0</code> use the inputItemRate of the config</li>
+         * <li><code>1</code>, <code>4</code>, <code>16</code> or <code>64</code> items per second</li>
+         * </ul>
+         */
+        public static final Option<Integer> ITEM_RATE = add(new Option<>("ITEM_RATE", new Value<>(0), new Value<>(1), new Value<>(4), new Value<>(16), new Value<>(64)));
 
         protected static <T> Option<T> add(Option<T> option) {
             VALUES.put(option.name().toLowerCase(), option);
@@ -119,5 +158,35 @@ public class PipeInput extends AbstractPipePart {
         public static Option<?>[] values() {
             return VALUES.values().toArray(new Option<?>[0]);
         }
+
+        public enum Priority {
+            HIGH(4),
+            NORMAL(2),
+            LOW(1);
+
+            private final int weight;
+
+            Priority(int weight) {
+                this.weight = weight;
+            }
+
+            /**
+             * returns the amount of transfers of this priority that are handled before the next priority gets its turn
+             *
+             * @return the weight
+             */
+            public int getWeight() {
+                return weight;
+            }
+
+            /**
+             * returns the next higher priority
+             *
+             * @return the next higher priority or this one if it is the highest
+             */
+            public Priority getBoosted() {
+                return ordinal() > 0 ? values()[ordinal() - 1] : this;
+            }
+        }
     }
 }
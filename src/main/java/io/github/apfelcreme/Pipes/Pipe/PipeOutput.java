@@ -1,18 +1,22 @@
 package io.github.apfelcreme.Pipes.Pipe;
 
 import io.github.apfelcreme.Pipes.PipesItem;
+import org.bukkit.Material;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.block.BlockState;
+import org.bukkit.enchantments.Enchantment;
 import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.material.Directional;
 
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 /*
  * Copyright (C) 2016 Lord36 aka Apfelcreme
@@ -43,6 +47,26 @@ public class PipeOutput extends AbstractPipePart {
 
     private final BlockFace facing;
 
+    /**
+     * the location of the block that this output is facing, computed on first use
+     */
+    private SimpleLocation targetLocation = null;
+
+    /**
+     * the compiled filter, <code>null</code> if it has to be recompiled
+     */
+    private Filter filter = null;
+
+    private static final AcceptResult RESULT_INVALID = new AcceptResult(ResultType.DENY_INVALID, null);
+    private static final AcceptResult RESULT_REDSTONE = new AcceptResult(ResultType.DENY_REDSTONE, null);
+    private static final AcceptResult RESULT_WHITELIST = new AcceptResult(ResultType.DENY_WHITELIST, null);
+    private static final AcceptResult RESULT_ACCEPT = new AcceptResult(ResultType.ACCEPT, null);
+
+    /**
+     * the amount of times the filter was invalidated, used to check whether cached filter results are outdated
+     */
+    private int filterVersion = 0;
+
     public PipeOutput(BlockState state) {
         super(PipesItem.PIPE_OUTPUT, state.getLocation());
         this.facing = ((Directional) state.getData()).getFacing();
@@ -63,7 +87,10 @@ public class PipeOutput extends AbstractPipePart {
     }
 
     public SimpleLocation getTargetLocation() {
-        return getLocation().getRelative(getFacing());
+        if (targetLocation == null) {
+            targetLocation = getLocation().getRelative(getFacing());
+        }
+        return targetLocation;
     }
 
     public BlockFace getFacing() {
@@ -96,39 +123,109 @@ public class PipeOutput extends AbstractPipePart {
      * @return  A result that represents why or why not the item is accepted by this output
      */
     public AcceptResult accepts(PipeInput input, ItemStack itemStack) {
+        return accepts(input, getFilterResult(itemStack));
+    }
+
+    /**
+     * Check whether or not this output can accept an item whose filter result is already known.
+     * This only checks the parts that can change without the output's inventory or options
+     * changing like the block and its redstone state.
+     *
+     * @param input         The input that tries to move the item
+     * @param filterResult  The result of {@link #getFilterResult(ItemStack)} for the item
+     * @return  A result that represents why or why not the item is accepted by this output
+     */
+    public AcceptResult accepts(PipeInput input, AcceptResult filterResult) {
         Block block = getLocation().getBlock();
-        BlockState state = block != null ? block.getState(false) : null;
-        if (state == null || !(state instanceof InventoryHolder)) {
-            return new AcceptResult(ResultType.DENY_INVALID, null);
+        if (block == null || block.getType() != getType().getMaterial() || filterResult.getType() == ResultType.DENY_INVALID) {
+            return RESULT_INVALID;
         }
         Options.Overflow outputOverflow = getOption(Options.OVERFLOW);
         if ((outputOverflow == Options.Overflow.TRUE || outputOverflow == Options.Overflow.INPUT && input.getOption(PipeInput.Options.OVERFLOW))
                 && block.isBlockPowered()) {
-            return new AcceptResult(ResultType.DENY_REDSTONE, null);
+            return RESULT_REDSTONE;
         }
 
-        ItemStack filter = null;
-        boolean isEmpty = true;
-        boolean isWhitelist = getOption(Options.WHITELIST);
-        for (ItemStack filterItem : ((InventoryHolder) state).getInventory().getContents()) {
-            isEmpty &= filterItem == null;
-            if (matchesFilter(filterItem, itemStack)) {
-                if (isWhitelist) {
-                    filter = filterItem;
-                    break;
-                } else {
-                    return new AcceptResult(ResultType.DENY_BLACKLIST, filterItem);
-                }
-            }
+        if (filterResult.getType() == ResultType.DENY_BLACKLIST) {
+            return filterResult;
         }
 
         if (block.isBlockPowered()) {
-            return new AcceptResult(ResultType.DENY_REDSTONE, filter);
-        } else if (!isEmpty && isWhitelist && filter == null) {
-            return new AcceptResult(ResultType.DENY_WHITELIST, null);
+            return filterResult.isInFilter() ? new AcceptResult(ResultType.DENY_REDSTONE, filterResult.getFilterItem()) : RESULT_REDSTONE;
+        }
+        return filterResult;
+    }
+
+    /**
+     * Check whether or not the filter of this output lets an item stack through,
+     * ignoring the state of the output block
+     *
+     * @param itemStack The item to check
+     * @return  A result that is either ACCEPT, DENY_WHITELIST, DENY_BLACKLIST or DENY_INVALID
+     */
+    public AcceptResult getFilterResult(ItemStack itemStack) {
+        Filter filter = getFilter();
+        if (!filter.valid) {
+            return RESULT_INVALID;
+        }
+
+        ItemStack filterItem = filter.match(itemStack);
+        if (filterItem != null && !filter.whitelist) {
+            return new AcceptResult(ResultType.DENY_BLACKLIST, filterItem);
+        } else if (!filter.empty && filter.whitelist && filterItem == null) {
+            return RESULT_WHITELIST;
         } else {
-            return new AcceptResult(ResultType.ACCEPT, filter);
+            return filterItem != null ? new AcceptResult(ResultType.ACCEPT, filterItem) : RESULT_ACCEPT;
+        }
+    }
+
+    /**
+     * returns the compiled filter of this output, compiles it if the inventory or the options changed
+     *
+     * @return the compiled filter
+     */
+    private Filter getFilter() {
+        if (filter == null || !filter.valid) {
+            boolean wasInvalid = filter != null;
+            filter = new Filter();
+            if (wasInvalid && filter.valid) {
+                // Routes that were cached while the output had no inventory denied everything
+                filterVersion++;
+            }
         }
+        return filter;
+    }
+
+    /**
+     * compiles the filter if it is outdated so that it can be checked without accessing the world
+     *
+     * @return <code>true</code> if the filter is valid and {@link #getFilterResult(ItemStack)} won't access the world
+     */
+    public boolean prepareFilter() {
+        return getFilter().valid;
+    }
+
+    /**
+     * marks the compiled filter as outdated, it will be recompiled on the next check
+     */
+    public void invalidateFilter() {
+        filter = null;
+        filterVersion++;
+    }
+
+    /**
+     * returns a number that changes every time the filter of this output changes
+     *
+     * @return the version of the filter
+     */
+    public int getFilterVersion() {
+        return filterVersion;
+    }
+
+    @Override
+    public <T> void setOption(Option<T> option, Value<T> value, boolean save) {
+        super.setOption(option, value, save);
+        invalidateFilter();
     }
 
     /**
@@ -244,6 +341,116 @@ public class PipeOutput extends AbstractPipePart {
         }
     }
 
+    /**
+     * The filter items of an output, compiled with the options that were set at that time
+     */
+    private class Filter {
+        private final boolean valid;
+        private final boolean empty;
+        private final boolean whitelist;
+        private final boolean dataFilter;
+        private final boolean materialFilter;
+        private final boolean damageFilter;
+        private final boolean displayFilter;
+        private final boolean enchantmentFilter;
+
+        /**
+         * the filter entries in the order of the inventory
+         */
+        private final List<FilterEntry> entries = new ArrayList<>();
+
+        /**
+         * the filter entries by their material, only used when the material filter is enabled
+         */
+        private final Map<Material, List<FilterEntry>> byMaterial = new EnumMap<>(Material.class);
+
+        private Filter() {
+            whitelist = getOption(Options.WHITELIST);
+            dataFilter = getOption(Options.DATA_FILTER);
+            materialFilter = getOption(Options.MATERIAL_FILTER);
+            damageFilter = getOption(Options.DAMAGE_FILTER);
+            displayFilter = getOption(Options.DISPLAY_FILTER);
+            enchantmentFilter = getOption(Options.ENCHANTMENT_FILTER);
+
+            InventoryHolder holder = getHolder();
+            valid = holder != null;
+            if (valid) {
+                for (ItemStack filterItem : holder.getInventory().getContents()) {
+                    if (filterItem != null) {
+                        FilterEntry entry = new FilterEntry(filterItem.clone());
+                        entries.add(entry);
+                        if (materialFilter) {
+                            byMaterial.computeIfAbsent(filterItem.getType(), m -> new ArrayList<>()).add(entry);
+                        }
+                    }
+                }
+            }
+            empty = entries.isEmpty();
+        }
+
+        /**
+         * returns the first filter item that matches the item stack
+         *
+         * @param item the item stack to check
+         * @return the matching filter item or <code>null</code> if none matches
+         */
+        private ItemStack match(ItemStack item) {
+            List<FilterEntry> candidates = materialFilter ? byMaterial.get(item.getType()) : entries;
+            if (candidates == null || candidates.isEmpty()) {
+                return null;
+            }
+
+            // Only read the parts of the item that the filter options need, and only once for all entries
+            boolean hasMeta = item.hasItemMeta();
+            ItemMeta meta = hasMeta && (dataFilter || displayFilter) ? item.getItemMeta() : null;
+            String displayName = displayFilter && meta != null && meta.hasDisplayName() ? meta.getDisplayName() : null;
+            List<String> lore = displayFilter && meta != null && meta.hasLore() ? meta.getLore() : null;
+            Map<Enchantment, Integer> enchantments = enchantmentFilter ? item.getEnchantments() : null;
+            short durability = damageFilter ? item.getDurability() : 0;
+
+            for (FilterEntry entry : candidates) {
+                if (dataFilter && (entry.hasMeta != hasMeta || hasMeta && !entry.meta.equals(meta))) {
+                    continue;
+                }
+                if (damageFilter && entry.durability != durability) {
+                    continue;
+                }
+                if (displayFilter && (entry.hasMeta != hasMeta
+                        || hasMeta && (!Objects.equals(entry.displayName, displayName) || !Objects.equals(entry.lore, lore)))) {
+                    continue;
+                }
+                if (enchantmentFilter && !entry.enchantments.equals(enchantments)) {
+                    continue;
+                }
+                return entry.item;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A single filter item with the parts that the filter options compare precomputed
+     */
+    private static class FilterEntry {
+        private final ItemStack item;
+        private final boolean hasMeta;
+        private final ItemMeta meta;
+        private final String displayName;
+        private final List<String> lore;
+        private final Map<Enchantment, Integer> enchantments;
+        private final short durability;
+
+        private FilterEntry(ItemStack item) {
+            this.item = item;
+            hasMeta = item.hasItemMeta();
+            meta = hasMeta ? item.getItemMeta() : null;
+            displayName = meta != null && meta.hasDisplayName() ? meta.getDisplayName() : null;
+            lore = meta != null && meta.hasLore() ? meta.getLore() : null;
+            enchantments = item.getEnchantments();
+            durability = item.getDurability();
+        }
+    }
+
     public enum ResultType {
         ACCEPT,
         DENY_REDSTONE,
@@ -7,7 +7,10 @@ import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /*
  * Copyright (C) 2016 Lord36 aka Apfelcreme
@@ -29,30 +32,121 @@ import java.util.Map;
  */
 public class SimpleLocation {
 
-    private final String worldName;
-    private final int x;
-    private final int y;
-    private final int z;
+    /**
+     * the names of all worlds that locations were created in, the index is the world index
+     */
+    private static final List<String> WORLD_NAMES = new CopyOnWriteArrayList<>();
+
+    /**
+     * the world indices by world name
+     */
+    private static final Map<String, Integer> WORLD_INDICES = new ConcurrentHashMap<>();
+
+    private final int worldIndex;
+    private final long blockKey;
 
     public SimpleLocation(String worldName, int x, int y, int z) {
-        this.worldName = worldName;
-        this.x = x;
-        this.y = y;
-        this.z = z;
+        this(getWorldIndex(worldName), getBlockKey(x, y, z));
     }
 
     public SimpleLocation(Location location) {
-        this.worldName = location.getWorld().getName();
-        this.x = location.getBlockX();
-        this.y = location.getBlockY();
-        this.z = location.getBlockZ();
+        this(location.getWorld().getName(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
     }
 
     public SimpleLocation(SimpleLocation location) {
-        this.worldName = location.getWorldName();
-        this.x = location.getX();
-        this.y = location.getY();
-        this.z = location.getZ();
+        this(location.worldIndex, location.blockKey);
+    }
+
+    public SimpleLocation(int worldIndex, long blockKey) {
+        this.worldIndex = worldIndex;
+        this.blockKey = blockKey;
+    }
+
+    /**
+     * returns the index of a world name, the same name always has the same index while the server runs
+     *
+     * @param worldName the name of the world
+     * @return the index of the world
+     */
+    public static int getWorldIndex(String worldName) {
+        Integer index = WORLD_INDICES.get(worldName);
+        if (index == null) {
+            synchronized (WORLD_NAMES) {
+                index = WORLD_INDICES.get(worldName);
+                if (index == null) {
+                    index = WORLD_NAMES.size();
+                    WORLD_NAMES.add(worldName);
+                    WORLD_INDICES.put(worldName, index);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * returns the name of the world with an index
+     *
+     * @param worldIndex the index of the world
+     * @return the name of the world
+     */
+    public static String getWorldName(int worldIndex) {
+        return WORLD_NAMES.get(worldIndex);
+    }
+
+    /**
+     * returns the packed key of a block position, the same one that {@link Block#getBlockKey()} returns
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param z the z coordinate
+     * @return the block key
+     */
+    public static long getBlockKey(int x, int y, int z) {
+        return ((long) x & 0x7FFFFFF) | (((long) z & 0x7FFFFFF) << 27) | ((long) y << 54);
+    }
+
+    /**
+     * returns the x coordinate of a packed block key
+     *
+     * @param blockKey the block key
+     * @return the x coordinate
+     */
+    public static int getBlockKeyX(long blockKey) {
+        return (int) ((blockKey << 37) >> 37);
+    }
+
+    /**
+     * returns the y coordinate of a packed block key
+     *
+     * @param blockKey the block key
+     * @return the y coordinate
+     */
+    public static int getBlockKeyY(long blockKey) {
+        return (int) (blockKey >> 54);
+    }
+
+    /**
+     * returns the z coordinate of a packed block key
+     *
+     * @param blockKey the block key
+     * @return the z coordinate
+     */
+    public static int getBlockKeyZ(long blockKey) {
+        return (int) ((blockKey << 10) >> 37);
+    }
+
+    /**
+     * returns the packed key of the block that faces a block to the given side
+     *
+     * @param blockKey the block key
+     * @param face     a direction
+     * @return the block key of the relative block
+     */
+    public static long getRelativeKey(long blockKey, BlockFace face) {
+        return getBlockKey(
+                getBlockKeyX(blockKey) + face.getModX(),
+                getBlockKeyY(blockKey) + face.getModY(),
+                getBlockKeyZ(blockKey) + face.getModZ());
     }
 
     /**
@@ -61,7 +155,25 @@ public class SimpleLocation {
      * @return the world name
      */
     public String getWorldName() {
-        return worldName;
+        return WORLD_NAMES.get(worldIndex);
+    }
+
+    /**
+     * returns the index of the world
+     *
+     * @return the world index
+     */
+    public int getWorldIndex() {
+        return worldIndex;
+    }
+
+    /**
+     * returns the packed block position
+     *
+     * @return the block key
+     */
+    public long getBlockKey() {
+        return blockKey;
     }
 
     /**
@@ -70,7 +182,7 @@ public class SimpleLocation {
      * @return the x coordinate
      */
     public int getX() {
-        return x;
+        return getBlockKeyX(blockKey);
     }
 
 
@@ -80,7 +192,7 @@ public class SimpleLocation {
      * @return the y coordinate
      */
     public int getY() {
-        return y;
+        return getBlockKeyY(blockKey);
     }
 
 
@@ -90,7 +202,27 @@ public class SimpleLocation {
      * @return the z coordinate
      */
     public int getZ() {
-        return z;
+        return getBlockKeyZ(blockKey);
+    }
+
+    /**
+     * returns the key of the chunk this location is in
+     *
+     * @return the chunk key
+     */
+    public long getChunkKey() {
+        return getChunkKey(getX() >> 4, getZ() >> 4);
+    }
+
+    /**
+     * returns the key of a chunk, the same one that {@link org.bukkit.Chunk#getChunkKey()} returns
+     *
+     * @param chunkX the x coordinate of the chunk
+     * @param chunkZ the z coordinate of the chunk
+     * @return the chunk key
+     */
+    public static long getChunkKey(int chunkX, int chunkZ) {
+        return (long) chunkX & 0xffffffffL | ((long) chunkZ & 0xffffffffL) << 32;
     }
 
     /**
@@ -100,21 +232,7 @@ public class SimpleLocation {
      * @return the location that faces the block location to the given side
      */
     public SimpleLocation getRelative(BlockFace face) {
-        switch (face) {
-            case NORTH:
-                return new SimpleLocation(worldName, x, y, z - 1);
-            case EAST:
-                return new SimpleLocation(worldName, x + 1, y, z);
-            case SOUTH:
-                return new SimpleLocation(worldName, x, y, z + 1);
-            case WEST:
-                return new SimpleLocation(worldName, x - 1, y, z);
-            case UP:
-                return new SimpleLocation(worldName, x, y + 1, z);
-            case DOWN:
-                return new SimpleLocation(worldName, x, y - 1, z);
-        }
-        return null;
+        return new SimpleLocation(worldIndex, getRelativeKey(blockKey, face));
     }
 
     /**
@@ -123,7 +241,7 @@ public class SimpleLocation {
      * @return a bukkit location
      */
     public Location getLocation() {
-        return new Location(Bukkit.getServer().getWorld(worldName), x, y, z);
+        return new Location(Bukkit.getServer().getWorld(getWorldName()), getX(), getY(), getZ());
     }
 
     /**
@@ -131,9 +249,9 @@ public class SimpleLocation {
      * @return a bukkit block
      */
     public Block getBlock() {
-        World world = Bukkit.getServer().getWorld(worldName);
+        World world = Bukkit.getServer().getWorld(getWorldName());
         if (world != null) {
-            return world.getBlockAt(x, y, z);
+            return world.getBlockAt(getX(), getY(), getZ());
         }
         return null;
     }
@@ -151,31 +269,33 @@ public class SimpleLocation {
 
         SimpleLocation that = (SimpleLocation) o;
 
-        if (x != that.x) return false;
-        if (y != that.y) return false;
-        if (z != that.z) return false;
-        return worldName.equals(that.worldName);
+        return blockKey == that.blockKey && worldIndex == that.worldIndex;
     }
 
     @Override
     public int hashCode() {
-        int hash = 42;
-
-        hash = 31 * hash + worldName.hashCode();
-        hash = 23 * hash + x;
-        hash = 23 * hash + y;
-        hash = 23 * hash + z;
-        return hash;
+        return hashCode(worldIndex, blockKey);
+    }
 
+    /**
+     * returns a well distributed hash of a world index and a block key
+     *
+     * @param worldIndex the index of the world
+     * @param blockKey   the block key
+     * @return the hash
+     */
+    public static int hashCode(int worldIndex, long blockKey) {
+        long hash = (blockKey + worldIndex) * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
     }
 
     @Override
     public String toString() {
         return "SimpleLocation{" +
-                "worldName='" + worldName + '\'' +
-                ", x=" + x +
-                ", y=" + y +
-                ", z=" + z +
+                "worldName='" + getWorldName() + '\'' +
+                ", x=" + getX() +
+                ", y=" + getY() +
+                ", z=" + getZ() +
                 '}';
     }
 
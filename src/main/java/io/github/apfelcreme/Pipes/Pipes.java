@@ -3,10 +3,13 @@ package io.github.apfelcreme.Pipes;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import io.github.apfelcreme.Pipes.Listener.BlockListener;
+import io.github.apfelcreme.Pipes.Listener.ChunkListener;
 import io.github.apfelcreme.Pipes.Listener.ConvertListener;
 import io.github.apfelcreme.Pipes.Listener.InventoryChangeListener;
 import io.github.apfelcreme.Pipes.Listener.PlayerListener;
 import io.github.apfelcreme.Pipes.Manager.ItemMoveScheduler;
+import io.github.apfelcreme.Pipes.Manager.MetricsManager;
+import io.github.apfelcreme.Pipes.Manager.TopologyStore;
 import net.md_5.bungee.api.ChatMessageType;
 import net.md_5.bungee.api.chat.TextComponent;
 import org.bukkit.Material;
@@ -60,10 +63,13 @@ public class Pipes extends JavaPlugin {
         blockInfoStorage = getServer().getPluginManager().isPluginEnabled("BlockInfoStorage");
         registeredRightClicks = CacheBuilder.newBuilder().expireAfterWrite(10, TimeUnit.SECONDS).build();
         PipesConfig.load();
+        TopologyStore.load();
         ItemMoveScheduler.load();
+        MetricsManager.load();
         getServer().getPluginManager().registerEvents(new InventoryChangeListener(this), this);
         getServer().getPluginManager().registerEvents(new PlayerListener(this), this);
         getServer().getPluginManager().registerEvents(new BlockListener(this), this);
+        getServer().getPluginManager().registerEvents(new ChunkListener(this), this);
         if (getConfig().getBoolean("convertToBlockInfoOnChunkLoad")) {
             getServer().getPluginManager().registerEvents(new ConvertListener(this), this);
         }
@@ -103,7 +109,9 @@ public class Pipes extends JavaPlugin {
 
     @Override
     public void onDisable() {
+        MetricsManager.exit();
         ItemMoveScheduler.exit();
+        TopologyStore.exit();
     }
 
     /**
@@ -36,11 +36,28 @@ public class PipesConfig {
 
     private static Pipes plugin;
     private static long transferCooldown;
+    private static long transferTimeBudget;
+    private static int blockedTransferTimeout;
+    private static int pipeCacheMaxBlocks;
+    private static long topologySaveInterval;
     private static int transferCount;
     private static double inputToOutputRatio;
     private static int maxPipeOutputs;
     private static int maxPipeLength;
     private static boolean pistonUpdateCheck;
+    private static boolean asyncDiscovery;
+    private static boolean parallelPlanning;
+    private static int planningThreads;
+    private static long metricsExportInterval;
+    private static int detectionSampleRate;
+    private static int loopTransferCooldown;
+    private static int targetCapacityTtl;
+    private static boolean priorityScheduling;
+    private static double priorityBoostFill;
+    private static int pipeItemRate;
+    private static int pipeItemBurst;
+    private static int inputItemRate;
+    private static int inputItemBurst;
     private static int custommodelDataOffset;
     private static ItemStack guiFiller;
     private static Map<String, ItemStack> itemStacks;
@@ -57,11 +74,28 @@ public class PipesConfig {
         plugin.saveResource("lang.de.yml", false);
         plugin.reloadConfig();
         transferCooldown = plugin.getConfig().getLong("transferCooldown");
+        transferTimeBudget = plugin.getConfig().getLong("transferTimeBudget");
+        blockedTransferTimeout = plugin.getConfig().getInt("blockedTransferTimeout");
+        pipeCacheMaxBlocks = plugin.getConfig().getInt("pipeCacheMaxBlocks");
+        topologySaveInterval = plugin.getConfig().getLong("topologySaveInterval");
         transferCount = plugin.getConfig().getInt("transferCount");
         inputToOutputRatio = plugin.getConfig().getDouble("inputToOutputRatio");
         maxPipeOutputs = plugin.getConfig().getInt("maxPipeOutputs");
         maxPipeLength = plugin.getConfig().getInt("maxPipeLength");
         pistonUpdateCheck = plugin.getConfig().getBoolean("pistonUpdateCheck");
+        asyncDiscovery = plugin.getConfig().getBoolean("asyncDiscovery");
+        parallelPlanning = plugin.getConfig().getBoolean("parallelPlanning");
+        planningThreads = plugin.getConfig().getInt("planningThreads");
+        metricsExportInterval = plugin.getConfig().getLong("metricsExportInterval");
+        detectionSampleRate = plugin.getConfig().getInt("detectionSampleRate", 1);
+        loopTransferCooldown = plugin.getConfig().getInt("loopTransferCooldown");
+        targetCapacityTtl = plugin.getConfig().getInt("targetCapacityTtl");
+        priorityScheduling = plugin.getConfig().getBoolean("priorityScheduling");
+        priorityBoostFill = plugin.getConfig().getDouble("priorityBoostFill");
+        pipeItemRate = plugin.getConfig().getInt("pipeItemRate");
+        pipeItemBurst = plugin.getConfig().getInt("pipeItemBurst", 64);
+        inputItemRate = plugin.getConfig().getInt("inputItemRate");
+        inputItemBurst = plugin.getConfig().getInt("inputItemBurst", 64);
         custommodelDataOffset = plugin.getConfig().getInt("custommodelDataOffset");
         languageConfig = YamlConfiguration.loadConfiguration(new File(plugin.getDataFolder(), "lang.de.yml"));
         itemStacks = new HashMap<>();
@@ -85,6 +119,24 @@ public class PipesConfig {
         return plugin.getConfig().getLong("pipeCacheSize");
     }
 
+    /**
+     * returns the maximum amount of pipe blocks to store in the caches before the least recently used pipes get evicted
+     *
+     * @return the maximum amount of cached pipe blocks, 0 for unlimited
+     */
+    public static int getPipeCacheMaxBlocks() {
+        return pipeCacheMaxBlocks;
+    }
+
+    /**
+     * returns the time between saves of the pipe topology
+     *
+     * @return the time between saves in s, 0 to only save on shutdown
+     */
+    public static long getTopologySaveInterval() {
+        return topologySaveInterval;
+    }
+
     /**
      * returns the delay between item transfers
      *
@@ -94,6 +146,24 @@ public class PipesConfig {
         return transferCooldown;
     }
 
+    /**
+     * returns the time in nanoseconds that the transfers may take per tick, 0 for unlimited
+     *
+     * @return the time budget per tick in ns
+     */
+    public static long getTransferTimeBudget() {
+        return transferTimeBudget;
+    }
+
+    /**
+     * returns the ticks after which a blocked transfer is retried even if none of its outputs changed, 0 to never retry
+     *
+     * @return the blocked transfer timeout in ticks
+     */
+    public static int getBlockedTransferTimeout() {
+        return blockedTransferTimeout;
+    }
+
     /**
      * returns the max amount of item stacks transfered per pipe transfer
      *
@@ -139,6 +209,123 @@ public class PipesConfig {
         return pistonUpdateCheck;
     }
 
+    /**
+     * returns whether or not pipes of queued transfers are discovered asynchronously
+     *
+     * @return whether or not async discovery is enabled
+     */
+    public static boolean isAsyncDiscoveryEnabled() {
+        return asyncDiscovery;
+    }
+
+    /**
+     * returns whether or not the routes of the items of a batch of transfers are planned in parallel
+     *
+     * @return whether or not parallel planning is enabled
+     */
+    public static boolean isParallelPlanningEnabled() {
+        return parallelPlanning;
+    }
+
+    /**
+     * returns the amount of threads that plan transfers, 0 for one per available processor
+     *
+     * @return the amount of planning threads
+     */
+    public static int getPlanningThreads() {
+        return planningThreads;
+    }
+
+    /**
+     * returns whether or not transfers are handled by the priority of their input
+     *
+     * @return whether or not priority scheduling is enabled
+     */
+    public static boolean isPrioritySchedulingEnabled() {
+        return priorityScheduling;
+    }
+
+    /**
+     * returns the share of an input's slots that have to be filled after a transfer for it to get the next higher priority
+     *
+     * @return the share of filled slots, 0 to never boost inputs
+     */
+    public static double getPriorityBoostFill() {
+        return priorityBoostFill;
+    }
+
+    /**
+     * returns the amount of items per second that a pipe may move in total
+     *
+     * @return the amount of items per second, 0 for unlimited
+     */
+    public static int getPipeItemRate() {
+        return pipeItemRate;
+    }
+
+    /**
+     * returns the amount of items that a rate limited pipe may move at once after it was idle
+     *
+     * @return the amount of items
+     */
+    public static int getPipeItemBurst() {
+        return pipeItemBurst;
+    }
+
+    /**
+     * returns the amount of items per second that an input may move if its option doesn't set its own rate
+     *
+     * @return the amount of items per second, 0 for unlimited
+     */
+    public static int getInputItemRate() {
+        return inputItemRate;
+    }
+
+    /**
+     * returns the amount of items that a rate limited input may move at once after it was idle
+     *
+     * @return the amount of items
+     */
+    public static int getInputItemBurst() {
+        return inputItemBurst;
+    }
+
+    /**
+     * returns the seconds between exports of the metrics to metrics.prom, 0 to only export them by command
+     *
+     * @return the metrics export interval in seconds
+     */
+    public static long getMetricsExportInterval() {
+        return metricsExportInterval;
+    }
+
+    /**
+     * returns the rate at which detections sample transfers, only about one in that many transfers is recorded
+     *
+     * @return the detection sample rate, 1 to record every transfer
+     */
+    public static int getDetectionSampleRate() {
+        return detectionSampleRate;
+    }
+
+    /**
+     * returns the ticks that a pipe which is part of a loop of pipes waits between its transfers, 0 to not throttle loops
+     *
+     * @return the loop transfer cooldown in ticks
+     */
+    public static int getLoopTransferCooldown() {
+        return loopTransferCooldown;
+    }
+
+    /**
+     * returns the ticks for which a target that is full for an item gets skipped without looking at its inventory, 0 to always look
+     *
+     * @return the target capacity ttl in ticks
+     */
+    public static int getTargetCapacityTtl() {
+        return targetCapacityTtl;
+    }
+
     /**
      * returns the offset for the custom model data of the items
      *
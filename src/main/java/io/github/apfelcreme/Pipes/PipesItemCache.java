@@ -0,0 +1,96 @@
+package io.github.apfelcreme.Pipes;
+
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import io.github.apfelcreme.Pipes.Util.BlockMap;
+import io.github.apfelcreme.Pipes.Util.LongObjectMap;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+
+import java.util.function.Function;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class PipesItemCache {
+
+    /**
+     * the amount of blocks after which the cache gets cleared so that it can't grow forever
+     */
+    private static final int MAX_SIZE = 100000;
+
+    /**
+     * the resolved types by block, blocks that aren't a part are stored with a <code>null</code> type
+     */
+    private final BlockMap<Entry> entries = new BlockMap<>();
+
+    /**
+     * Get the type of a block, it is only resolved if it isn't known yet or the block's material changed
+     *
+     * @param block    the block
+     * @param material the material of the block
+     * @param resolver resolves the type from the block's state
+     * @return the type or <code>null</code> if the block isn't a part
+     */
+    public PipesItem get(Block block, Material material, Function<Block, PipesItem> resolver) {
+        int worldIndex = SimpleLocation.getWorldIndex(block.getWorld().getName());
+        long blockKey = SimpleLocation.getBlockKey(block.getX(), block.getY(), block.getZ());
+        LongObjectMap<Entry> world = entries.getWorldMap(worldIndex);
+        Entry entry = world != null ? world.get(blockKey) : null;
+        // Blocks that got replaced without an event still have to be resolved again
+        if (entry != null && entry.material == material) {
+            return entry.type;
+        }
+        PipesItem type = resolver.apply(block);
+        if (entries.size() >= MAX_SIZE) {
+            entries.clear();
+        }
+        entries.put(new SimpleLocation(worldIndex, blockKey), new Entry(material, type));
+        return type;
+    }
+
+    /**
+     * Forget the type of a block that was placed, broken or moved
+     *
+     * @param block the block
+     */
+    public void invalidate(Block block) {
+        LongObjectMap<Entry> world = entries.getWorldMap(SimpleLocation.getWorldIndex(block.getWorld().getName()));
+        if (world != null) {
+            world.remove(SimpleLocation.getBlockKey(block.getX(), block.getY(), block.getZ()));
+        }
+    }
+
+    /**
+     * returns the amount of blocks with a known type
+     *
+     * @return the amount of blocks
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+        private final Material material;
+        private final PipesItem type;
+
+        private Entry(Material material, PipesItem type) {
+            this.material = material;
+            this.type = type;
+        }
+    }
+}
@@ -6,6 +6,7 @@ import io.github.apfelcreme.Pipes.Pipe.AbstractPipePart;
 import io.github.apfelcreme.Pipes.Pipe.ChunkLoader;
 import io.github.apfelcreme.Pipes.Pipe.PipeInput;
 import io.github.apfelcreme.Pipes.Pipe.PipeOutput;
+import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Material;
 import org.bukkit.Tag;
@@ -23,7 +24,6 @@ import org.bukkit.potion.PotionType;
 
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
 import java.util.regex.Pattern;
 
@@ -48,6 +48,11 @@ import java.util.regex.Pattern;
 public class PipesUtil {
 
     public static final  Random RANDOM = new Random();
+
+    /**
+     * the types of the blocks that were looked at on the main thread
+     */
+    private static final PipesItemCache PIPES_ITEM_CACHE = new PipesItemCache();
     public static final BlockFace[] BLOCK_FACES = new BlockFace[]{
             BlockFace.NORTH,
             BlockFace.EAST,
@@ -155,6 +160,36 @@ public class PipesUtil {
      * @return the PipesItem or null if none found
      */
     public static PipesItem getPipesItem(Block block) {
+        Material material = block.getType();
+        if (material != PipesItem.PIPE_INPUT.getMaterial()
+                && material != PipesItem.PIPE_OUTPUT.getMaterial()
+                && material != PipesItem.CHUNK_LOADER.getMaterial()) {
+            // No need to look at the state of other blocks
+            return null;
+        }
+        if (!Bukkit.isPrimaryThread()) {
+            return resolvePipesItem(block);
+        }
+        return PIPES_ITEM_CACHE.get(block, material, PipesUtil::resolvePipesItem);
+    }
+
+    /**
+     * Forget the cached {@link PipesItem} of a Block whose type might have changed
+     * @param block  the Block
+     */
+    public static void invalidatePipesItem(Block block) {
+        PIPES_ITEM_CACHE.invalidate(block);
+    }
+
+    /**
+     * returns the cache of the {@link PipesItem}s of the blocks
+     * @return the cache
+     */
+    public static PipesItemCache getPipesItemCache() {
+        return PIPES_ITEM_CACHE;
+    }
+
+    private static PipesItem resolvePipesItem(Block block) {
         BlockState state = block.getState(false);
 
         // Paper's non-snapshot BlockState's are broken in some cases
@@ -345,89 +380,6 @@ public class PipesUtil {
         }
     }
 
-    /**
-     * Add an item to an inventory. This more complex method is necessary as not every implementation sets the leftover amount
-     * @param target Where to move the item to
-     * @param itemStack The item stack
-     */
-    public static void addItem(Inventory target, ItemStack itemStack) {
-        Map<Integer, ItemStack> rest = target.addItem(itemStack);
-        // Recalculate the leftover amount as changing the input stack's size depends on the implementation
-        int newAmount = 0;
-        for (ItemStack item : rest.values()) {
-            newAmount += item.getAmount();
-        }
-        itemStack.setAmount(newAmount);
-    }
-
-    /**
-     * Add fuel to an inventory that supports fuel
-     * @param source The inventory that we move it from
-     * @param target Where to move the item to
-     * @param itemStack The item stack
-     * @return Whether or not the fuel was successfully set
-     */
-    public static boolean addFuel(Inventory source, Inventory target, ItemStack itemStack) {
-        ItemStack fuel = getFuel(target);
-        if (fuel != null && fuel.isSimilar(itemStack)) {
-            ItemStack itemToSet = moveToSingleSlot(source, fuel, itemStack);
-            if (itemToSet == null) {
-                return false;
-            }
-
-            setFuel(target, itemToSet);
-        } else if (fuel == null) {
-            // there is no fuel currently in the fuel slot, so simply put it in
-            source.removeItem(itemStack);
-            setFuel(target, itemStack);
-            itemStack.setAmount(0);
-        }
-        return true;
-    }
-
-    /**
-     * Calculate the result itemstack that should be moved to a single slot containing some item
-     * @param source The inventory the added item is coming from
-     * @param current The current item in the target inventory
-     * @param added The item to be added to the target
-     * @return The item stack that should be added to the target inventory
-     */
-    public static ItemStack moveToSingleSlot(Inventory source, ItemStack current, ItemStack added) {
-        if (current == null || current.getAmount() == 0) {
-            current = new ItemStack(added);
-            added.setAmount(0);
-            return current;
-        } else if (current.getAmount() < current.getMaxStackSize()) {
-            // as you cannot mix two itemstacks with each other, check if the material inserted
-            // has the same type as the fuel that is already in current slot
-
-            // there is still room in the slot
-            int remaining = current.getMaxStackSize() - current.getAmount(); // amount of room in the slot
-            int restSize = added.getAmount() - remaining; // amount of overflowing items
-
-            if (restSize > 0) {
-                ItemStack remove = new ItemStack(added);
-                //remove.setAmount(remaining);
-                //source.removeItem(remove);
-                added.setAmount(restSize);
-
-                current.setAmount(current.getMaxStackSize());
-            } else {
-                //source.removeItem(new ItemStack(added));
-
-                current.setAmount(current.getAmount() + added.getAmount());
-
-                added.setAmount(0);
-            }
-
-            return current;
-        }
-
-        // the inventory is full, so find continue with the list of outputs
-        // and try to fill one that isnt full
-        return null;
-    }
-
     /**
      * Check whether or not a certain potion item can accepts an ingredient
      * @param itemStack     The potion to check
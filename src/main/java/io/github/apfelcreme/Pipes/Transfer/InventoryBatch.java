@@ -0,0 +1,255 @@
+package io.github.apfelcreme.Pipes.Transfer;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.BitSet;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class InventoryBatch {
+
+    private static final int FURNACE_SMELTING_SLOT = 0;
+    private static final int FURNACE_FUEL_SLOT = 1;
+    private static final int BREWING_BOTTLE_SLOTS = 3;
+    private static final int BREWING_INGREDIENT_SLOT = 3;
+    private static final int BREWING_FUEL_SLOT = 4;
+
+    private final Inventory inventory;
+
+    /**
+     * the storage contents as they will be written back, slots only get copied once they change
+     */
+    private ItemStack[] contents;
+    private final BitSet copied = new BitSet();
+    private final int maxStackSize;
+    private boolean changed = false;
+
+    /**
+     * whether or not the storage contents have to be read again because the inventory might have changed since the last flush
+     */
+    private boolean outdated = false;
+
+    public InventoryBatch(Inventory inventory) {
+        this.inventory = inventory;
+        this.contents = inventory.getStorageContents();
+        this.maxStackSize = inventory.getMaxStackSize();
+    }
+
+    /**
+     * returns the inventory that the batch writes to
+     *
+     * @return the inventory
+     */
+    public Inventory getInventory() {
+        return inventory;
+    }
+
+    /**
+     * returns the storage contents including the moves that weren't written yet, empty slots are null
+     *
+     * @return the storage contents, they must not be modified
+     */
+    public ItemStack[] getContents() {
+        load();
+        return contents;
+    }
+
+    /**
+     * returns the max stack size of the inventory
+     *
+     * @return the max stack size
+     */
+    public int getMaxStackSize() {
+        return maxStackSize;
+    }
+
+    /**
+     * Move as much of an item as fits onto the similar stacks and then into the empty slots,
+     * just like {@link Inventory#addItem(ItemStack...)} does
+     *
+     * @param item the item, its amount is reduced by the amount that was moved
+     * @return the amount that was moved
+     */
+    public int add(ItemStack item) {
+        load();
+        int amountBefore = item.getAmount();
+        int max = getMaxStackSize(item);
+        int firstEmpty = -1;
+        for (int i = 0; i < contents.length && item.getAmount() > 0; i++) {
+            ItemStack content = getItem(i);
+            if (content == null) {
+                if (firstEmpty == -1) {
+                    firstEmpty = i;
+                }
+            } else if (content.getAmount() < max && content.isSimilar(item)) {
+                grow(i, item, max - content.getAmount());
+            }
+        }
+        for (int i = firstEmpty; i >= 0 && i < contents.length && item.getAmount() > 0; i++) {
+            if (getItem(i) == null) {
+                place(i, item, max);
+            }
+        }
+        return amountBefore - item.getAmount();
+    }
+
+    /**
+     * Move an item into the fuel slot of a furnace or a brewing stand
+     *
+     * @param item the item, its amount is reduced by the amount that was moved
+     * @return whether or not anything was moved
+     * @throws IllegalArgumentException when the inventory doesn't have fuel
+     */
+    public boolean addFuel(ItemStack item) {
+        switch (inventory.getType()) {
+            case BREWING:
+                return moveToSlot(BREWING_FUEL_SLOT, item);
+            case FURNACE:
+            case SMOKER:
+            case BLAST_FURNACE:
+                return moveToSlot(FURNACE_FUEL_SLOT, item);
+            default:
+                throw new IllegalArgumentException("Inventories of the type " + inventory.getType() + " do not have fuel!");
+        }
+    }
+
+    /**
+     * Move an item into the smelting slot of a furnace
+     *
+     * @param item the item, its amount is reduced by the amount that was moved
+     * @return whether or not anything was moved
+     */
+    public boolean addSmelting(ItemStack item) {
+        return moveToSlot(FURNACE_SMELTING_SLOT, item);
+    }
+
+    /**
+     * returns the ingredient of a brewing stand
+     *
+     * @return the ingredient or null if there is none
+     */
+    public ItemStack getIngredient() {
+        load();
+        return getItem(BREWING_INGREDIENT_SLOT);
+    }
+
+    /**
+     * Move an item into the ingredient slot of a brewing stand
+     *
+     * @param item the item, its amount is reduced by the amount that was moved
+     * @return whether or not anything was moved
+     */
+    public boolean addIngredient(ItemStack item) {
+        return moveToSlot(BREWING_INGREDIENT_SLOT, item);
+    }
+
+    /**
+     * Move potions into the empty bottle slots of a brewing stand, one per slot
+     *
+     * @param item the potions, their amount is reduced by the amount that was moved
+     * @return the amount that was moved
+     */
+    public int addPotions(ItemStack item) {
+        load();
+        int amountBefore = item.getAmount();
+        for (int i = 0; i < BREWING_BOTTLE_SLOTS && item.getAmount() > 0; i++) {
+            if (getItem(i) == null) {
+                place(i, item, 1);
+            }
+        }
+        return amountBefore - item.getAmount();
+    }
+
+    /**
+     * Move an item into a single slot if it is empty or contains a similar stack that isn't full
+     *
+     * @param slot the slot
+     * @param item the item, its amount is reduced by the amount that was moved
+     * @return whether or not anything was moved
+     */
+    private boolean moveToSlot(int slot, ItemStack item) {
+        load();
+        int max = getMaxStackSize(item);
+        ItemStack content = getItem(slot);
+        if (content == null) {
+            place(slot, item, max);
+            return true;
+        }
+        if (content.getAmount() >= max || !content.isSimilar(item)) {
+            return false;
+        }
+        grow(slot, item, max - content.getAmount());
+        return true;
+    }
+
+    /**
+     * Write the slots that items were moved into back to the inventory. The other slots are left alone
+     * so that changes that happened to them since the batch was created aren't overwritten.
+     * The batch reads the inventory again for the next move, it might get changed after the flush.
+     */
+    public void flush() {
+        if (changed) {
+            for (int slot = copied.nextSetBit(0); slot >= 0; slot = copied.nextSetBit(slot + 1)) {
+                inventory.setItem(slot, contents[slot]);
+            }
+            copied.clear();
+            changed = false;
+        }
+        outdated = true;
+    }
+
+    private void load() {
+        if (outdated) {
+            contents = inventory.getStorageContents();
+            outdated = false;
+        }
+    }
+
+    private ItemStack getItem(int slot) {
+        ItemStack item = contents[slot];
+        return item == null || item.getType() == Material.AIR || item.getAmount() <= 0 ? null : item;
+    }
+
+    private int getMaxStackSize(ItemStack item) {
+        return Math.min(item.getMaxStackSize(), maxStackSize);
+    }
+
+    private void place(int slot, ItemStack item, int max) {
+        ItemStack placed = new ItemStack(item);
+        placed.setAmount(Math.min(item.getAmount(), max));
+        contents[slot] = placed;
+        copied.set(slot);
+        item.setAmount(item.getAmount() - placed.getAmount());
+        changed = true;
+    }
+
+    private void grow(int slot, ItemStack item, int space) {
+        if (!copied.get(slot)) {
+            // The stacks of the inventory might be mirrors of the ones in the world
+            contents[slot] = contents[slot].clone();
+            copied.set(slot);
+        }
+        int amount = Math.min(item.getAmount(), space);
+        contents[slot].setAmount(contents[slot].getAmount() + amount);
+        item.setAmount(item.getAmount() - amount);
+        changed = true;
+    }
+}
@@ -0,0 +1,185 @@
+package io.github.apfelcreme.Pipes.Transfer;
+
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import io.github.apfelcreme.Pipes.PipesConfig;
+import io.github.apfelcreme.Pipes.Util.BlockMap;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.DoubleChest;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class TargetCapacityCache {
+
+    /**
+     * the free space of output targets that were found to be full for some item
+     */
+    private final BlockMap<Capacity> capacities = new BlockMap<>();
+
+    /**
+     * Check whether or not a target is known to have no space for an item. This doesn't access the world.
+     *
+     * @param target the location of the target
+     * @param item   the item that should be moved into it
+     * @return <code>true</code> if the target has no free slot and no partial stack of the item's material with space left
+     */
+    public boolean isFull(SimpleLocation target, ItemStack item) {
+        if (capacities.isEmpty()) {
+            return false;
+        }
+        Capacity capacity = capacities.get(target);
+        if (capacity == null) {
+            return false;
+        }
+        if (capacity.expiryTick <= Bukkit.getCurrentTick()) {
+            // Something that doesn't call an event might have changed the inventory
+            capacities.remove(target);
+            return false;
+        }
+        return capacity.freeSlots == 0 && capacity.partialSpace.getOrDefault(item.getType(), 0) == 0;
+    }
+
+    /**
+     * Summarize the free space of a target after an item couldn't be moved into it completely
+     *
+     * @param target the location of the target
+     * @param batch  the batch of the target's inventory
+     */
+    public void update(SimpleLocation target, InventoryBatch batch) {
+        int ttl = PipesConfig.getTargetCapacityTtl();
+        if (ttl <= 0) {
+            return;
+        }
+        Capacity capacity = new Capacity(Bukkit.getCurrentTick() + ttl);
+        int maxStackSize = batch.getMaxStackSize();
+        for (ItemStack item : batch.getContents()) {
+            if (item == null || item.getType() == Material.AIR) {
+                capacity.freeSlots++;
+            } else {
+                int space = Math.min(item.getMaxStackSize(), maxStackSize) - item.getAmount();
+                if (space > 0) {
+                    capacity.partialSpace.merge(item.getType(), space, Integer::sum);
+                }
+            }
+        }
+        capacities.put(target, capacity);
+    }
+
+    /**
+     * Keep the summary of a target current after items were moved into it
+     *
+     * @param target   the location of the target
+     * @param material the material of the items
+     * @param amount   the amount of items
+     */
+    public void inserted(SimpleLocation target, Material material, int amount) {
+        Capacity capacity = capacities.get(target);
+        if (capacity == null) {
+            return;
+        }
+        if (capacity.freeSlots > 0) {
+            // We don't know whether the items went into the free slots or onto partial stacks
+            capacities.remove(target);
+            return;
+        }
+        // Without free slots the items can only have gone onto partial stacks of their material
+        int space = capacity.partialSpace.getOrDefault(material, 0) - amount;
+        if (space > 0) {
+            capacity.partialSpace.put(material, space);
+        } else {
+            capacity.partialSpace.remove(material);
+        }
+    }
+
+    /**
+     * Forget the summary of a target whose inventory changed
+     *
+     * @param target the location of the target
+     */
+    public void invalidate(SimpleLocation target) {
+        invalidate(target.getWorldIndex(), target.getBlockKey());
+    }
+
+    /**
+     * Forget the summary of a target whose inventory changed without creating a location for it
+     *
+     * @param worldIndex the index of the target's world
+     * @param blockKey   the packed key of the target's block
+     */
+    public void invalidate(int worldIndex, long blockKey) {
+        if (!capacities.isEmpty()) {
+            capacities.remove(worldIndex, blockKey);
+        }
+    }
+
+    /**
+     * Forget the summary of an inventory holder whose inventory changed
+     *
+     * @param holder the holder of the inventory
+     */
+    public void invalidate(InventoryHolder holder) {
+        if (capacities.isEmpty()) {
+            return;
+        }
+        if (holder instanceof DoubleChest) {
+            invalidate(((DoubleChest) holder).getLeftSide());
+            invalidate(((DoubleChest) holder).getRightSide());
+        } else if (holder instanceof BlockState) {
+            invalidate(new SimpleLocation(((BlockState) holder).getLocation()));
+        }
+    }
+
+    /**
+     * returns the amount of targets with a known summary
+     *
+     * @return the amount of targets
+     */
+    public int size() {
+        return capacities.size();
+    }
+
+    /**
+     * returns whether or not no target has a known summary, nothing has to be invalidated then
+     *
+     * @return <code>true</code> if there is no summary
+     */
+    public boolean isEmpty() {
+        return capacities.isEmpty();
+    }
+
+    private static class Capacity {
+        private final int expiryTick;
+        private int freeSlots = 0;
+
+        /**
+         * the space left in partial stacks by their material
+         */
+        private final Map<Material, Integer> partialSpace = new EnumMap<>(Material.class);
+
+        private Capacity(int expiryTick) {
+            this.expiryTick = expiryTick;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package io.github.apfelcreme.Pipes.Transfer;
+
+import org.bukkit.Bukkit;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class TokenBucket {
+
+    /**
+     * the amount of items that get added per tick
+     */
+    private double refillPerTick;
+
+    /**
+     * the maximum amount of items that can be saved up while nothing is moved
+     */
+    private int capacity;
+
+    /**
+     * the amount of items that may be moved now, negative if more were moved than allowed
+     */
+    private double tokens;
+
+    private int lastTick;
+
+    /**
+     * A full bucket
+     *
+     * @param itemsPerSecond the amount of items that may be moved per second of game time
+     * @param burst          the maximum amount of items that may be moved at once after nothing was moved for a while
+     */
+    public TokenBucket(int itemsPerSecond, int burst) {
+        this(itemsPerSecond, burst, Bukkit.getCurrentTick());
+    }
+
+    TokenBucket(int itemsPerSecond, int burst, int currentTick) {
+        configure(itemsPerSecond, burst);
+        this.tokens = capacity;
+        this.lastTick = currentTick;
+    }
+
+    /**
+     * Change the rate of the bucket, the items that were already saved up are kept as far as they fit
+     *
+     * @param itemsPerSecond the amount of items that may be moved per second of game time
+     * @param burst          the maximum amount of items that may be moved at once after nothing was moved for a while
+     */
+    public void configure(int itemsPerSecond, int burst) {
+        refillPerTick = itemsPerSecond / 20.0;
+        // It has to hold at least what gets added in a tick, otherwise the rate could never be reached
+        capacity = Math.max(Math.max(burst, 1), (int) Math.ceil(refillPerTick));
+        tokens = Math.min(tokens, capacity);
+    }
+
+    /**
+     * returns the amount of items that may be moved now
+     *
+     * @return the amount of items
+     */
+    public int getAvailable() {
+        return getAvailable(Bukkit.getCurrentTick());
+    }
+
+    int getAvailable(int tick) {
+        if (tick > lastTick) {
+            tokens = Math.min(capacity, tokens + (tick - lastTick) * refillPerTick);
+            lastTick = tick;
+        }
+        return (int) Math.max(0, tokens);
+    }
+
+    /**
+     * returns the amount of ticks until at least one item may be moved again
+     *
+     * @return the amount of ticks, 0 if items may be moved now
+     */
+    public int getTicksUntilAvailable() {
+        return getTicksUntilAvailable(Bukkit.getCurrentTick());
+    }
+
+    int getTicksUntilAvailable(int tick) {
+        if (getAvailable(tick) > 0) {
+            return 0;
+        }
+        return Math.max(1, (int) Math.ceil((1 - tokens) / refillPerTick));
+    }
+
+    /**
+     * returns whether or not the bucket is full again, it then doesn't differ from a new one
+     *
+     * @return <code>true</code> if as many items as the burst allows may be moved
+     */
+    public boolean isFull() {
+        return isFull(Bukkit.getCurrentTick());
+    }
+
+    boolean isFull(int tick) {
+        return getAvailable(tick) >= capacity;
+    }
+
+    /**
+     * Take items from the bucket after they were moved
+     *
+     * @param amount the amount of items
+     */
+    public void take(int amount) {
+        tokens -= amount;
+    }
+}
@@ -0,0 +1,246 @@
+package io.github.apfelcreme.Pipes.Transfer;
+
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import io.github.apfelcreme.Pipes.Pipes;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class TransferJournal {
+
+    private static final int MAGIC = 0x50544a31;
+
+    private static final byte WORLD = 0;
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+
+    /**
+     * the amount of records that the journal may have before it is compacted, no matter how many transfers are queued
+     */
+    private static final int MIN_COMPACT_RECORDS = 4096;
+
+    private final File file;
+
+    /**
+     * the thread that writes to the file, so that the main thread never waits for the disk
+     */
+    private final ExecutorService writer;
+
+    /**
+     * the records that weren't handed to the writer yet
+     */
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+
+    /**
+     * the world indices whose names were already written to the current file
+     */
+    private final BitSet writtenWorlds = new BitSet();
+
+    /**
+     * the amount of add and remove records in the current file, including the pending ones
+     */
+    private int records = 0;
+
+    public TransferJournal(File file) {
+        this.file = file;
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "Pipes-TransferJournal");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Record that a transfer got queued
+     *
+     * @param location the location of the PipeInput
+     */
+    public void add(SimpleLocation location) {
+        write(pendingOut, ADD, location);
+    }
+
+    /**
+     * Record that a transfer completed and isn't queued anymore
+     *
+     * @param location the location of the PipeInput
+     */
+    public void remove(SimpleLocation location) {
+        write(pendingOut, REMOVE, location);
+    }
+
+    private void write(DataOutputStream out, byte type, SimpleLocation location) {
+        try {
+            if (!writtenWorlds.get(location.getWorldIndex())) {
+                out.writeByte(WORLD);
+                out.writeInt(location.getWorldIndex());
+                out.writeUTF(location.getWorldName());
+                writtenWorlds.set(location.getWorldIndex());
+            }
+            out.writeByte(type);
+            out.writeInt(location.getWorldIndex());
+            out.writeLong(location.getBlockKey());
+            records++;
+        } catch (IOException e) {
+            // Writing to a byte array doesn't fail
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Check whether or not the journal got so long that it should be compacted
+     *
+     * @param queued the amount of currently queued transfers
+     * @return <code>true</code> if most of the records are outdated
+     */
+    public boolean needsCompaction(int queued) {
+        return records > MIN_COMPACT_RECORDS && records > queued * 2;
+    }
+
+    /**
+     * Hand the pending records to the writer which appends them to the file
+     */
+    public void flush() {
+        if (pending.size() == 0) {
+            return;
+        }
+        byte[] bytes = pending.toByteArray();
+        pending.reset();
+        writer.execute(() -> {
+            try (FileOutputStream out = new FileOutputStream(file, true)) {
+                out.write(bytes);
+            } catch (IOException e) {
+                Pipes.getInstance().getLogger().log(Level.SEVERE, "Could not append to " + file.getName(), e);
+            }
+        });
+    }
+
+    /**
+     * Replace the journal with one that only contains the currently queued transfers.
+     * The new journal is written by the writer, the pending records are dropped as they are part of it.
+     *
+     * @param queued all currently queued transfers
+     * @return the future of the write
+     */
+    public Future<?> compact(Collection<SimpleLocation> queued) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + queued.size() * 13);
+        DataOutputStream out = new DataOutputStream(bytes);
+        pending.reset();
+        writtenWorlds.clear();
+        records = 0;
+        try {
+            out.writeInt(MAGIC);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (SimpleLocation location : queued) {
+            write(out, ADD, location);
+        }
+        byte[] content = bytes.toByteArray();
+        return writer.submit(() -> {
+            File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+            try {
+                Files.write(temp.toPath(), content);
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Pipes.getInstance().getLogger().log(Level.SEVERE, "Could not compact " + file.getName(), e);
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Write the pending records and wait for the writer to finish
+     */
+    public void close() {
+        flush();
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                Pipes.getInstance().getLogger().log(Level.WARNING, "Timed out while writing " + file.getName());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Read the transfers that were queued when the journal was last written. A record that was only
+     * partially written because the server stopped ends the journal, everything before it is kept.
+     *
+     * @param file the journal file
+     * @return the queued transfers in the order that they were queued
+     * @throws IOException when the file can't be read or isn't a journal
+     */
+    public static Set<SimpleLocation> read(File file) throws IOException {
+        Set<SimpleLocation> transfers = new LinkedHashSet<>();
+        // The world indices of the file are the ones of the server that wrote it
+        Map<Integer, Integer> worlds = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Unknown file format");
+            }
+            int type;
+            while ((type = in.read()) != -1) {
+                if (type == WORLD) {
+                    int index = in.readInt();
+                    worlds.put(index, SimpleLocation.getWorldIndex(in.readUTF()));
+                    continue;
+                }
+                Integer worldIndex = worlds.get(in.readInt());
+                long blockKey = in.readLong();
+                if (worldIndex == null || (type != ADD && type != REMOVE)) {
+                    throw new IOException("Invalid record in " + file.getName());
+                }
+                SimpleLocation location = new SimpleLocation(worldIndex, blockKey);
+                if (type == ADD) {
+                    transfers.add(location);
+                } else {
+                    transfers.remove(location);
+                }
+            }
+        } catch (EOFException ignored) {
+            // The last record was cut off
+        }
+        return transfers;
+    }
+}
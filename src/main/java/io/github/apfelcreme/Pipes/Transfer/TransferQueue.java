@@ -0,0 +1,426 @@
+package io.github.apfelcreme.Pipes.Transfer;
+
+import io.github.apfelcreme.Pipes.Pipe.PipeInput;
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import io.github.apfelcreme.Pipes.Util.LongObjectMap;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class TransferQueue implements Iterable<SimpleLocation> {
+
+    /**
+     * the transfers of each priority, highest first. They take turns in a weighted round robin
+     * so that the higher ones are done earlier in a cycle without the lower ones starving.
+     */
+    private final Level[] levels;
+
+    /**
+     * the index of the level whose turn it is
+     */
+    private int currentLevel = 0;
+
+    /**
+     * the amount of transfers that the current level may still take in its turn
+     */
+    private int levelCredit = 0;
+
+    public TransferQueue() {
+        PipeInput.Options.Priority[] priorities = PipeInput.Options.Priority.values();
+        levels = new Level[priorities.length];
+        for (int i = 0; i < priorities.length; i++) {
+            levels[i] = new Level(priorities[i].getWeight());
+        }
+    }
+
+    /**
+     * Queue a transfer with the normal priority. If it is already queued nothing changes, if it isn't it gets added
+     * to the end of the bucket of its chunk.
+     *
+     * @param location the location of the PipeInput
+     * @return <code>true</code> if it wasn't queued before
+     */
+    public boolean add(SimpleLocation location) {
+        return add(location, PipeInput.Options.Priority.NORMAL);
+    }
+
+    /**
+     * Queue a transfer. If it is already queued with a different priority it is moved to the end of the
+     * bucket of its chunk in that priority, if it isn't queued it gets added there.
+     *
+     * @param location the location of the PipeInput
+     * @param priority the priority of the transfer
+     * @return <code>true</code> if it wasn't queued before
+     */
+    public boolean add(SimpleLocation location, PipeInput.Options.Priority priority) {
+        Level level = levels[priority.ordinal()];
+        boolean queued = false;
+        for (Level other : levels) {
+            if (other != level && other.remove(location)) {
+                queued = true;
+                break;
+            }
+        }
+        return level.add(location) && !queued;
+    }
+
+    /**
+     * Check whether or not a transfer is queued
+     *
+     * @param location the location of the PipeInput
+     * @return <code>true</code> if it is queued
+     */
+    public boolean contains(SimpleLocation location) {
+        for (Level level : levels) {
+            if (level.contains(location)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Start a new cycle in which every bucket that isn't parked gets one turn
+     */
+    public void startCycle() {
+        for (Level level : levels) {
+            level.cycleTurns = level.activeBuckets.size();
+        }
+        currentLevel = 0;
+        levelCredit = levels[0].weight;
+    }
+
+    /**
+     * Whether or not the current cycle still has bucket turns left
+     *
+     * @return <code>true</code> if the cycle isn't finished
+     */
+    public boolean isCycleRunning() {
+        for (Level level : levels) {
+            if (level.cycleTurns > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Take the next transfer of the current cycle from the queue. Each priority may take as many transfers
+     * as its weight before the next one gets its turn. Only checks once per bucket turn whether or not
+     * its chunk is loaded and parks the bucket if it isn't.
+     *
+     * @return the location of the next PipeInput or <code>null</code> if the cycle is finished
+     */
+    public SimpleLocation poll() {
+        int finished = 0;
+        while (finished < levels.length) {
+            if (levelCredit > 0) {
+                SimpleLocation location = levels[currentLevel].poll();
+                if (location != null) {
+                    levelCredit--;
+                    return location;
+                }
+                finished++;
+            }
+            currentLevel = (currentLevel + 1) % levels.length;
+            levelCredit = levels[currentLevel].weight;
+        }
+        return null;
+    }
+
+    /**
+     * Wake up the buckets of a chunk that were parked because the chunk wasn't loaded
+     *
+     * @param worldIndex the index of the world
+     * @param chunkKey   the key of the chunk
+     * @return <code>true</code> if a parked bucket was woken up
+     */
+    public boolean wake(int worldIndex, long chunkKey) {
+        boolean woken = false;
+        for (Level level : levels) {
+            woken |= level.wake(worldIndex, chunkKey);
+        }
+        return woken;
+    }
+
+    /**
+     * Get the amount of queued transfers, including those of parked buckets
+     *
+     * @return the amount of queued transfers
+     */
+    public int size() {
+        int size = 0;
+        for (Level level : levels) {
+            size += level.size;
+        }
+        return size;
+    }
+
+    /**
+     * Get the amount of queued transfers of a priority, including those of parked buckets
+     *
+     * @param priority the priority
+     * @return the amount of queued transfers
+     */
+    public int size(PipeInput.Options.Priority priority) {
+        return levels[priority.ordinal()].size;
+    }
+
+    /**
+     * Get the amount of queued transfers whose chunks aren't parked
+     *
+     * @return the amount of active transfers
+     */
+    public int getActiveSize() {
+        int activeSize = 0;
+        for (Level level : levels) {
+            activeSize += level.activeSize;
+        }
+        return activeSize;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Iterator<SimpleLocation> iterator() {
+        return Arrays.stream(levels)
+                .flatMap(level -> level.buckets.stream())
+                .filter(Objects::nonNull)
+                .flatMap(worldBuckets -> worldBuckets.values().stream())
+                .flatMap(bucket -> bucket.locations.stream())
+                .iterator();
+    }
+
+    /**
+     * All transfers of one priority, their chunks take turns
+     */
+    private static class Level {
+        private final int weight;
+
+        /**
+         * all buckets by world index and chunk key
+         */
+        private final List<LongObjectMap<Bucket>> buckets = new ArrayList<>();
+
+        /**
+         * the buckets whose chunk is loaded in the order that they get their turn
+         */
+        private final Deque<Bucket> activeBuckets = new ArrayDeque<>();
+
+        /**
+         * the amount of queued transfers
+         */
+        private int size = 0;
+
+        /**
+         * the amount of queued transfers in buckets that aren't parked
+         */
+        private int activeSize = 0;
+
+        /**
+         * the amount of bucket turns left in the current cycle
+         */
+        private int cycleTurns = 0;
+
+        private Level(int weight) {
+            this.weight = weight;
+        }
+
+        private LongObjectMap<Bucket> getWorldBuckets(int worldIndex, boolean create) {
+            while (create && buckets.size() <= worldIndex) {
+                buckets.add(null);
+            }
+            LongObjectMap<Bucket> worldBuckets = worldIndex < buckets.size() ? buckets.get(worldIndex) : null;
+            if (worldBuckets == null && create) {
+                worldBuckets = new LongObjectMap<>();
+                buckets.set(worldIndex, worldBuckets);
+            }
+            return worldBuckets;
+        }
+
+        private Bucket getBucket(int worldIndex, long chunkKey) {
+            LongObjectMap<Bucket> worldBuckets = getWorldBuckets(worldIndex, false);
+            return worldBuckets != null ? worldBuckets.get(chunkKey) : null;
+        }
+
+        private Bucket getBucket(SimpleLocation location) {
+            return getBucket(location.getWorldIndex(), location.getChunkKey());
+        }
+
+        private boolean add(SimpleLocation location) {
+            LongObjectMap<Bucket> worldBuckets = getWorldBuckets(location.getWorldIndex(), true);
+            Bucket bucket = worldBuckets.get(location.getChunkKey());
+            if (bucket == null) {
+                bucket = new Bucket(location.getWorldIndex(), location.getX() >> 4, location.getZ() >> 4);
+                worldBuckets.put(bucket.chunkKey, bucket);
+                if (bucket.isLoaded()) {
+                    activeBuckets.addLast(bucket);
+                } else {
+                    bucket.parked = true;
+                }
+            }
+            if (!bucket.locations.add(location)) {
+                return false;
+            }
+            size++;
+            if (!bucket.parked) {
+                activeSize++;
+            }
+            return true;
+        }
+
+        private boolean contains(SimpleLocation location) {
+            Bucket bucket = getBucket(location);
+            return bucket != null && bucket.locations.contains(location);
+        }
+
+        /**
+         * Remove a transfer that moved to another priority. An active bucket that gets empty
+         * stays in the order of buckets until its next turn.
+         */
+        private boolean remove(SimpleLocation location) {
+            Bucket bucket = getBucket(location);
+            if (bucket == null || !bucket.locations.remove(location)) {
+                return false;
+            }
+            size--;
+            if (bucket.parked) {
+                if (bucket.locations.isEmpty()) {
+                    removeBucket(bucket);
+                }
+            } else {
+                activeSize--;
+            }
+            return true;
+        }
+
+        private SimpleLocation poll() {
+            while (cycleTurns > 0 && !activeBuckets.isEmpty()) {
+                Bucket bucket = activeBuckets.peekFirst();
+                if (bucket.locations.isEmpty()) {
+                    // All of its transfers moved to another priority
+                    activeBuckets.pollFirst();
+                    cycleTurns--;
+                    bucket.turn = 0;
+                    removeBucket(bucket);
+                    continue;
+                }
+                if (bucket.turn <= 0) {
+                    if (!bucket.isLoaded()) {
+                        park(bucket);
+                        cycleTurns--;
+                        continue;
+                    }
+                    bucket.turn = bucket.locations.size();
+                }
+
+                Iterator<SimpleLocation> it = bucket.locations.iterator();
+                SimpleLocation location = it.next();
+                it.remove();
+                size--;
+                activeSize--;
+
+                if (--bucket.turn <= 0 || bucket.locations.isEmpty()) {
+                    bucket.turn = 0;
+                    activeBuckets.pollFirst();
+                    cycleTurns--;
+                    if (bucket.locations.isEmpty()) {
+                        removeBucket(bucket);
+                    } else {
+                        activeBuckets.addLast(bucket);
+                    }
+                }
+                return location;
+            }
+            cycleTurns = 0;
+            return null;
+        }
+
+        private boolean wake(int worldIndex, long chunkKey) {
+            Bucket bucket = getBucket(worldIndex, chunkKey);
+            if (bucket == null || !bucket.parked) {
+                return false;
+            }
+            bucket.parked = false;
+            bucket.turn = 0;
+            activeSize += bucket.locations.size();
+            activeBuckets.addLast(bucket);
+            return true;
+        }
+
+        private void park(Bucket bucket) {
+            activeBuckets.remove(bucket);
+            bucket.parked = true;
+            bucket.turn = 0;
+            activeSize -= bucket.locations.size();
+        }
+
+        private void removeBucket(Bucket bucket) {
+            LongObjectMap<Bucket> worldBuckets = getWorldBuckets(bucket.worldIndex, false);
+            if (worldBuckets != null) {
+                worldBuckets.remove(bucket.chunkKey, bucket);
+            }
+        }
+    }
+
+    /**
+     * All transfers of one priority queued in one chunk
+     */
+    private static class Bucket {
+        private final int worldIndex;
+        private final int chunkX;
+        private final int chunkZ;
+        private final long chunkKey;
+        private final LinkedHashSet<SimpleLocation> locations = new LinkedHashSet<>();
+
+        /**
+         * whether or not this bucket is parked because its chunk isn't loaded
+         */
+        private boolean parked = false;
+
+        /**
+         * the amount of transfers left in the current turn of this bucket
+         */
+        private int turn = 0;
+
+        private Bucket(int worldIndex, int chunkX, int chunkZ) {
+            this.worldIndex = worldIndex;
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.chunkKey = SimpleLocation.getChunkKey(chunkX, chunkZ);
+        }
+
+        private boolean isLoaded() {
+            World world = Bukkit.getWorld(SimpleLocation.getWorldName(worldIndex));
+            return world != null && world.isChunkLoaded(chunkX, chunkZ);
+        }
+    }
+}
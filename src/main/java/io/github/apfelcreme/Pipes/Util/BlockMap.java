@@ -0,0 +1,157 @@
+package io.github.apfelcreme.Pipes.Util;
+
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class BlockMap<V> {
+
+    /**
+     * the maps of the block keys by world index
+     */
+    private final List<LongObjectMap<V>> worlds = new ArrayList<>();
+
+    private LongObjectMap<V> getWorld(int worldIndex) {
+        return worldIndex < worlds.size() ? worlds.get(worldIndex) : null;
+    }
+
+    private LongObjectMap<V> getOrCreateWorld(int worldIndex) {
+        while (worlds.size() <= worldIndex) {
+            worlds.add(null);
+        }
+        LongObjectMap<V> map = worlds.get(worldIndex);
+        if (map == null) {
+            map = new LongObjectMap<>();
+            worlds.set(worldIndex, map);
+        }
+        return map;
+    }
+
+    public V get(SimpleLocation location) {
+        return get(location.getWorldIndex(), location.getBlockKey());
+    }
+
+    /**
+     * Get the value of a block without creating a location for it
+     *
+     * @param worldIndex the index of the world
+     * @param blockKey   the packed key of the block
+     * @return the value or <code>null</code> if there is none
+     */
+    public V get(int worldIndex, long blockKey) {
+        LongObjectMap<V> map = getWorld(worldIndex);
+        return map != null ? map.get(blockKey) : null;
+    }
+
+    public V getOrDefault(SimpleLocation location, V defaultValue) {
+        V value = get(location);
+        return value != null ? value : defaultValue;
+    }
+
+    public boolean containsKey(SimpleLocation location) {
+        return containsKey(location.getWorldIndex(), location.getBlockKey());
+    }
+
+    public boolean containsKey(int worldIndex, long blockKey) {
+        LongObjectMap<V> map = getWorld(worldIndex);
+        return map != null && map.containsKey(blockKey);
+    }
+
+    public V put(SimpleLocation location, V value) {
+        return getOrCreateWorld(location.getWorldIndex()).put(location.getBlockKey(), value);
+    }
+
+    public V putIfAbsent(SimpleLocation location, V value) {
+        return putIfAbsent(location.getWorldIndex(), location.getBlockKey(), value);
+    }
+
+    public V putIfAbsent(int worldIndex, long blockKey, V value) {
+        return getOrCreateWorld(worldIndex).putIfAbsent(blockKey, value);
+    }
+
+    public V remove(SimpleLocation location) {
+        return remove(location.getWorldIndex(), location.getBlockKey());
+    }
+
+    public V remove(int worldIndex, long blockKey) {
+        LongObjectMap<V> map = getWorld(worldIndex);
+        return map != null ? map.remove(blockKey) : null;
+    }
+
+    public boolean remove(SimpleLocation location, Object value) {
+        LongObjectMap<V> map = getWorld(location.getWorldIndex());
+        return map != null && map.remove(location.getBlockKey(), value);
+    }
+
+    /**
+     * Get the map of one world
+     *
+     * @param worldIndex the index of the world
+     * @return the map of the block keys of that world or <code>null</code> if nothing was stored in it
+     */
+    public LongObjectMap<V> getWorldMap(int worldIndex) {
+        return getWorld(worldIndex);
+    }
+
+    public int size() {
+        int size = 0;
+        for (LongObjectMap<V> map : worlds) {
+            if (map != null) {
+                size += map.size();
+            }
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        for (LongObjectMap<V> map : worlds) {
+            if (map != null && !map.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void clear() {
+        for (LongObjectMap<V> map : worlds) {
+            if (map != null) {
+                map.clear();
+            }
+        }
+    }
+
+    /**
+     * Get all values of all worlds
+     *
+     * @return a new list with the values
+     */
+    public Collection<V> values() {
+        List<V> values = new ArrayList<>();
+        for (LongObjectMap<V> map : worlds) {
+            if (map != null) {
+                values.addAll(map.values());
+            }
+        }
+        return values;
+    }
+}
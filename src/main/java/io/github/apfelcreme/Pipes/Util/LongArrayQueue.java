@@ -0,0 +1,79 @@
+package io.github.apfelcreme.Pipes.Util;
+
+import java.util.NoSuchElementException;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class LongArrayQueue {
+
+    private long[] elements;
+    private int head = 0;
+    private int tail = 0;
+
+    public LongArrayQueue() {
+        this(16);
+    }
+
+    public LongArrayQueue(int expectedSize) {
+        elements = new long[Integer.highestOneBit(Math.max(4, expectedSize) - 1) << 1];
+    }
+
+    public void add(long element) {
+        elements[tail] = element;
+        tail = (tail + 1) & (elements.length - 1);
+        if (tail == head) {
+            long[] grown = new long[elements.length << 1];
+            int headLength = elements.length - head;
+            System.arraycopy(elements, head, grown, 0, headLength);
+            System.arraycopy(elements, 0, grown, headLength, head);
+            head = 0;
+            tail = elements.length;
+            elements = grown;
+        }
+    }
+
+    public long remove() {
+        if (head == tail) {
+            throw new NoSuchElementException();
+        }
+        long element = elements[head];
+        head = (head + 1) & (elements.length - 1);
+        return element;
+    }
+
+    public long peek() {
+        if (head == tail) {
+            throw new NoSuchElementException();
+        }
+        return elements[head];
+    }
+
+    public int size() {
+        return (tail - head) & (elements.length - 1);
+    }
+
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    public void clear() {
+        head = 0;
+        tail = 0;
+    }
+}
@@ -0,0 +1,132 @@
+package io.github.apfelcreme.Pipes.LoopDetection;
+
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class DetectionTest {
+
+    private static SimpleLocation location(int x) {
+        return new SimpleLocation(0, SimpleLocation.getBlockKey(x, 64, 0));
+    }
+
+    @Test
+    public void sortsLocationsByTransfers() {
+        Detection detection = new Detection(1);
+        detection.addLocation(location(1));
+        detection.addLocation(location(2));
+        detection.addLocation(location(2));
+        detection.addLocation(location(3));
+        detection.addLocation(location(2));
+        detection.addLocation(location(3));
+
+        List<TickingLocation> result = detection.getResult();
+        assertEquals(3, result.size());
+        assertEquals(location(2), result.get(0).getLocation());
+        assertEquals(3, result.get(0).getTimesTicked());
+        assertEquals(location(3), result.get(1).getLocation());
+        assertEquals(location(1), result.get(2).getLocation());
+    }
+
+    @Test
+    public void scalesCountsBySampleRate() {
+        Detection detection = new Detection(8);
+        detection.addLocation(location(1));
+        assertEquals(8, detection.getResult().get(0).getTimesTicked());
+    }
+
+    @Test
+    public void stopsSampling() {
+        Detection detection = new Detection(1);
+        assertTrue(detection.sample());
+        detection.stop();
+        assertFalse(detection.sample());
+    }
+
+    @Test
+    public void findsNoLoopsInChains() {
+        Detection detection = new Detection(1);
+        detection.addEdge(location(1), location(2));
+        detection.addEdge(location(2), location(3));
+        detection.addEdge(location(1), location(3));
+        assertTrue(detection.getLoops().isEmpty());
+    }
+
+    @Test
+    public void findsLoops() {
+        Detection detection = new Detection(1);
+        // 1 -> 2 -> 3 -> 1 with a tail 3 -> 4 -> 5 that isn't part of it
+        detection.addEdge(location(1), location(2));
+        detection.addEdge(location(2), location(3));
+        detection.addEdge(location(3), location(1));
+        detection.addEdge(location(3), location(4));
+        detection.addEdge(location(4), location(5));
+        // 6 <-> 7
+        detection.addEdge(location(6), location(7));
+        detection.addEdge(location(7), location(6));
+        // 8 feeds itself
+        detection.addEdge(location(8), location(8));
+        // Recorded edges of the same move don't change the loops
+        detection.addEdge(location(6), location(7));
+
+        List<List<SimpleLocation>> loops = detection.getLoops();
+        assertEquals(3, loops.size());
+        assertEquals(new HashSet<>(Arrays.asList(location(1), location(2), location(3))), new HashSet<>(loops.get(0)));
+        assertEquals(new HashSet<>(Arrays.asList(location(6), location(7))), new HashSet<>(loops.get(1)));
+        assertEquals(Arrays.asList(location(8)), loops.get(2));
+    }
+
+    @Test
+    public void ignoresMovesBetweenWorlds() {
+        Detection detection = new Detection(1);
+        long key = SimpleLocation.getBlockKey(1, 64, 0);
+        detection.addEdge(new SimpleLocation(0, key), new SimpleLocation(1, key));
+        detection.addEdge(new SimpleLocation(1, key), new SimpleLocation(0, key));
+        assertTrue(detection.getLoops().isEmpty());
+    }
+
+    @Test
+    public void findsLoopsDeeperThanTheCallStack() {
+        Detection detection = new Detection(1);
+        int size = 100000;
+        for (int i = 0; i < size; i++) {
+            detection.addEdge(location(i), location((i + 1) % size));
+        }
+        List<List<SimpleLocation>> loops = detection.getLoops();
+        assertEquals(1, loops.size());
+        assertEquals(size, loops.get(0).size());
+
+        // The members are listed in the order that the items move through them
+        List<SimpleLocation> loop = new ArrayList<>(loops.get(0));
+        int start = SimpleLocation.getBlockKeyX(loop.get(0).getBlockKey());
+        for (int i = 0; i < size; i++) {
+            assertEquals(location((start + i) % size), loop.get(i));
+        }
+    }
+}
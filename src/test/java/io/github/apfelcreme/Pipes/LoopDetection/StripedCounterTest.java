@@ -0,0 +1,128 @@
+package io.github.apfelcreme.Pipes.LoopDetection;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class StripedCounterTest {
+
+    /**
+     * reads all counts of a counter by their key
+     */
+    private static Map<Key, Integer> read(StripedCounter counter) {
+        Map<Key, Integer> counts = new HashMap<>();
+        counter.forEach((world, first, second, count) -> {
+            if (counts.put(new Key(world, first, second), count) != null) {
+                throw new AssertionError("Key " + world + "/" + first + "/" + second + " was visited twice");
+            }
+        });
+        return counts;
+    }
+
+    @Test
+    public void addsUpCountsPerKey() {
+        StripedCounter counter = new StripedCounter();
+        counter.add(0, 1, 0, 1);
+        counter.add(0, 1, 0, 2);
+        counter.add(1, 1, 0, 4);
+        counter.add(0, 1, 2, 8);
+        counter.add(0, 2, 1, 16);
+
+        Map<Key, Integer> counts = read(counter);
+        assertEquals(4, counts.size());
+        assertEquals(3, counts.get(new Key(0, 1, 0)));
+        assertEquals(4, counts.get(new Key(1, 1, 0)));
+        assertEquals(8, counts.get(new Key(0, 1, 2)));
+        assertEquals(16, counts.get(new Key(0, 2, 1)));
+    }
+
+    @Test
+    public void keepsCountsWhileGrowing() {
+        StripedCounter counter = new StripedCounter();
+        Map<Key, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            Key key = new Key(i % 3, i * 31L, -i);
+            int amount = i % 7 + 1;
+            counter.add(key.world, key.first, key.second, amount);
+            counter.add(key.world, key.first, key.second, amount);
+            expected.put(key, amount * 2);
+        }
+        assertEquals(expected, read(counter));
+    }
+
+    @Test
+    public void readsWhileCounting() throws InterruptedException {
+        StripedCounter counter = new StripedCounter();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                for (int i = 0; i < 200; i++) {
+                    // Counts may lag behind but every key that is visited has to be complete
+                    counter.forEach((world, first, second, count) -> {
+                        if (world != 0 || second != -first || count < 1) {
+                            throw new AssertionError("Incomplete key " + world + "/" + first + "/" + second + ": " + count);
+                        }
+                    });
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        reader.start();
+        for (int i = 1; i <= 50000; i++) {
+            counter.add(0, i, -i, 1);
+        }
+        reader.join();
+        assertNull(failure.get());
+        assertEquals(50000, read(counter).size());
+    }
+
+    private static class Key {
+        private final int world;
+        private final long first;
+        private final long second;
+
+        private Key(int world, long first, long second) {
+            this.world = world;
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return world == key.world && first == key.first && second == key.second;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(world, first, second);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package io.github.apfelcreme.Pipes.Manager;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import be.seeseemelk.mockbukkit.ServerMock;
+import be.seeseemelk.mockbukkit.WorldMock;
+import be.seeseemelk.mockbukkit.block.state.DispenserMock;
+import be.seeseemelk.mockbukkit.block.state.DropperMock;
+import io.github.apfelcreme.Pipes.Pipe.ChunkLoader;
+import io.github.apfelcreme.Pipes.Pipe.Pipe;
+import io.github.apfelcreme.Pipes.Pipe.PipeInput;
+import io.github.apfelcreme.Pipes.Pipe.PipeOutput;
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import io.github.apfelcreme.Pipes.Pipes;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.Container;
+import org.bukkit.material.MaterialData;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class PipeManagerTest {
+
+    private static final Material GLASS = Material.RED_STAINED_GLASS;
+
+    private WorldMock world;
+
+    @BeforeEach
+    public void setUp() {
+        ServerMock server = MockBukkit.mock();
+        MockBukkit.load(Pipes.class);
+        world = server.addSimpleWorld("pipes");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        MockBukkit.unmock();
+    }
+
+    private Block block(int x, int z, Material type) {
+        Block block = world.getBlockAt(x, 100, z);
+        block.setType(type);
+        return block;
+    }
+
+    /**
+     * builds a pipe that runs from an input at x = 0 along the x axis into an output
+     */
+    private Pipe pipe(int z, int length) {
+        LinkedHashMap<SimpleLocation, PipeInput> inputs = new LinkedHashMap<>();
+        PipeInput input = new TestInput(block(0, z, Material.DISPENSER));
+        inputs.put(input.getLocation(), input);
+        LinkedHashSet<SimpleLocation> blocks = new LinkedHashSet<>();
+        for (int x = 1; x <= length; x++) {
+            blocks.add(new SimpleLocation(block(x, z, GLASS).getLocation()));
+        }
+        LinkedHashMap<SimpleLocation, PipeOutput> outputs = new LinkedHashMap<>();
+        PipeOutput output = new TestOutput(block(length + 1, z, Material.DROPPER));
+        outputs.put(output.getLocation(), output);
+        return new Pipe(inputs, outputs, new LinkedHashMap<SimpleLocation, ChunkLoader>(), blocks, GLASS);
+    }
+
+    @Test
+    public void mergesTheInputsOfTwoPipes() throws Exception {
+        PipeManager manager = PipeManager.getInstance();
+        Pipe first = pipe(0, 3);
+        Pipe second = pipe(2, 3);
+        manager.addPipe(first);
+        manager.addPipe(second);
+
+        // A glass block between the two pipes joins them
+        Pipe merged = manager.addGlassBlock(block(2, 1, GLASS));
+        assertNotNull(merged);
+
+        SimpleLocation firstInput = first.getInputs().keySet().iterator().next();
+        SimpleLocation secondInput = second.getInputs().keySet().iterator().next();
+        assertEquals(2, merged.getInputs().size());
+        assertTrue(merged.getInputs().containsKey(firstInput));
+        assertTrue(merged.getInputs().containsKey(secondInput));
+        assertSame(merged, manager.getPipeCache().getIfPresent(firstInput));
+        assertSame(merged, manager.getPipeCache().getIfPresent(secondInput));
+        assertEquals(2, merged.getOutputs().size());
+        assertEquals(7, merged.getPipeBlocks().size());
+        for (SimpleLocation location : merged.getPipeBlocks()) {
+            assertSame(merged, manager.getSingleCache().get(location));
+        }
+        for (SimpleLocation location : merged.getOutputs().keySet()) {
+            assertEquals(1, manager.getMultiCache().get(location).size());
+            assertTrue(manager.getMultiCache().get(location).contains(merged));
+        }
+
+        // The old pipes don't linger in any cache
+        assertTrue(manager.getCachedPipes().contains(merged));
+        assertFalse(manager.getCachedPipes().contains(first));
+        assertFalse(manager.getCachedPipes().contains(second));
+        assertFalse(manager.getPipesInChunk(world, 0, 0).contains(first));
+        assertFalse(manager.getPipesInChunk(world, 0, 0).contains(second));
+    }
+
+    /**
+     * a dispenser or dropper state that faces along the x axis, the mocked states don't have a direction
+     */
+    private static MaterialData facingEast() {
+        return new org.bukkit.material.Dispenser(BlockFace.EAST);
+    }
+
+    private static class TestInput extends PipeInput {
+        private Container holder;
+
+        private TestInput(Block block) {
+            this(new DispenserMock(block) {
+                @Override
+                public MaterialData getData() {
+                    return facingEast();
+                }
+            });
+        }
+
+        private TestInput(DispenserMock state) {
+            super(state);
+            holder = state;
+        }
+
+        @Override
+        public Container getHolder() {
+            // The mocked blocks can't return their live states
+            return holder;
+        }
+    }
+
+    private static class TestOutput extends PipeOutput {
+        private TestOutput(Block block) {
+            super(new DropperMock(block) {
+                @Override
+                public MaterialData getData() {
+                    return facingEast();
+                }
+            });
+        }
+
+        @Override
+        public Container getHolder() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package io.github.apfelcreme.Pipes.Pipe;
+
+import org.bukkit.block.BlockFace;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class SimpleLocationTest {
+
+    private static final int[][] POSITIONS = {
+            {0, 0, 0},
+            {1, 64, -1},
+            {-1, -64, 1},
+            {29999999, 319, -29999999},
+            {-29999999, -64, 29999999},
+            {1234, 100, -5678}
+    };
+
+    @Test
+    public void blockKeyRoundTrip() {
+        for (int[] position : POSITIONS) {
+            long key = SimpleLocation.getBlockKey(position[0], position[1], position[2]);
+            assertEquals(position[0], SimpleLocation.getBlockKeyX(key));
+            assertEquals(position[1], SimpleLocation.getBlockKeyY(key));
+            assertEquals(position[2], SimpleLocation.getBlockKeyZ(key));
+        }
+    }
+
+    @Test
+    public void blockKeyMatchesPaperLayout() {
+        // x in the lowest 27 bits, z in the next 27 bits and y in the highest 10 bits
+        assertEquals(1L | 3L << 27 | 2L << 54, SimpleLocation.getBlockKey(1, 2, 3));
+        assertEquals(0x7FFFFFFL, SimpleLocation.getBlockKey(-1, 0, 0));
+        assertEquals(-1L << 54, SimpleLocation.getBlockKey(0, -1, 0));
+    }
+
+    @Test
+    public void relativeKeyCrossesZero() {
+        long key = SimpleLocation.getBlockKey(0, 64, 0);
+        assertEquals(SimpleLocation.getBlockKey(-1, 64, 0), SimpleLocation.getRelativeKey(key, BlockFace.WEST));
+        assertEquals(SimpleLocation.getBlockKey(0, 64, -1), SimpleLocation.getRelativeKey(key, BlockFace.NORTH));
+        assertEquals(SimpleLocation.getBlockKey(0, 63, 0), SimpleLocation.getRelativeKey(key, BlockFace.DOWN));
+        for (BlockFace face : new BlockFace[]{BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST, BlockFace.UP, BlockFace.DOWN}) {
+            long relative = SimpleLocation.getRelativeKey(key, face);
+            assertEquals(key, SimpleLocation.getRelativeKey(relative, face.getOppositeFace()));
+        }
+    }
+
+    @Test
+    public void chunkKey() {
+        SimpleLocation location = new SimpleLocation(0, SimpleLocation.getBlockKey(-1, 64, 17));
+        assertEquals(SimpleLocation.getChunkKey(-1, 1), location.getChunkKey());
+        assertEquals(0xFFFFFFFFL | 1L << 32, location.getChunkKey());
+        assertEquals(SimpleLocation.getChunkKey(0, 0), new SimpleLocation(0, SimpleLocation.getBlockKey(15, 0, 15)).getChunkKey());
+    }
+
+    @Test
+    public void equalsByWorldAndBlock() {
+        long key = SimpleLocation.getBlockKey(10, 20, 30);
+        SimpleLocation location = new SimpleLocation(0, key);
+        assertEquals(location, new SimpleLocation(0, key));
+        assertEquals(location.hashCode(), new SimpleLocation(0, key).hashCode());
+        assertEquals(location.hashCode(), SimpleLocation.hashCode(0, key));
+        assertNotEquals(location, new SimpleLocation(1, key));
+        assertNotEquals(location, new SimpleLocation(0, SimpleLocation.getBlockKey(10, 20, 31)));
+    }
+
+    @Test
+    public void worldIndices() {
+        int index = SimpleLocation.getWorldIndex("simple_location_test");
+        assertEquals(index, SimpleLocation.getWorldIndex("simple_location_test"));
+        assertNotEquals(index, SimpleLocation.getWorldIndex("simple_location_test_nether"));
+        assertEquals("simple_location_test", SimpleLocation.getWorldName(index));
+
+        SimpleLocation location = new SimpleLocation("simple_location_test", 5, -3, 7);
+        assertEquals(index, location.getWorldIndex());
+        assertEquals(5, location.getX());
+        assertEquals(-3, location.getY());
+        assertEquals(7, location.getZ());
+    }
+}
@@ -0,0 +1,217 @@
+package io.github.apfelcreme.Pipes.Transfer;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import be.seeseemelk.mockbukkit.inventory.SimpleInventoryMock;
+import org.bukkit.Material;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class InventoryBatchTest {
+
+    @BeforeEach
+    public void setUp() {
+        MockBukkit.mock();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        MockBukkit.unmock();
+    }
+
+    private static Inventory inventory(InventoryType type, int size, ItemStack... items) {
+        Inventory inventory = new WorldInventory(type, size);
+        for (int slot = 0; slot < items.length; slot++) {
+            inventory.setItem(slot, items[slot]);
+        }
+        return inventory;
+    }
+
+    private static void assertSlot(Inventory inventory, int slot, Material type, int amount) {
+        ItemStack item = inventory.getItem(slot);
+        assertEquals(type, item != null ? item.getType() : null, "type in slot " + slot);
+        assertEquals(amount, item.getAmount(), "amount in slot " + slot);
+    }
+
+    @Test
+    public void fillsSimilarStacksBeforeEmptySlots() {
+        Inventory inventory = inventory(InventoryType.CHEST, 5,
+                null, new ItemStack(Material.STONE, 60), new ItemStack(Material.DIRT, 10), new ItemStack(Material.STONE, 64));
+        InventoryBatch batch = new InventoryBatch(inventory);
+        ItemStack item = new ItemStack(Material.STONE, 10);
+
+        assertEquals(10, batch.add(item));
+        assertEquals(0, item.getAmount());
+        batch.flush();
+        assertSlot(inventory, 0, Material.STONE, 6);
+        assertSlot(inventory, 1, Material.STONE, 64);
+        assertSlot(inventory, 2, Material.DIRT, 10);
+        assertSlot(inventory, 3, Material.STONE, 64);
+        assertNull(inventory.getItem(4));
+    }
+
+    @Test
+    public void splitsByTheSmallerMaxStackSize() {
+        Inventory inventory = inventory(InventoryType.CHEST, 5);
+        inventory.setMaxStackSize(16);
+        InventoryBatch batch = new InventoryBatch(inventory);
+        assertEquals(40, batch.add(new ItemStack(Material.STONE, 40)));
+        assertEquals(20, batch.add(new ItemStack(Material.ENDER_PEARL, 20)));
+        batch.flush();
+        assertSlot(inventory, 0, Material.STONE, 16);
+        assertSlot(inventory, 1, Material.STONE, 16);
+        assertSlot(inventory, 2, Material.STONE, 8);
+        assertSlot(inventory, 3, Material.ENDER_PEARL, 16);
+        assertSlot(inventory, 4, Material.ENDER_PEARL, 4);
+    }
+
+    @Test
+    public void keepsWhatDoesNotFit() {
+        Inventory inventory = inventory(InventoryType.CHEST, 2,
+                new ItemStack(Material.STONE, 60), new ItemStack(Material.DIRT, 64));
+        InventoryBatch batch = new InventoryBatch(inventory);
+        ItemStack item = new ItemStack(Material.STONE, 10);
+        assertEquals(4, batch.add(item));
+        assertEquals(6, item.getAmount());
+        assertEquals(0, batch.add(new ItemStack(Material.DIRT, 1)));
+        assertEquals(0, batch.add(new ItemStack(Material.SAND, 1)));
+    }
+
+    @Test
+    public void leavesTheInventoryAloneUntilFlushed() {
+        ItemStack stone = new ItemStack(Material.STONE, 60);
+        Inventory inventory = inventory(InventoryType.CHEST, 3, stone);
+        ItemStack inWorld = inventory.getItem(0);
+        InventoryBatch batch = new InventoryBatch(inventory);
+
+        batch.add(new ItemStack(Material.STONE, 2));
+        batch.add(new ItemStack(Material.STONE, 3));
+        batch.add(new ItemStack(Material.DIRT, 1));
+        // The stacks of the inventory mirror the ones in the world, they must not be changed before the flush
+        assertEquals(60, inWorld.getAmount());
+        assertNull(inventory.getItem(1));
+        assertEquals(64, batch.getContents()[0].getAmount());
+        assertEquals(1, batch.getContents()[1].getAmount());
+
+        batch.flush();
+        assertSlot(inventory, 0, Material.STONE, 64);
+        assertSlot(inventory, 1, Material.STONE, 1);
+        assertSlot(inventory, 2, Material.DIRT, 1);
+    }
+
+    @Test
+    public void onlyWritesChangedSlots() {
+        Inventory inventory = inventory(InventoryType.CHEST, 3);
+        InventoryBatch batch = new InventoryBatch(inventory);
+        batch.add(new ItemStack(Material.STONE, 1));
+        // Something else changed the inventory after the batch read it
+        ItemStack diamond = new ItemStack(Material.DIAMOND, 3);
+        inventory.setItem(2, diamond);
+        batch.flush();
+        assertSlot(inventory, 0, Material.STONE, 1);
+        assertSlot(inventory, 2, Material.DIAMOND, 3);
+
+        ItemStack flushed = inventory.getItem(0);
+        // Nothing changed since the last flush, so nothing is written
+        batch.flush();
+        assertSame(flushed, inventory.getItem(0));
+    }
+
+    @Test
+    public void readsChangesMadeAfterTheFlush() {
+        Inventory inventory = inventory(InventoryType.CHEST, 2);
+        InventoryBatch batch = new InventoryBatch(inventory);
+        batch.add(new ItemStack(Material.STONE, 10));
+        batch.flush();
+        assertSlot(inventory, 0, Material.STONE, 10);
+
+        // A listener of an event took the stone out and filled the other slot
+        inventory.setItem(0, null);
+        inventory.setItem(1, new ItemStack(Material.DIRT, 64));
+        ItemStack stone = new ItemStack(Material.STONE, 5);
+        assertEquals(5, batch.add(stone));
+        batch.flush();
+        assertSlot(inventory, 0, Material.STONE, 5);
+        assertSlot(inventory, 1, Material.DIRT, 64);
+    }
+
+    @Test
+    public void fillsFurnaceSlots() {
+        Inventory furnace = inventory(InventoryType.FURNACE, 3);
+        InventoryBatch batch = new InventoryBatch(furnace);
+        assertTrue(batch.addFuel(new ItemStack(Material.COAL, 8)));
+        assertTrue(batch.addSmelting(new ItemStack(Material.RAW_IRON, 4)));
+        assertTrue(batch.addSmelting(new ItemStack(Material.RAW_IRON, 4)));
+        assertFalse(batch.addSmelting(new ItemStack(Material.RAW_GOLD, 4)));
+        batch.flush();
+        assertSlot(furnace, 0, Material.RAW_IRON, 8);
+        assertSlot(furnace, 1, Material.COAL, 8);
+        assertNull(furnace.getItem(2));
+    }
+
+    @Test
+    public void fillsBrewingStandSlots() {
+        Inventory brewingStand = inventory(InventoryType.BREWING, 5, null, new ItemStack(Material.POTION));
+        InventoryBatch batch = new InventoryBatch(brewingStand);
+        ItemStack potions = new ItemStack(Material.POTION, 3);
+        assertEquals(2, batch.addPotions(potions));
+        assertEquals(1, potions.getAmount());
+        assertTrue(batch.addIngredient(new ItemStack(Material.NETHER_WART, 2)));
+        assertEquals(Material.NETHER_WART, batch.getIngredient().getType());
+        assertTrue(batch.addFuel(new ItemStack(Material.BLAZE_POWDER, 1)));
+        batch.flush();
+        assertSlot(brewingStand, 0, Material.POTION, 1);
+        assertSlot(brewingStand, 1, Material.POTION, 1);
+        assertSlot(brewingStand, 2, Material.POTION, 1);
+        assertSlot(brewingStand, 3, Material.NETHER_WART, 2);
+        assertSlot(brewingStand, 4, Material.BLAZE_POWDER, 1);
+    }
+
+    @Test
+    public void rejectsFuelForInventoriesWithoutFuel() {
+        InventoryBatch batch = new InventoryBatch(inventory(InventoryType.CHEST, 3));
+        assertThrows(IllegalArgumentException.class, () -> batch.addFuel(new ItemStack(Material.COAL)));
+    }
+
+    /**
+     * An inventory that hands out a new array of its stacks like the ones of blocks in a world do
+     */
+    private static class WorldInventory extends SimpleInventoryMock {
+        private WorldInventory(InventoryType type, int size) {
+            super(null, size, type);
+        }
+
+        @Override
+        public ItemStack[] getStorageContents() {
+            return super.getStorageContents().clone();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.apfelcreme.Pipes.Transfer;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class TokenBucketTest {
+
+    @Test
+    public void startsFull() {
+        TokenBucket bucket = new TokenBucket(20, 10, 0);
+        assertEquals(10, bucket.getAvailable(0));
+        assertTrue(bucket.isFull(0));
+        assertEquals(0, bucket.getTicksUntilAvailable(0));
+    }
+
+    @Test
+    public void refillsPerTickUpToTheBurst() {
+        TokenBucket bucket = new TokenBucket(20, 10, 0);
+        bucket.take(10);
+        assertEquals(0, bucket.getAvailable(0));
+        assertFalse(bucket.isFull(0));
+        assertEquals(5, bucket.getAvailable(5));
+        assertEquals(10, bucket.getAvailable(100));
+        assertTrue(bucket.isFull(100));
+    }
+
+    @Test
+    public void paysBackOverdrawnItems() {
+        TokenBucket bucket = new TokenBucket(20, 10, 0);
+        // A transfer may move a whole stack even if that is more than the bucket holds
+        bucket.take(15);
+        assertEquals(0, bucket.getAvailable(0));
+        assertEquals(6, bucket.getTicksUntilAvailable(0));
+        assertEquals(0, bucket.getAvailable(5));
+        assertEquals(1, bucket.getTicksUntilAvailable(5));
+        assertEquals(1, bucket.getAvailable(6));
+    }
+
+    @Test
+    public void waitsForFractionalRates() {
+        // 4 items per second are one item every 5 ticks
+        TokenBucket bucket = new TokenBucket(4, 1, 0);
+        bucket.take(1);
+        assertEquals(5, bucket.getTicksUntilAvailable(0));
+        assertEquals(0, bucket.getAvailable(4));
+        assertEquals(1, bucket.getTicksUntilAvailable(4));
+        assertEquals(1, bucket.getAvailable(5));
+    }
+
+    @Test
+    public void holdsAtLeastOneTicksRefill() {
+        TokenBucket bucket = new TokenBucket(100, 1, 0);
+        assertEquals(5, bucket.getAvailable(0));
+        bucket.take(5);
+        assertEquals(5, bucket.getAvailable(1));
+    }
+
+    @Test
+    public void keepsSavedItemsWhenReconfigured() {
+        TokenBucket bucket = new TokenBucket(20, 10, 0);
+        bucket.take(4);
+        bucket.configure(20, 8);
+        assertEquals(6, bucket.getAvailable(0));
+        bucket.configure(20, 4);
+        assertEquals(4, bucket.getAvailable(0));
+        assertTrue(bucket.isFull(0));
+    }
+}
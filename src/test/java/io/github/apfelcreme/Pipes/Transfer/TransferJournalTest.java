@@ -0,0 +1,128 @@
+package io.github.apfelcreme.Pipes.Transfer;
+
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class TransferJournalTest {
+
+    @TempDir
+    public File folder;
+
+    private static SimpleLocation location(String world, int x) {
+        return new SimpleLocation(world, x, 64, -x);
+    }
+
+    private static List<SimpleLocation> read(File file) throws IOException {
+        return new ArrayList<>(TransferJournal.read(file));
+    }
+
+    @Test
+    public void replaysRecordsInOrder() throws Exception {
+        File file = new File(folder, "transfers.journal");
+        TransferJournal journal = new TransferJournal(file);
+        journal.compact(Arrays.asList(location("journal", 1), location("journal", 2))).get();
+        journal.add(location("journal", 3));
+        journal.add(location("journal_nether", 4));
+        journal.remove(location("journal", 1));
+        journal.flush();
+        journal.remove(location("journal", 2));
+        // Queued again after it completed, it is at the end now
+        journal.add(location("journal", 2));
+        journal.close();
+
+        assertEquals(Arrays.asList(location("journal", 3), location("journal_nether", 4), location("journal", 2)), read(file));
+    }
+
+    @Test
+    public void compactsToTheQueuedTransfers() throws Exception {
+        File file = new File(folder, "transfers.journal");
+        TransferJournal journal = new TransferJournal(file);
+        journal.compact(Collections.emptyList()).get();
+        for (int i = 0; i < 5000; i++) {
+            journal.add(location("journal", i));
+            journal.remove(location("journal", i));
+        }
+        assertTrue(journal.needsCompaction(1));
+        assertFalse(journal.needsCompaction(5000));
+
+        journal.compact(Arrays.asList(location("journal", 7), location("journal_end", 8))).get();
+        assertFalse(journal.needsCompaction(0));
+        // The records of before the compaction were dropped instead of appended
+        journal.close();
+        assertEquals(Arrays.asList(location("journal", 7), location("journal_end", 8)), read(file));
+    }
+
+    @Test
+    public void keepsRecordsBeforeACutOffOne() throws Exception {
+        File file = new File(folder, "transfers.journal");
+        TransferJournal journal = new TransferJournal(file);
+        journal.compact(Collections.singletonList(location("journal", 1))).get();
+        journal.add(location("journal", 2));
+        journal.close();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        assertEquals(Collections.singletonList(location("journal", 1)), read(file));
+    }
+
+    @Test
+    public void mapsTheWorldIndicesOfTheFile() throws IOException {
+        File file = new File(folder, "transfers.journal");
+        long blockKey = SimpleLocation.getBlockKey(10, 64, 10);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(0x50544a31);
+            // A server that knew the world by another index wrote it
+            out.writeByte(0);
+            out.writeInt(42);
+            out.writeUTF("journal_other");
+            out.writeByte(1);
+            out.writeInt(42);
+            out.writeLong(blockKey);
+        }
+        assertEquals(Collections.singletonList(new SimpleLocation(SimpleLocation.getWorldIndex("journal_other"), blockKey)), read(file));
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        File file = new File(folder, "transfers.yml");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("transfers: []\n".getBytes());
+        }
+        assertThrows(IOException.class, () -> TransferJournal.read(file));
+    }
+}
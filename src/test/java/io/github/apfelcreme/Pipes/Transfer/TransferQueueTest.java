@@ -0,0 +1,215 @@
+package io.github.apfelcreme.Pipes.Transfer;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import be.seeseemelk.mockbukkit.WorldMock;
+import io.github.apfelcreme.Pipes.Pipe.PipeInput;
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class TransferQueueTest {
+
+    private WorldMock world;
+
+    @BeforeEach
+    public void setUp() {
+        world = MockBukkit.mock().addSimpleWorld("transfers");
+        world.loadChunk(0, 0);
+        world.loadChunk(1, 0);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        MockBukkit.unmock();
+    }
+
+    private SimpleLocation location(int x, int z) {
+        return new SimpleLocation(world.getName(), x, 64, z);
+    }
+
+    /**
+     * polls the transfers of one cycle
+     */
+    private List<SimpleLocation> pollCycle(TransferQueue queue) {
+        List<SimpleLocation> polled = new ArrayList<>();
+        queue.startCycle();
+        SimpleLocation location;
+        while ((location = queue.poll()) != null) {
+            polled.add(location);
+        }
+        assertFalse(queue.isCycleRunning());
+        return polled;
+    }
+
+    @Test
+    public void addsEachTransferOnce() {
+        TransferQueue queue = new TransferQueue();
+        assertTrue(queue.add(location(1, 1)));
+        assertFalse(queue.add(location(1, 1)));
+        assertTrue(queue.contains(location(1, 1)));
+        assertFalse(queue.contains(location(1, 2)));
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.getActiveSize());
+    }
+
+    @Test
+    public void chunksTakeTurnsInOrder() {
+        TransferQueue queue = new TransferQueue();
+        SimpleLocation a1 = location(1, 1);
+        SimpleLocation b1 = location(17, 1);
+        SimpleLocation a2 = location(2, 1);
+        SimpleLocation a3 = location(3, 1);
+        for (SimpleLocation location : Arrays.asList(a1, b1, a2, a3)) {
+            queue.add(location);
+        }
+
+        // A turn moves all transfers that its chunk had when the turn started
+        assertEquals(Arrays.asList(a1, a2, a3, b1), pollCycle(queue));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void requeuedTransfersWaitForTheNextCycle() {
+        TransferQueue queue = new TransferQueue();
+        SimpleLocation a1 = location(1, 1);
+        SimpleLocation b1 = location(17, 1);
+        queue.add(a1);
+        queue.add(b1);
+
+        queue.startCycle();
+        assertEquals(a1, queue.poll());
+        // Retried transfers go to the tail of their chunk's bucket
+        queue.add(a1);
+        assertEquals(b1, queue.poll());
+        assertNull(queue.poll());
+
+        assertEquals(Arrays.asList(a1), pollCycle(queue));
+    }
+
+    @Test
+    public void parksUnloadedChunks() {
+        TransferQueue queue = new TransferQueue();
+        SimpleLocation loaded = location(1, 1);
+        SimpleLocation unloaded = location(17, 1);
+        queue.add(loaded);
+        queue.add(unloaded);
+        world.unloadChunk(1, 0);
+
+        assertEquals(Arrays.asList(loaded), pollCycle(queue));
+        assertEquals(1, queue.size());
+        assertEquals(0, queue.getActiveSize());
+        assertTrue(queue.contains(unloaded));
+
+        // Parked buckets aren't polled until their chunk is woken up
+        assertEquals(new ArrayList<>(), pollCycle(queue));
+
+        world.loadChunk(1, 0);
+        assertFalse(queue.wake(SimpleLocation.getWorldIndex(world.getName()), SimpleLocation.getChunkKey(0, 0)));
+        assertTrue(queue.wake(SimpleLocation.getWorldIndex(world.getName()), SimpleLocation.getChunkKey(1, 0)));
+        assertEquals(1, queue.getActiveSize());
+        assertEquals(Arrays.asList(unloaded), pollCycle(queue));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void parksTransfersAddedInUnloadedChunks() {
+        TransferQueue queue = new TransferQueue();
+        SimpleLocation unloaded = location(33, 1);
+        queue.add(unloaded);
+        assertEquals(1, queue.size());
+        assertEquals(0, queue.getActiveSize());
+        assertEquals(new ArrayList<>(), pollCycle(queue));
+
+        world.loadChunk(2, 0);
+        assertTrue(queue.wake(SimpleLocation.getWorldIndex(world.getName()), SimpleLocation.getChunkKey(2, 0)));
+        assertEquals(Arrays.asList(unloaded), pollCycle(queue));
+    }
+
+    /**
+     * returns one location in each of a row of loaded chunks
+     */
+    private List<SimpleLocation> chunkRow(int chunkZ, int count) {
+        List<SimpleLocation> locations = new ArrayList<>();
+        for (int chunkX = 0; chunkX < count; chunkX++) {
+            world.loadChunk(chunkX, chunkZ);
+            locations.add(location(chunkX * 16, chunkZ * 16));
+        }
+        return locations;
+    }
+
+    @Test
+    public void prioritiesTakeTurnsByWeight() {
+        TransferQueue queue = new TransferQueue();
+        // One transfer per chunk so that every transfer is a bucket turn of its own
+        List<SimpleLocation> high = chunkRow(1, 6);
+        List<SimpleLocation> normal = chunkRow(2, 3);
+        List<SimpleLocation> low = chunkRow(3, 2);
+        for (SimpleLocation location : low) {
+            queue.add(location, PipeInput.Options.Priority.LOW);
+        }
+        for (SimpleLocation location : normal) {
+            queue.add(location, PipeInput.Options.Priority.NORMAL);
+        }
+        for (SimpleLocation location : high) {
+            queue.add(location, PipeInput.Options.Priority.HIGH);
+        }
+
+        // High takes 4 transfers, normal 2 and low 1 before the next one gets its turn
+        assertEquals(Arrays.asList(
+                high.get(0), high.get(1), high.get(2), high.get(3),
+                normal.get(0), normal.get(1),
+                low.get(0),
+                high.get(4), high.get(5),
+                normal.get(2),
+                low.get(1)
+        ), pollCycle(queue));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void changesThePriorityOfQueuedTransfers() {
+        TransferQueue queue = new TransferQueue();
+        SimpleLocation location = location(1, 1);
+        assertTrue(queue.add(location, PipeInput.Options.Priority.LOW));
+        assertFalse(queue.add(location, PipeInput.Options.Priority.HIGH));
+        assertEquals(1, queue.size());
+        assertEquals(0, queue.size(PipeInput.Options.Priority.LOW));
+        assertEquals(1, queue.size(PipeInput.Options.Priority.HIGH));
+        assertEquals(Arrays.asList(location), pollCycle(queue));
+    }
+
+    @Test
+    public void boostsToTheNextHigherPriority() {
+        assertEquals(PipeInput.Options.Priority.NORMAL, PipeInput.Options.Priority.LOW.getBoosted());
+        assertEquals(PipeInput.Options.Priority.HIGH, PipeInput.Options.Priority.NORMAL.getBoosted());
+        assertEquals(PipeInput.Options.Priority.HIGH, PipeInput.Options.Priority.HIGH.getBoosted());
+    }
+}
@@ -0,0 +1,126 @@
+package io.github.apfelcreme.Pipes.Util;
+
+import io.github.apfelcreme.Pipes.Pipe.SimpleLocation;
+import org.junit.jupiter.api.Test;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Copyright (C) 2016 Lord36 aka Apfelcreme
+ * <p>
+ * This program is free software;
+ * you can redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ * @author Lord36 aka Apfelcreme
+ */
+public class LongObjectMapTest {
+
+    @Test
+    public void putGetRemove() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        assertTrue(map.isEmpty());
+        assertNull(map.put(1, "a"));
+        assertNull(map.put(-1, "b"));
+        assertNull(map.put(0, "c"));
+        assertEquals("a", map.put(1, "d"));
+        assertEquals(3, map.size());
+        assertEquals("d", map.get(1));
+        assertEquals("b", map.get(-1));
+        assertEquals("c", map.get(0));
+        assertNull(map.get(2));
+        assertEquals("e", map.getOrDefault(2, "e"));
+
+        assertEquals("b", map.putIfAbsent(-1, "f"));
+        assertNull(map.putIfAbsent(2, "f"));
+        assertEquals("f", map.get(2));
+
+        assertFalse(map.remove(2, "g"));
+        assertTrue(map.remove(2, "f"));
+        assertEquals("d", map.remove(1));
+        assertNull(map.remove(1));
+        assertFalse(map.containsKey(1));
+        assertEquals(2, map.size());
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(0));
+    }
+
+    @Test
+    public void rejectsNullValues() {
+        assertThrows(IllegalArgumentException.class, () -> new LongObjectMap<String>().put(1, null));
+    }
+
+    @Test
+    public void matchesHashMap() {
+        // Keys in a small range collide a lot, so the removals have to shift many probe sequences back
+        Random random = new Random(42);
+        LongObjectMap<Long> map = new LongObjectMap<>(4);
+        Map<Long, Long> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(2000) - 1000;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (long key = -1000; key < 1000; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+
+        Set<Long> keys = new HashSet<>();
+        for (long key : map.keys()) {
+            keys.add(key);
+        }
+        assertEquals(expected.keySet(), keys);
+        assertEquals(new HashSet<>(expected.values()), new HashSet<>(map.values()));
+    }
+
+    @Test
+    public void packedBlockKeys() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        for (int x = -8; x < 8; x++) {
+            for (int z = -8; z < 8; z++) {
+                map.put(SimpleLocation.getBlockKey(x, 64, z), x + "," + z);
+            }
+        }
+        assertEquals(256, map.size());
+        assertEquals("-3,5", map.get(SimpleLocation.getBlockKey(-3, 64, 5)));
+        assertNull(map.get(SimpleLocation.getBlockKey(-3, 65, 5)));
+    }
+
+    @Test
+    public void valuesFailOnModification() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        map.put(1, "a");
+        map.put(2, "b");
+        Iterator<String> it = map.values().iterator();
+        it.next();
+        map.put(3, "c");
+        assertThrows(ConcurrentModificationException.class, it::next);
+    }
+}